@@ -0,0 +1,89 @@
+package com.lunary.spring.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.rowset.CachedRowSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.lunary.spring.database.SpringColumnMapper;
+
+/**
+ * SpringColumnMapper.toObject for each property type it handles, reading one column of every row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ColumnMapperBenchmark {
+
+  private static final int ROWS = 1000;
+
+  @Param({ "Long", "String", "BigDecimal", "Integer", "Timestamp", "Date", "Enum" })
+  private String type;
+
+  private CachedRowSet resultSet;
+  private SpringColumnMapper columnMapper;
+  private int index;
+  private Class<?> propType;
+
+  @Setup
+  public void setup() throws SQLException {
+
+    resultSet = SyntheticResultSets.sampleRows(ROWS);
+    columnMapper = new SpringColumnMapper();
+    if (type.equals("Long")) {
+      index = 1;
+      propType = Long.class;
+    }
+    else if (type.equals("String")) {
+      index = 2;
+      propType = String.class;
+    }
+    else if (type.equals("BigDecimal")) {
+      index = 3;
+      propType = BigDecimal.class;
+    }
+    else if (type.equals("Integer")) {
+      index = 4;
+      propType = Integer.class;
+    }
+    else if (type.equals("Timestamp")) {
+      index = 5;
+      propType = Timestamp.class;
+    }
+    else if (type.equals("Date")) {
+      index = 5;
+      propType = java.sql.Date.class;
+    }
+    else {
+      index = 6;
+      propType = SampleStatus.class;
+    }
+  }
+
+  @Benchmark
+  public void toObject(Blackhole blackhole) throws SQLException {
+
+    resultSet.beforeFirst();
+    while (resultSet.next()) {
+      blackhole.consume(columnMapper.toObject(resultSet, index, propType));
+    }
+  }
+}
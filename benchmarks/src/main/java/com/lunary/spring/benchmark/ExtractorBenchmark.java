@@ -0,0 +1,98 @@
+package com.lunary.spring.benchmark;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.rowset.CachedRowSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.RowMapper;
+
+import com.lunary.database.PageContainer;
+import com.lunary.spring.database.BaseBeanPropertyRowMapper;
+import com.lunary.spring.database.SpringColumnMapper;
+import com.lunary.spring.database.extractor.ColumnarExtractor;
+import com.lunary.spring.database.extractor.ColumnarResult;
+import com.lunary.spring.database.extractor.ListExtractor;
+import com.lunary.spring.database.extractor.PaginateExtractor;
+
+/**
+ * <pre>
+ * ListExtractor and ColumnarExtractor reading a whole large ResultSet, and PaginateExtractor extracting the middle page of it
+ * from a scrollable ResultSet (absolute() and last()) and from a forward only one (skipping rows).
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExtractorBenchmark {
+
+  private static final int ROWS_PER_PAGE = 50;
+
+  @Param({ "10000", "100000" })
+  private int rows;
+
+  private CachedRowSet resultSet;
+  private ResultSet forwardOnlyResultSet;
+  private RowMapper<SampleRow> rowMapper;
+  private int middlePage;
+
+  @Setup
+  public void setup() throws SQLException {
+
+    resultSet = SyntheticResultSets.sampleRows(rows);
+    forwardOnlyResultSet = SyntheticResultSets.forwardOnly(resultSet);
+    rowMapper = new BaseBeanPropertyRowMapper<SampleRow>(SampleRow.class, new SpringColumnMapper());
+    middlePage = rows / ROWS_PER_PAGE / 2;
+  }
+
+  @Benchmark
+  public List<SampleRow> listExtractor() throws SQLException {
+
+    resultSet.beforeFirst();
+    return new ListExtractor<SampleRow>(rowMapper).extractData(resultSet);
+  }
+
+  @Benchmark
+  public ColumnarResult columnarExtractor() throws SQLException {
+
+    resultSet.beforeFirst();
+    return new ColumnarExtractor().extractData(resultSet);
+  }
+
+  @Benchmark
+  public PageContainer<SampleRow> paginateScrollable() throws SQLException {
+
+    resultSet.beforeFirst();
+    return new PaginateExtractor<SampleRow>(rowMapper, middlePage, ROWS_PER_PAGE).extractData(resultSet);
+  }
+
+  @Benchmark
+  public PageContainer<SampleRow> paginateForwardOnly() throws SQLException {
+
+    resultSet.beforeFirst();
+    return new PaginateExtractor<SampleRow>(rowMapper, middlePage, ROWS_PER_PAGE).extractData(forwardOnlyResultSet);
+  }
+
+  @Benchmark
+  public PageContainer<SampleRow> sliceForwardOnly() throws SQLException {
+
+    resultSet.beforeFirst();
+    return new PaginateExtractor<SampleRow>(rowMapper, middlePage, ROWS_PER_PAGE, false).extractData(forwardOnlyResultSet);
+  }
+}
@@ -0,0 +1,100 @@
+package com.lunary.spring.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import com.lunary.spring.database.BatchResult;
+import com.lunary.spring.database.SpringSqlUtil;
+
+/**
+ * <pre>
+ * Inserting entities one by one with insert compared with insertBatch, on an in-memory H2 database.
+ * Both read back the generated ids, so the difference is the round trips saved by JDBC batches.
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InsertBenchmark {
+
+  @Param({ "100", "1000" })
+  private int rows;
+
+  private SingleConnectionDataSource dataSource;
+  private JdbcTemplate jdbcTemplate;
+  private SpringSqlUtil sqlUtil;
+
+  @Setup
+  public void setup() {
+
+    dataSource = new SingleConnectionDataSource("jdbc:h2:mem:insert_benchmark;DB_CLOSE_DELAY=-1", "sa", "", true);
+    jdbcTemplate = new JdbcTemplate(dataSource);
+    jdbcTemplate.execute("CREATE TABLE SAMPLE (ID BIGINT AUTO_INCREMENT PRIMARY KEY, NAME VARCHAR(100), AMOUNT DECIMAL(12, 2), "
+        + "QUANTITY INT, CREATED_TIME TIMESTAMP, STATUS VARCHAR(10))");
+    sqlUtil = new SpringSqlUtil(jdbcTemplate, dataSource);
+  }
+
+  @Setup(Level.Iteration)
+  public void truncate() {
+    jdbcTemplate.execute("TRUNCATE TABLE SAMPLE");
+  }
+
+  @TearDown
+  public void tearDown() {
+
+    jdbcTemplate.execute("DROP TABLE SAMPLE");
+    dataSource.destroy();
+  }
+
+  @Benchmark
+  public int singleInserts() {
+
+    int cnt = 0;
+    for (SampleEntity entity : createEntities()) {
+      cnt += sqlUtil.insert(entity);
+    }
+    return cnt;
+  }
+
+  @Benchmark
+  public BatchResult batchInsert() {
+    return sqlUtil.insertBatch(createEntities());
+  }
+
+  private List<SampleEntity> createEntities() {
+
+    List<SampleEntity> entities = new ArrayList<SampleEntity>(rows);
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < rows; i++) {
+      SampleEntity entity = new SampleEntity();
+      entity.setName("name-" + i);
+      entity.setAmount(BigDecimal.valueOf(i * 100L + 25, 2));
+      entity.setQuantity(i % 1000);
+      entity.setCreatedTime(new Timestamp(now - i * 1000L));
+      entities.add(entity);
+    }
+    return entities;
+  }
+}
@@ -0,0 +1,99 @@
+package com.lunary.spring.benchmark;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.rowset.CachedRowSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.RowMapper;
+
+import com.lunary.spring.database.BaseBeanPropertyRowMapper;
+import com.lunary.spring.database.CompactColumnMapRowMapper;
+import com.lunary.spring.database.DirectBeanRowMapper;
+import com.lunary.spring.database.SpringColumnMapper;
+import com.lunary.spring.database.extractor.ListExtractor;
+
+/**
+ * BaseBeanPropertyRowMapper compared with DirectBeanRowMapper and Spring's BeanPropertyRowMapper over the same rows,
+ * and CompactColumnMapRowMapper compared with Spring's ColumnMapRowMapper.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RowMapperBenchmark {
+
+  @Param({ "1000", "100000" })
+  private int rows;
+
+  private CachedRowSet resultSet;
+  private RowMapper<SampleRow> baseMapper;
+  private RowMapper<SampleRow> directMapper;
+  private RowMapper<SampleRow> springMapper;
+  private RowMapper<Map<String, Object>> compactMapMapper;
+  private RowMapper<Map<String, Object>> springMapMapper;
+
+  @Setup
+  public void setup() throws SQLException {
+
+    SpringColumnMapper columnMapper = new SpringColumnMapper();
+    resultSet = SyntheticResultSets.sampleRows(rows);
+    baseMapper = new BaseBeanPropertyRowMapper<SampleRow>(SampleRow.class, columnMapper);
+    directMapper = new DirectBeanRowMapper<SampleRow>(SampleRow.class, columnMapper);
+    springMapper = new BeanPropertyRowMapper<SampleRow>(SampleRow.class);
+    compactMapMapper = new CompactColumnMapRowMapper();
+    springMapMapper = new ColumnMapRowMapper();
+  }
+
+  @Benchmark
+  public List<SampleRow> baseBeanPropertyRowMapper() throws SQLException {
+
+    resultSet.beforeFirst();
+    return new ListExtractor<SampleRow>(baseMapper).extractData(resultSet);
+  }
+
+  @Benchmark
+  public List<SampleRow> directBeanRowMapper() throws SQLException {
+
+    resultSet.beforeFirst();
+    return new ListExtractor<SampleRow>(directMapper).extractData(resultSet);
+  }
+
+  @Benchmark
+  public List<SampleRow> springBeanPropertyRowMapper() throws SQLException {
+
+    resultSet.beforeFirst();
+    return new ListExtractor<SampleRow>(springMapper).extractData(resultSet);
+  }
+
+  @Benchmark
+  public List<Map<String, Object>> compactColumnMapRowMapper() throws SQLException {
+
+    resultSet.beforeFirst();
+    return new ListExtractor<Map<String, Object>>(compactMapMapper).extractData(resultSet);
+  }
+
+  @Benchmark
+  public List<Map<String, Object>> springColumnMapRowMapper() throws SQLException {
+
+    resultSet.beforeFirst();
+    return new ListExtractor<Map<String, Object>>(springMapMapper).extractData(resultSet);
+  }
+}
@@ -0,0 +1,14 @@
+package com.lunary.spring.benchmark;
+
+import com.lunary.model.IdKeyedTableEntity;
+
+/**
+ * SampleRow stored in the SAMPLE table of InsertBenchmark.
+ */
+public class SampleEntity extends SampleRow implements IdKeyedTableEntity {
+
+  @Override
+  public String getTableName() {
+    return "SAMPLE";
+  }
+}
@@ -0,0 +1,65 @@
+package com.lunary.spring.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+/**
+ * Bean mapped from the rows of SyntheticResultSets.
+ */
+public class SampleRow {
+
+  private long id;
+  private String name;
+  private BigDecimal amount;
+  private Integer quantity;
+  private Timestamp createdTime;
+  private SampleStatus status;
+
+  public long getId() {
+    return id;
+  }
+
+  public void setId(long id) {
+    this.id = id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public BigDecimal getAmount() {
+    return amount;
+  }
+
+  public void setAmount(BigDecimal amount) {
+    this.amount = amount;
+  }
+
+  public Integer getQuantity() {
+    return quantity;
+  }
+
+  public void setQuantity(Integer quantity) {
+    this.quantity = quantity;
+  }
+
+  public Timestamp getCreatedTime() {
+    return createdTime;
+  }
+
+  public void setCreatedTime(Timestamp createdTime) {
+    this.createdTime = createdTime;
+  }
+
+  public SampleStatus getStatus() {
+    return status;
+  }
+
+  public void setStatus(SampleStatus status) {
+    this.status = status;
+  }
+}
@@ -0,0 +1,8 @@
+package com.lunary.spring.benchmark;
+
+/**
+ * Enum column of SampleRow.
+ */
+public enum SampleStatus {
+  NEW, ACTIVE, CLOSED
+}
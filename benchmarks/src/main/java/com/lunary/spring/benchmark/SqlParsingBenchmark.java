@@ -0,0 +1,81 @@
+package com.lunary.spring.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lunary.database.PaginateSqlTemplate;
+import com.lunary.database.impl.MySqlPaginateSqlTemplate;
+import com.lunary.spring.database.ParsedSql;
+import com.lunary.spring.database.SqlRewriteCache;
+
+/**
+ * <pre>
+ * The ORDER BY trimming and count SQL formatting done by SpringSqlUtilWithDbAwareImpl for every page:
+ * parsing each time compared with the SqlRewriteCache lookup used on the hot path.
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SqlParsingBenchmark {
+
+  @Param({ "simple", "subquery", "long" })
+  private String shape;
+
+  private String sql;
+  private SqlRewriteCache cache;
+  private PaginateSqlTemplate template;
+
+  @Setup
+  public void setup() {
+
+    if (shape.equals("simple")) {
+      sql = "SELECT * FROM ORDERS WHERE STATUS = ? ORDER BY CREATED_TIME DESC";
+    }
+    else if (shape.equals("subquery")) {
+      sql = "SELECT o.ID, o.TOTAL, (SELECT MAX(l.PRICE) FROM ORDER_LINE l WHERE l.ORDER_ID = o.ID ORDER BY 1) MAX_PRICE, "
+          + "ROW_NUMBER() OVER (PARTITION BY o.CUSTOMER_ID ORDER BY o.TOTAL) RN FROM ORDERS o "
+          + "WHERE o.NOTE <> 'order by' AND o.ID IN (SELECT ORDER_ID FROM SHIPMENT) ORDER BY o.CREATED_TIME DESC, o.ID";
+    }
+    else {
+      StringBuilder sb = new StringBuilder("SELECT ");
+      for (int i = 0; i < 60; i++) {
+        sb.append(i > 0 ? ", " : "").append("c.COLUMN_").append(i);
+      }
+      sb.append(" FROM CUSTOMER c JOIN ADDRESS a ON a.CUSTOMER_ID = c.ID LEFT JOIN PHONE p ON p.CUSTOMER_ID = c.ID");
+      sb.append(" WHERE c.STATUS IN (?, ?, ?) AND a.COUNTRY = ? /* ORDER BY in a comment */ ORDER BY c.NAME, c.ID");
+      sql = sb.toString();
+    }
+    cache = new SqlRewriteCache();
+    template = new MySqlPaginateSqlTemplate();
+  }
+
+  @Benchmark
+  public String parse() {
+    return ParsedSql.parse(sql).getOrderBy();
+  }
+
+  @Benchmark
+  public String parseAndFormatCount() {
+    return ParsedSql.parse(sql).getCountSql(template);
+  }
+
+  @Benchmark
+  public String cachedFormatCount() {
+    return cache.get(sql).getCountSql(template);
+  }
+}
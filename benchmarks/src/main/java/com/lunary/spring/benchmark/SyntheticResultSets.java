@@ -0,0 +1,78 @@
+package com.lunary.spring.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+/**
+ * In-memory ResultSets with the columns of SampleRow, so benchmarks measure mapping and extraction only.
+ */
+public final class SyntheticResultSets {
+
+  private static final String[] COLUMNS = { "ID", "NAME", "AMOUNT", "QUANTITY", "CREATED_TIME", "STATUS" };
+  private static final int[] TYPES = { Types.BIGINT, Types.VARCHAR, Types.DECIMAL, Types.INTEGER, Types.TIMESTAMP, Types.VARCHAR };
+
+  private static final SampleStatus[] STATUSES = SampleStatus.values();
+
+  private SyntheticResultSets() {
+  }
+
+  /**
+   * Create a scrollable in-memory ResultSet positioned before the first row.
+   *
+   * @param rows
+   *          number of rows
+   * @return the ResultSet
+   * @throws SQLException
+   */
+  public static CachedRowSet sampleRows(int rows) throws SQLException {
+
+    CachedRowSet rs = RowSetProvider.newFactory().createCachedRowSet();
+    RowSetMetaDataImpl rsmd = new RowSetMetaDataImpl();
+    rsmd.setColumnCount(COLUMNS.length);
+    for (int i = 0; i < COLUMNS.length; i++) {
+      rsmd.setColumnName(i + 1, COLUMNS[i]);
+      rsmd.setColumnLabel(i + 1, COLUMNS[i]);
+      rsmd.setColumnType(i + 1, TYPES[i]);
+      rsmd.setNullable(i + 1, RowSetMetaDataImpl.columnNullable);
+    }
+    rs.setMetaData(rsmd);
+
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < rows; i++) {
+      rs.moveToInsertRow();
+      rs.updateLong(1, i);
+      rs.updateString(2, "name-" + i);
+      rs.updateBigDecimal(3, BigDecimal.valueOf(i * 100L + 25, 2));
+      if (i % 10 == 0) {
+        rs.updateNull(4);
+      }
+      else {
+        rs.updateInt(4, i % 1000);
+      }
+      rs.updateTimestamp(5, new Timestamp(now - i * 1000L));
+      rs.updateString(6, STATUSES[i % STATUSES.length].name());
+      rs.insertRow();
+    }
+    rs.moveToCurrentRow();
+    rs.beforeFirst();
+    return rs;
+  }
+
+  /**
+   * Wrap rs so that it reports itself as TYPE_FORWARD_ONLY, like the ResultSet of a streaming driver.
+   * rs must be positioned before the first row by the caller.
+   *
+   * @param rs
+   * @return the forward only view
+   */
+  public static ResultSet forwardOnly(ResultSet rs) {
+    return new ForwardOnlyResultSet(rs);
+  }
+}
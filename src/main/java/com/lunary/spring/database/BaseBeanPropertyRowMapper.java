@@ -1,30 +1,157 @@
-
 package com.lunary.spring.database;
 
 import java.beans.PropertyDescriptor;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.NotWritablePropertyException;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.TypeMismatchException;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
 
 import com.lunary.database.ColumnMapper;
 
+/**
+ * <pre>
+ * BeanPropertyRowMapper that converts column values through a ColumnMapper.
+ * Column to property resolution is done once per ResultSet shape instead of once per row,
+ * instances are thread safe and meant to be shared (see RowMapperRegistry).
+ * </pre>
+ *
+ * @see com.lunary.spring.database.RowMapperRegistry
+ */
 public class BaseBeanPropertyRowMapper<T> extends BeanPropertyRowMapper<T> {
 
   private final ColumnMapper columnMapper;
-  
+  private final Map<String, PropertyDescriptor> mappedFields;
+  private final Set<String> mappedProperties;
+  private final ResultSetShapeCache<ColumnPlan> columnPlans = new ResultSetShapeCache<ColumnPlan>() {
+
+    @Override
+    protected ColumnPlan createPlan(ResultSetMetaData rsmd) throws SQLException {
+      return createColumnPlan(rsmd);
+    }
+  };
+
   public BaseBeanPropertyRowMapper(Class<T> mappedClass, ColumnMapper columnMapper) {
     super(mappedClass);
     this.columnMapper = columnMapper;
+    this.mappedFields = new HashMap<String, PropertyDescriptor>();
+    this.mappedProperties = new HashSet<String>();
+    for (PropertyDescriptor pd : BeanUtils.getPropertyDescriptors(mappedClass)) {
+      if (pd.getWriteMethod() != null) {
+        String lowerCaseName = pd.getName().toLowerCase();
+        this.mappedFields.put(lowerCaseName, pd);
+        String underscoredName = underscoreName(pd.getName());
+        if (!lowerCaseName.equals(underscoredName)) {
+          this.mappedFields.put(underscoredName, pd);
+        }
+        this.mappedProperties.add(pd.getName());
+      }
+    }
   }
-  
+
+  @Override
+  public T mapRow(ResultSet rs, int rowNumber) throws SQLException {
+
+    ColumnPlan plan = columnPlans.getPlan(rs, rowNumber);
+    if (isCheckFullyPopulated() && !plan.fullyPopulated) {
+      throw new InvalidDataAccessApiUsageException("Given ResultSet does not contain all fields necessary to populate object of class [" + getMappedClass() + "]: " + mappedProperties);
+    }
+
+    T mappedObject = BeanUtils.instantiate(getMappedClass());
+    BeanWrapper bw = PropertyAccessorFactory.forBeanPropertyAccess(mappedObject);
+    initBeanWrapper(bw);
+
+    PropertyDescriptor[] properties = plan.properties;
+    for (int i = 0; i < properties.length; i++) {
+      PropertyDescriptor pd = properties[i];
+      if (pd != null) {
+        Object value = getColumnValue(rs, i + 1, pd);
+        try {
+          bw.setPropertyValue(pd.getName(), value);
+        }
+        catch (TypeMismatchException e) {
+          if (value != null || !isPrimitivesDefaultedForNullValue()) {
+            throw e;
+          }
+        }
+        catch (NotWritablePropertyException e) {
+          throw new DataRetrievalFailureException("Unable to map column " + plan.columns[i] + " to property " + pd.getName(), e);
+        }
+      }
+    }
+    return mappedObject;
+  }
+
   @Override
   protected Object getColumnValue(ResultSet rs, int index, PropertyDescriptor pd) throws SQLException {
-    
+
     Object value = columnMapper.toObject(rs, index, pd.getPropertyType());
     if(value == ColumnMapper.UNKNOWN) {
       value = super.getColumnValue(rs, index, pd);
     }
     return value;
   }
+
+  private ColumnPlan createColumnPlan(ResultSetMetaData rsmd) throws SQLException {
+
+    int columnCount = rsmd.getColumnCount();
+    String[] columns = new String[columnCount];
+    PropertyDescriptor[] properties = new PropertyDescriptor[columnCount];
+    Set<String> populatedProperties = new HashSet<String>();
+    for (int index = 1; index <= columnCount; index++) {
+      String column = JdbcUtils.lookupColumnName(rsmd, index);
+      PropertyDescriptor pd = mappedFields.get(column.replaceAll(" ", "").toLowerCase());
+      columns[index - 1] = column;
+      properties[index - 1] = pd;
+      if (pd != null) {
+        populatedProperties.add(pd.getName());
+      }
+    }
+    return new ColumnPlan(columns, properties, populatedProperties.equals(mappedProperties));
+  }
+
+  private static String underscoreName(String name) {
+
+    if (name.length() == 0) {
+      return "";
+    }
+    StringBuilder result = new StringBuilder();
+    result.append(name.substring(0, 1).toLowerCase());
+    for (int i = 1; i < name.length(); i++) {
+      String s = name.substring(i, i + 1);
+      String slc = s.toLowerCase();
+      if (!s.equals(slc)) {
+        result.append("_").append(slc);
+      }
+      else {
+        result.append(s);
+      }
+    }
+    return result.toString();
+  }
+
+  private static class ColumnPlan {
+
+    private final String[] columns;
+    private final PropertyDescriptor[] properties;
+    private final boolean fullyPopulated;
+
+    private ColumnPlan(String[] columns, PropertyDescriptor[] properties, boolean fullyPopulated) {
+      this.columns = columns;
+      this.properties = properties;
+      this.fullyPopulated = fullyPopulated;
+    }
+  }
 }
@@ -0,0 +1,86 @@
+package com.lunary.spring.database;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <pre>
+ * Outcome of a batch operation, one Chunk per JDBC batch that was executed.
+ * Drivers answering Statement.SUCCESS_NO_INFO for a row are counted as one affected row.
+ * </pre>
+ */
+public class BatchResult {
+
+  private final List<Chunk> chunks = new ArrayList<Chunk>();
+
+  public void addChunk(String tableName, int size, int affectedRows) {
+    chunks.add(new Chunk(tableName, size, affectedRows));
+  }
+
+  public void addChunk(String tableName, int size, int[] updateCounts) {
+
+    int affectedRows = 0;
+    for (int count : updateCounts) {
+      if (count > 0) {
+        affectedRows += count;
+      }
+      else if (count == Statement.SUCCESS_NO_INFO) {
+        affectedRows += 1;
+      }
+    }
+    addChunk(tableName, size, affectedRows);
+  }
+
+  public List<Chunk> getChunks() {
+    return Collections.unmodifiableList(chunks);
+  }
+
+  public int getTotalAffectedRows() {
+
+    int total = 0;
+    for (Chunk chunk : chunks) {
+      total += chunk.getAffectedRows();
+    }
+    return total;
+  }
+
+  @Override
+  public String toString() {
+    return "BatchResult " + chunks;
+  }
+
+  public static class Chunk {
+
+    private final String tableName;
+    private final int size;
+    private final int affectedRows;
+
+    public Chunk(String tableName, int size, int affectedRows) {
+      this.tableName = tableName;
+      this.size = size;
+      this.affectedRows = affectedRows;
+    }
+
+    public String getTableName() {
+      return tableName;
+    }
+
+    /**
+     * @return number of statements in the chunk
+     */
+    public int getSize() {
+      return size;
+    }
+
+    public int getAffectedRows() {
+      return affectedRows;
+    }
+
+    @Override
+    public String toString() {
+      return tableName + "[" + affectedRows + "/" + size + "]";
+    }
+  }
+}
@@ -0,0 +1,310 @@
+package com.lunary.spring.database;
+
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+/**
+ * <pre>
+ * RowMapper returning each row as a Map keyed by column name ignoring case, like Spring's ColumnMapRowMapper,
+ * but the column names and their case insensitive index are built once per ResultSet shape and shared by the rows,
+ * each row only holding an Object[] of its values.
+ * A row map behaves as a LinkedCaseInsensitiveMap in column order. Replacing the value of a column is done in place,
+ * adding or removing a column, also through the iterators of the views, copies the row into its own
+ * LinkedCaseInsensitiveMap first.
+ * Row maps are serialized as LinkedCaseInsensitiveMap.
+ * Instances are thread safe and meant to be shared.
+ * </pre>
+ */
+public class CompactColumnMapRowMapper implements RowMapper<Map<String, Object>> {
+
+  private final ResultSetShapeCache<ColumnIndex> columnIndexes = new ResultSetShapeCache<ColumnIndex>() {
+
+    @Override
+    protected ColumnIndex createPlan(ResultSetMetaData rsmd) throws SQLException {
+      return new ColumnIndex(rsmd);
+    }
+  };
+
+  @Override
+  public Map<String, Object> mapRow(ResultSet rs, int rowNum) throws SQLException {
+
+    ColumnIndex columnIndex = columnIndexes.getPlan(rs, rowNum);
+    int[] resultSetIndexes = columnIndex.resultSetIndexes;
+    Object[] values = new Object[resultSetIndexes.length];
+    for (int i = 0; i < resultSetIndexes.length; i++) {
+      values[i] = getColumnValue(rs, resultSetIndexes[i]);
+    }
+    return new RowMap(columnIndex, values);
+  }
+
+  /**
+   * Retrieve a JDBC object value for the specified column, the same as ColumnMapRowMapper.
+   *
+   * @param rs
+   * @param index
+   *          the index of the column
+   * @return the Object returned
+   * @throws SQLException
+   */
+  protected Object getColumnValue(ResultSet rs, int index) throws SQLException {
+    return JdbcUtils.getResultSetValue(rs, index);
+  }
+
+  /**
+   * Column names of a ResultSet shape, a name repeated in the ResultSet keeps its first position and its last value.
+   */
+  private static class ColumnIndex {
+
+    private final String[] names;
+    private final int[] resultSetIndexes;
+    private final Map<String, Integer> positions;
+
+    private ColumnIndex(ResultSetMetaData rsmd) throws SQLException {
+
+      int columnCount = rsmd.getColumnCount();
+      List<String> nameList = new ArrayList<String>(columnCount);
+      List<Integer> indexList = new ArrayList<Integer>(columnCount);
+      positions = new HashMap<String, Integer>(columnCount * 2);
+      for (int index = 1; index <= columnCount; index++) {
+        String name = JdbcUtils.lookupColumnName(rsmd, index);
+        Integer position = positions.get(normalize(name));
+        if (position != null) {
+          indexList.set(position, index);
+        }
+        else {
+          positions.put(normalize(name), nameList.size());
+          nameList.add(name);
+          indexList.add(index);
+        }
+      }
+      names = nameList.toArray(new String[nameList.size()]);
+      resultSetIndexes = new int[indexList.size()];
+      for (int i = 0; i < resultSetIndexes.length; i++) {
+        resultSetIndexes[i] = indexList.get(i);
+      }
+    }
+
+    private int positionOf(Object key) {
+
+      if (!(key instanceof String)) {
+        return -1;
+      }
+      Integer position = positions.get(normalize((String) key));
+      return position != null ? position : -1;
+    }
+
+    private static String normalize(String name) {
+      return name.toUpperCase(Locale.ENGLISH);
+    }
+  }
+
+  private static class RowMap extends AbstractMap<String, Object> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ColumnIndex columnIndex;
+    private final Object[] values;
+    private Map<String, Object> inflated;
+
+    private RowMap(ColumnIndex columnIndex, Object[] values) {
+      this.columnIndex = columnIndex;
+      this.values = values;
+    }
+
+    /**
+     * Copy the row into a map of its own, from then on used for every operation.
+     */
+    private Map<String, Object> inflate() {
+
+      if (inflated == null) {
+        Map<String, Object> map = new LinkedCaseInsensitiveMap<Object>(values.length);
+        for (int i = 0; i < values.length; i++) {
+          map.put(columnIndex.names[i], values[i]);
+        }
+        inflated = map;
+      }
+      return inflated;
+    }
+
+    @Override
+    public int size() {
+      return inflated != null ? inflated.size() : values.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+
+      if (inflated != null) {
+        return inflated.containsKey(key);
+      }
+      return columnIndex.positionOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+
+      if (inflated != null) {
+        return inflated.get(key);
+      }
+      int position = columnIndex.positionOf(key);
+      return position >= 0 ? values[position] : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+
+      if (inflated == null) {
+        int position = columnIndex.positionOf(key);
+        if (position >= 0) {
+          Object old = values[position];
+          values[position] = value;
+          return old;
+        }
+      }
+      return inflate().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+      return inflate().remove(key);
+    }
+
+    @Override
+    public void clear() {
+      inflate().clear();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+
+      if (inflated != null) {
+        return inflated.entrySet();
+      }
+      return new AbstractSet<Map.Entry<String, Object>>() {
+
+        @Override
+        public int size() {
+          return RowMap.this.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+
+          if (inflated != null) {
+            return inflated.entrySet().iterator();
+          }
+          return new EntryIterator();
+        }
+      };
+    }
+
+    private Object writeReplace() {
+
+      Map<String, Object> map = new LinkedCaseInsensitiveMap<Object>(size());
+      map.putAll(inflate());
+      return map;
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+      private int next;
+      private int last = -1;
+      private Iterator<Map.Entry<String, Object>> delegate;
+
+      @Override
+      public boolean hasNext() {
+        return delegate != null ? delegate.hasNext() : next < values.length;
+      }
+
+      @Override
+      public Map.Entry<String, Object> next() {
+
+        if (delegate != null) {
+          return delegate.next();
+        }
+        if (next >= values.length) {
+          throw new NoSuchElementException();
+        }
+        last = next++;
+        final int position = last;
+        return new Map.Entry<String, Object>() {
+
+          @Override
+          public String getKey() {
+            return columnIndex.names[position];
+          }
+
+          @Override
+          public Object getValue() {
+            return values[position];
+          }
+
+          @Override
+          public Object setValue(Object value) {
+
+            Object old = values[position];
+            values[position] = value;
+            return old;
+          }
+
+          @Override
+          public boolean equals(Object o) {
+
+            if (!(o instanceof Map.Entry)) {
+              return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object value = values[position];
+            return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+          }
+
+          @Override
+          public int hashCode() {
+
+            Object value = values[position];
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+          }
+
+          @Override
+          public String toString() {
+            return getKey() + "=" + values[position];
+          }
+        };
+      }
+
+      /**
+       * Inflate the row and go on with an iterator of the inflated map, positioned on the current entry.
+       */
+      @Override
+      public void remove() {
+
+        if (delegate == null) {
+          if (last < 0) {
+            throw new IllegalStateException();
+          }
+          delegate = inflate().entrySet().iterator();
+          for (int i = 0; i <= last; i++) {
+            delegate.next();
+          }
+        }
+        delegate.remove();
+      }
+    }
+  }
+}
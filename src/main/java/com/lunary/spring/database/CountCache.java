@@ -0,0 +1,172 @@
+package com.lunary.spring.database;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * Thread safe cache of row counts keyed by (count SQL, parameters), entries expire after a fixed time to live.
+ * Used by SpringSqlUtilWithDbAwareImpl so paging through the same query within the TTL skips the COUNT,
+ * the totals of a page may then be up to TTL old.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.SpringSqlUtilWithDbAwareImpl#setCountCache(CountCache)
+ */
+public class CountCache {
+
+  public static final int DEFAULT_MAX_SIZE = 1000;
+
+  private final ConcurrentMap<CountKey, CountEntry> counts = new ConcurrentHashMap<CountKey, CountEntry>();
+  private final long ttlNanos;
+  private final int maxSize;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * @param ttl
+   *          time to live of a count
+   * @param unit
+   *          unit of ttl
+   * @throws IllegalArgumentException
+   *           if ttl is not positive
+   */
+  public CountCache(long ttl, TimeUnit unit) throws IllegalArgumentException {
+    this(ttl, unit, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * @param ttl
+   *          time to live of a count
+   * @param unit
+   *          unit of ttl
+   * @param maxSize
+   *          maximum number of counts kept
+   * @throws IllegalArgumentException
+   *           if ttl or maxSize is not positive
+   */
+  public CountCache(long ttl, TimeUnit unit, int maxSize) throws IllegalArgumentException {
+
+    if (ttl <= 0) {
+      throw new IllegalArgumentException("ttl must be positive");
+    }
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    this.ttlNanos = unit.toNanos(ttl);
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @param countSql
+   * @param params
+   * @return the cached count or null if there is none or it expired
+   */
+  public Integer get(String countSql, Object[] params) {
+
+    CountKey key = new CountKey(countSql, params);
+    CountEntry entry = counts.get(key);
+    if (entry != null) {
+      if (entry.expiresAt - System.nanoTime() > 0) {
+        hitCount.incrementAndGet();
+        return entry.count;
+      }
+      counts.remove(key, entry);
+    }
+    missCount.incrementAndGet();
+    return null;
+  }
+
+  public void put(String countSql, Object[] params, int count) {
+
+    if (counts.size() >= maxSize) {
+      evict();
+    }
+    counts.put(new CountKey(countSql, params), new CountEntry(count, System.nanoTime() + ttlNanos));
+  }
+
+  /**
+   * Remove expired counts, or an arbitrary one if none expired.
+   */
+  private void evict() {
+
+    long now = System.nanoTime();
+    boolean removed = false;
+    Iterator<Map.Entry<CountKey, CountEntry>> it = counts.entrySet().iterator();
+    while (it.hasNext()) {
+      if (it.next().getValue().expiresAt - now <= 0) {
+        it.remove();
+        removed = true;
+      }
+    }
+    if (!removed) {
+      Iterator<CountKey> keys = counts.keySet().iterator();
+      if (keys.hasNext()) {
+        keys.next();
+        keys.remove();
+      }
+    }
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  public int size() {
+    return counts.size();
+  }
+
+  public void clear() {
+    counts.clear();
+  }
+
+  private static class CountEntry {
+
+    private final int count;
+    private final long expiresAt;
+
+    private CountEntry(int count, long expiresAt) {
+      this.count = count;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private static class CountKey {
+
+    private final String sql;
+    private final Object[] params;
+    private final int hash;
+
+    private CountKey(String sql, Object[] params) {
+      this.sql = sql;
+      this.params = params == null ? new Object[0] : params.clone();
+      this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(this.params);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof CountKey)) {
+        return false;
+      }
+      CountKey other = (CountKey) obj;
+      return hash == other.hash && sql.equals(other.sql) && Arrays.deepEquals(params, other.params);
+    }
+  }
+}
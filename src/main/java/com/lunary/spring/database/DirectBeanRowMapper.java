@@ -0,0 +1,289 @@
+package com.lunary.spring.database;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.TypeMismatchException;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import com.lunary.database.ColumnMapper;
+
+/**
+ * <pre>
+ * RowMapper that builds, per ResultSet shape, one specialized setter per column.
+ * Numeric and boolean properties are read by index with the typed getters (getLong, getInt, getBigDecimal...),
+ * other property types go through the ColumnMapper. The typed getters give the values SpringColumnMapper would,
+ * so with any other ColumnMapper (including subclasses of SpringColumnMapper) every property goes through it.
+ * Values are written by calling the setter directly, without BeanWrapper and its type conversion.
+ *
+ * Only public classes with a public no-argument constructor can be mapped,
+ * the constructor throws IllegalArgumentException otherwise so callers can fall back to BaseBeanPropertyRowMapper.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.RowMapperRegistry
+ */
+public class DirectBeanRowMapper<T> implements RowMapper<T> {
+
+  private final Class<T> mappedClass;
+  private final Constructor<T> constructor;
+  private final ColumnMapper columnMapper;
+  private final boolean typedGetters;
+  private final Map<String, PropertyDescriptor> mappedFields = new HashMap<String, PropertyDescriptor>();
+  private boolean primitivesDefaultedForNullValue = false;
+  private final ResultSetShapeCache<ColumnSetter[]> columnPlans = new ResultSetShapeCache<ColumnSetter[]>() {
+
+    @Override
+    protected ColumnSetter[] createPlan(ResultSetMetaData rsmd) throws SQLException {
+      return createColumnSetters(rsmd);
+    }
+  };
+
+  /**
+   * @param mappedClass
+   * @param columnMapper
+   * @throws IllegalArgumentException
+   *           if mappedClass is not a public class with a public no-argument constructor
+   */
+  public DirectBeanRowMapper(Class<T> mappedClass, ColumnMapper columnMapper) throws IllegalArgumentException {
+
+    if (!Modifier.isPublic(mappedClass.getModifiers()) || Modifier.isAbstract(mappedClass.getModifiers()) || mappedClass.isInterface()) {
+      throw new IllegalArgumentException("Class [" + mappedClass.getName() + "] must be a public concrete class");
+    }
+    try {
+      this.constructor = mappedClass.getConstructor();
+    }
+    catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException("Class [" + mappedClass.getName() + "] has no public no-argument constructor", e);
+    }
+    this.mappedClass = mappedClass;
+    this.columnMapper = columnMapper;
+    this.typedGetters = columnMapper != null && columnMapper.getClass() == SpringColumnMapper.class;
+
+    for (PropertyDescriptor pd : BeanUtils.getPropertyDescriptors(mappedClass)) {
+      Method writeMethod = pd.getWriteMethod();
+      if (writeMethod != null) {
+        if (!Modifier.isPublic(writeMethod.getDeclaringClass().getModifiers())) {
+          writeMethod.setAccessible(true);
+        }
+        String lowerCaseName = pd.getName().toLowerCase();
+        mappedFields.put(lowerCaseName, pd);
+        mappedFields.put(underscoreName(pd.getName()), pd);
+      }
+    }
+  }
+
+  public Class<T> getMappedClass() {
+    return mappedClass;
+  }
+
+  /**
+   * Set whether a NULL column mapped to a primitive property leaves the property at its default value
+   * instead of failing. Default is false, the same as BeanPropertyRowMapper.
+   */
+  public void setPrimitivesDefaultedForNullValue(boolean primitivesDefaultedForNullValue) {
+    this.primitivesDefaultedForNullValue = primitivesDefaultedForNullValue;
+  }
+
+  @Override
+  public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+
+    ColumnSetter[] setters = columnPlans.getPlan(rs, rowNum);
+    T mappedObject;
+    try {
+      mappedObject = constructor.newInstance();
+    }
+    catch (Exception e) {
+      throw new DataRetrievalFailureException("Unable to instantiate class [" + mappedClass.getName() + "]", e);
+    }
+    for (int i = 0; i < setters.length; i++) {
+      if (setters[i] != null) {
+        setters[i].set(mappedObject, rs, i + 1, primitivesDefaultedForNullValue);
+      }
+    }
+    return mappedObject;
+  }
+
+  private ColumnSetter[] createColumnSetters(ResultSetMetaData rsmd) throws SQLException {
+
+    int columnCount = rsmd.getColumnCount();
+    ColumnSetter[] setters = new ColumnSetter[columnCount];
+    for (int index = 1; index <= columnCount; index++) {
+      String column = JdbcUtils.lookupColumnName(rsmd, index);
+      PropertyDescriptor pd = mappedFields.get(column.replaceAll(" ", "").toLowerCase());
+      if (pd != null) {
+        setters[index - 1] = createColumnSetter(pd.getWriteMethod(), pd.getPropertyType());
+      }
+    }
+    return setters;
+  }
+
+  private ColumnSetter createColumnSetter(Method setter, final Class<?> propType) {
+
+    if (!typedGetters) {
+      return createMapperSetter(setter, propType);
+    }
+    if (propType == long.class || propType == Long.class) {
+      return new ColumnSetter(setter, propType) {
+
+        @Override
+        protected Object getValue(ResultSet rs, int index) throws SQLException {
+          long value = rs.getLong(index);
+          return value == 0 && rs.wasNull() ? null : Long.valueOf(value);
+        }
+      };
+    }
+    else if (propType == int.class || propType == Integer.class) {
+      return new ColumnSetter(setter, propType) {
+
+        @Override
+        protected Object getValue(ResultSet rs, int index) throws SQLException {
+          int value = rs.getInt(index);
+          return value == 0 && rs.wasNull() ? null : Integer.valueOf(value);
+        }
+      };
+    }
+    else if (propType == short.class || propType == Short.class) {
+      return new ColumnSetter(setter, propType) {
+
+        @Override
+        protected Object getValue(ResultSet rs, int index) throws SQLException {
+          short value = rs.getShort(index);
+          return value == 0 && rs.wasNull() ? null : Short.valueOf(value);
+        }
+      };
+    }
+    else if (propType == byte.class || propType == Byte.class) {
+      return new ColumnSetter(setter, propType) {
+
+        @Override
+        protected Object getValue(ResultSet rs, int index) throws SQLException {
+          byte value = rs.getByte(index);
+          return value == 0 && rs.wasNull() ? null : Byte.valueOf(value);
+        }
+      };
+    }
+    else if (propType == double.class || propType == Double.class) {
+      return new ColumnSetter(setter, propType) {
+
+        @Override
+        protected Object getValue(ResultSet rs, int index) throws SQLException {
+          double value = rs.getDouble(index);
+          return value == 0 && rs.wasNull() ? null : Double.valueOf(value);
+        }
+      };
+    }
+    else if (propType == float.class || propType == Float.class) {
+      return new ColumnSetter(setter, propType) {
+
+        @Override
+        protected Object getValue(ResultSet rs, int index) throws SQLException {
+          float value = rs.getFloat(index);
+          return value == 0 && rs.wasNull() ? null : Float.valueOf(value);
+        }
+      };
+    }
+    else if (propType == boolean.class || propType == Boolean.class) {
+      return new ColumnSetter(setter, propType) {
+
+        @Override
+        protected Object getValue(ResultSet rs, int index) throws SQLException {
+          boolean value = rs.getBoolean(index);
+          return !value && rs.wasNull() ? null : Boolean.valueOf(value);
+        }
+      };
+    }
+    else if (propType == BigDecimal.class) {
+      return new ColumnSetter(setter, propType) {
+
+        @Override
+        protected Object getValue(ResultSet rs, int index) throws SQLException {
+          return rs.getBigDecimal(index);
+        }
+      };
+    }
+    return createMapperSetter(setter, propType);
+  }
+
+  private ColumnSetter createMapperSetter(Method setter, final Class<?> propType) {
+
+    return new ColumnSetter(setter, propType) {
+
+      @Override
+      protected Object getValue(ResultSet rs, int index) throws SQLException {
+        Object value = columnMapper.toObject(rs, index, propType);
+        if (value == ColumnMapper.UNKNOWN) {
+          value = JdbcUtils.getResultSetValue(rs, index, propType);
+        }
+        return value;
+      }
+    };
+  }
+
+  private static String underscoreName(String name) {
+
+    if (name.length() == 0) {
+      return "";
+    }
+    StringBuilder result = new StringBuilder();
+    result.append(name.substring(0, 1).toLowerCase());
+    for (int i = 1; i < name.length(); i++) {
+      String s = name.substring(i, i + 1);
+      String slc = s.toLowerCase();
+      if (!s.equals(slc)) {
+        result.append("_").append(slc);
+      }
+      else {
+        result.append(s);
+      }
+    }
+    return result.toString();
+  }
+
+  private abstract static class ColumnSetter {
+
+    private final Method setter;
+    private final Class<?> propType;
+
+    private ColumnSetter(Method setter, Class<?> propType) {
+      this.setter = setter;
+      this.propType = propType;
+    }
+
+    protected abstract Object getValue(ResultSet rs, int index) throws SQLException;
+
+    private void set(Object bean, ResultSet rs, int index, boolean primitivesDefaultedForNullValue) throws SQLException {
+
+      Object value = getValue(rs, index);
+      if (value == null && propType.isPrimitive()) {
+        if (primitivesDefaultedForNullValue) {
+          return;
+        }
+        throw new TypeMismatchException(value, propType);
+      }
+      try {
+        setter.invoke(bean, value);
+      }
+      catch (IllegalArgumentException e) {
+        throw new TypeMismatchException(value, propType, e);
+      }
+      catch (IllegalAccessException e) {
+        throw new DataRetrievalFailureException("Unable to map column " + index + " with setter " + setter, e);
+      }
+      catch (InvocationTargetException e) {
+        throw new DataRetrievalFailureException("Unable to map column " + index + " with setter " + setter, e.getTargetException());
+      }
+    }
+  }
+}
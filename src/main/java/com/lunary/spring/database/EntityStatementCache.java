@@ -0,0 +1,427 @@
+package com.lunary.spring.database;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.lunary.database.util.StatementUtil;
+import com.lunary.database.util.StatementUtil.SqlStatement;
+import com.lunary.database.util.TableEntityUtil;
+import com.lunary.model.TableEntity;
+
+/**
+ * <pre>
+ * Cache of the SQL of per entity statements, keyed by (entity class, table, operation, null columns).
+ * The statement of a shape is the one StatementUtil builds (buildDeleteStatement, buildPreparedUpdateStatement,
+ * assembleKeyStatement for FIND_BY_KEY), built once per shape together with the columns its parameters are taken from,
+ * afterwards only the parameter values are extracted from the entity.
+ *
+ * Parameter columns are read from the "column = ?" terms of the SQL and checked against the parameters
+ * StatementUtil returned for the entity the shape was built from, the same way for key columns and
+ * assembleKeyStatement once per class. getStatement returns null for shapes that do not pass the check,
+ * callers then build the statement with StatementUtil as before.
+ * </pre>
+ */
+public class EntityStatementCache {
+
+  public static final int DEFAULT_MAX_SIZE = 1024;
+
+  private static final Pattern AND_PATTERN = Pattern.compile("\\s+AND\\s+", Pattern.CASE_INSENSITIVE);
+  private static final Pattern KEY_PATTERN = Pattern.compile("^\\s*\\(?\\s*(\\S+?)\\s*=\\s*\\?\\s*\\)?\\s*$");
+  private static final Pattern PARAM_PATTERN = Pattern.compile("([^\\s=,()]+)\\s*=\\s*\\?");
+  private static final String[] NO_KEYS = new String[0];
+  private static final EntityStatement NOT_CACHEABLE = new EntityStatement(null, null, null, null, 0);
+
+  public enum Operation {
+    DELETE, UPDATE, UPDATE_WITH_NULL, FIND_BY_KEY
+  }
+
+  private final ConcurrentMap<Class<?>, String[]> keyColumns = new ConcurrentHashMap<Class<?>, String[]>();
+  private final ConcurrentMap<ShapeKey, EntityStatement> statements = new ConcurrentHashMap<ShapeKey, EntityStatement>();
+  private final int maxSize;
+  private volatile boolean explicitColumns = false;
+
+  public EntityStatementCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * @param maxSize
+   *          maximum number of statement shapes kept
+   */
+  public EntityStatementCache(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Set whether FIND_BY_KEY selects the columns of the entity instead of SELECT *, default is false.
+   *
+   * @param explicitColumns
+   */
+  public void setExplicitColumns(boolean explicitColumns) {
+    this.explicitColumns = explicitColumns;
+  }
+
+  /**
+   * Get the statement of an operation on the entity with its parameters.
+   *
+   * @param entity
+   * @param operation
+   * @return the bound statement or null if it must be built with StatementUtil
+   */
+  public BoundStatement bind(TableEntity entity, Operation operation) {
+
+    Map<String, Object> values = TableEntityUtil.convert(entity);
+    EntityStatement statement = getStatement(entity, operation, values);
+    if (statement == null) {
+      return null;
+    }
+    return new BoundStatement(statement.getSql(), statement.getParams(values), statement.keyCount);
+  }
+
+  /**
+   * Get the statement of an operation on the entity.
+   *
+   * @param entity
+   * @param operation
+   * @param values
+   *          column values of the entity, from TableEntityUtil.convert
+   * @return the statement or null if it must be built with StatementUtil
+   */
+  public EntityStatement getStatement(TableEntity entity, Operation operation, Map<String, Object> values) {
+
+    String[] keys = getKeyColumns(entity);
+    if (keys == null) {
+      return null;
+    }
+    BitSet nullColumns = new BitSet();
+    int i = 0;
+    for (Object value : values.values()) {
+      if (value == null) {
+        nullColumns.set(i);
+      }
+      ++i;
+    }
+    boolean explicit = operation == Operation.FIND_BY_KEY && explicitColumns;
+    ShapeKey shape = new ShapeKey(entity.getClass(), entity.getTableName(), operation, values.size(), nullColumns, explicit);
+    EntityStatement statement = statements.get(shape);
+    if (statement == null) {
+      statement = buildStatement(entity, operation, keys, values, explicit);
+      if (statement == null) {
+        statement = NOT_CACHEABLE;
+      }
+      if (statements.size() >= maxSize) {
+        Iterator<ShapeKey> it = statements.keySet().iterator();
+        if (it.hasNext()) {
+          it.next();
+          it.remove();
+        }
+      }
+      statements.putIfAbsent(shape, statement);
+    }
+    if (statement == NOT_CACHEABLE || !statement.matches(values)) {
+      return null;
+    }
+    return statement;
+  }
+
+  /**
+   * @param entity
+   * @return the key columns of the entity class or null if they cannot be parsed from its key statement
+   */
+  public String[] getKeyColumns(TableEntity entity) {
+
+    String[] keys = keyColumns.get(entity.getClass());
+    if (keys == null) {
+      List<Object> keyValues = new ArrayList<Object>();
+      keys = parseKeyColumns(StatementUtil.assembleKeyStatement(entity, keyValues));
+      if (keys == null || !checkParams(keys, keyValues.toArray(), TableEntityUtil.convert(entity), null)) {
+        keys = NO_KEYS;
+      }
+      keyColumns.putIfAbsent(entity.getClass(), keys);
+    }
+    return keys.length == 0 ? null : keys;
+  }
+
+  /**
+   * @param entity
+   * @return the SELECT ... FROM part of the FIND_BY_KEY statement of the entity
+   */
+  public String getSelectSql(TableEntity entity) {
+
+    Set<String> columns = TableEntityUtil.convert(entity).keySet();
+    return buildSelectSql(entity, columns.toArray(new String[columns.size()]), explicitColumns);
+  }
+
+  private static String buildSelectSql(TableEntity entity, String[] columns, boolean explicit) {
+
+    StringBuilder select = new StringBuilder("SELECT ");
+    if (explicit && columns.length > 0) {
+      for (int i = 0; i < columns.length; i++) {
+        select.append(i > 0 ? ", " : "").append(columns[i]);
+      }
+    }
+    else {
+      select.append('*');
+    }
+    return select.append(" FROM ").append(entity.getTableName()).toString();
+  }
+
+  /**
+   * Parse key column names from a key statement like "A = ? AND B = ?".
+   *
+   * @param keyStatement
+   * @return the key columns or null if the statement has another form
+   */
+  static String[] parseKeyColumns(String keyStatement) {
+
+    if (keyStatement == null) {
+      return null;
+    }
+    String[] parts = AND_PATTERN.split(keyStatement.trim());
+    String[] keys = new String[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      Matcher matcher = KEY_PATTERN.matcher(parts[i]);
+      if (!matcher.matches()) {
+        return null;
+      }
+      keys[i] = matcher.group(1);
+    }
+    return keys;
+  }
+
+  /**
+   * Build the statement with StatementUtil and learn its parameter columns.
+   *
+   * @return the statement or null if its parameters cannot be taken from the column values
+   */
+  private EntityStatement buildStatement(TableEntity entity, Operation operation, String[] keys, Map<String, Object> values, boolean explicit) {
+
+    String[] columns = values.keySet().toArray(new String[values.size()]);
+    String sql;
+    Object[] params;
+    if (operation == Operation.FIND_BY_KEY) {
+      List<Object> keyValues = new ArrayList<Object>();
+      String keyStatement = StatementUtil.assembleKeyStatement(entity, keyValues);
+      sql = buildSelectSql(entity, columns, explicit) + " WHERE " + keyStatement;
+      params = keyValues.toArray();
+    }
+    else {
+      SqlStatement statement = operation == Operation.DELETE ? StatementUtil.buildDeleteStatement(entity)
+          : StatementUtil.buildPreparedUpdateStatement(entity, operation == Operation.UPDATE_WITH_NULL);
+      sql = statement.getSql();
+      params = statement.getParams();
+    }
+    if (sql == null || params == null) {
+      return null;
+    }
+
+    List<String> paramColumns = new ArrayList<String>(params.length);
+    Matcher matcher = PARAM_PATTERN.matcher(sql);
+    while (matcher.find()) {
+      int column = indexOfColumn(columns, matcher.group(1));
+      if (column < 0) {
+        return null;
+      }
+      paramColumns.add(columns[column]);
+    }
+    if (paramColumns.size() != params.length || params.length < keys.length) {
+      return null;
+    }
+    // the key values are the last parameters
+    for (int i = 0; i < keys.length; i++) {
+      if (!paramColumns.get(params.length - keys.length + i).equalsIgnoreCase(columns[indexOfColumn(columns, keys[i])])) {
+        return null;
+      }
+    }
+    String[] paramColumnArray = paramColumns.toArray(new String[paramColumns.size()]);
+    boolean[] converted = new boolean[params.length];
+    if (!checkParams(paramColumnArray, params, values, converted)) {
+      return null;
+    }
+    return new EntityStatement(sql, columns, paramColumnArray, converted, keys.length);
+  }
+
+  /**
+   * Check params are the values of paramColumns, as they are or converted by TableEntityUtil.convertToSqlObject.
+   *
+   * @param converted
+   *          set to whether each parameter is converted, may be null
+   */
+  private static boolean checkParams(String[] paramColumns, Object[] params, Map<String, Object> values, boolean[] converted) {
+
+    if (paramColumns.length != params.length) {
+      return false;
+    }
+    String[] columns = values.keySet().toArray(new String[values.size()]);
+    for (int i = 0; i < params.length; i++) {
+      int column = indexOfColumn(columns, paramColumns[i]);
+      if (column < 0) {
+        return false;
+      }
+      Object value = values.get(columns[column]);
+      if (equal(value, params[i])) {
+        continue;
+      }
+      if (value == null || !equal(TableEntityUtil.convertToSqlObject(value.getClass(), value), params[i])) {
+        return false;
+      }
+      if (converted != null) {
+        converted[i] = true;
+      }
+    }
+    return true;
+  }
+
+  private static boolean equal(Object a, Object b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  /**
+   * Find column ignoring case, schema or table qualifier and quotes.
+   */
+  private static int indexOfColumn(String[] columns, String column) {
+
+    for (int i = 0; i < columns.length; i++) {
+      if (columns[i].equalsIgnoreCase(column)) {
+        return i;
+      }
+    }
+    String name = ParsedSql.normalizeTableName(column);
+    for (int i = 0; i < columns.length; i++) {
+      if (ParsedSql.normalizeTableName(columns[i]).equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * SQL of an entity statement with the columns its parameters are taken from.
+   */
+  public static class EntityStatement {
+
+    private final String sql;
+    private final String[] columns;
+    private final String[] paramColumns;
+    private final boolean[] converted;
+    private final int keyCount;
+
+    private EntityStatement(String sql, String[] columns, String[] paramColumns, boolean[] converted, int keyCount) {
+      this.sql = sql;
+      this.columns = columns;
+      this.paramColumns = paramColumns;
+      this.converted = converted;
+      this.keyCount = keyCount;
+    }
+
+    public String getSql() {
+      return sql;
+    }
+
+    /**
+     * @param values
+     *          column values of the entity, from TableEntityUtil.convert
+     * @return the parameters of the statement
+     */
+    public Object[] getParams(Map<String, Object> values) {
+
+      Object[] params = new Object[paramColumns.length];
+      for (int i = 0; i < params.length; i++) {
+        Object value = values.get(paramColumns[i]);
+        params[i] = converted[i] && value != null ? TableEntityUtil.convertToSqlObject(value.getClass(), value) : value;
+      }
+      return params;
+    }
+
+    private boolean matches(Map<String, Object> values) {
+
+      int i = 0;
+      for (String column : values.keySet()) {
+        if (i >= columns.length || !columns[i++].equals(column)) {
+          return false;
+        }
+      }
+      return i == columns.length;
+    }
+  }
+
+  /**
+   * SQL of an entity statement with its parameters, the key values are the last keyCount parameters.
+   */
+  public static class BoundStatement {
+
+    private final String sql;
+    private final Object[] params;
+    private final int keyCount;
+
+    private BoundStatement(String sql, Object[] params, int keyCount) {
+      this.sql = sql;
+      this.params = params;
+      this.keyCount = keyCount;
+    }
+
+    public String getSql() {
+      return sql;
+    }
+
+    public Object[] getParams() {
+      return params;
+    }
+
+    public int getKeyCount() {
+      return keyCount;
+    }
+  }
+
+  private static class ShapeKey {
+
+    private final Class<?> clazz;
+    private final String tableName;
+    private final Operation operation;
+    private final int columnCount;
+    private final BitSet nullColumns;
+    private final boolean explicitColumns;
+
+    private ShapeKey(Class<?> clazz, String tableName, Operation operation, int columnCount, BitSet nullColumns, boolean explicitColumns) {
+      this.clazz = clazz;
+      this.tableName = tableName;
+      this.operation = operation;
+      this.columnCount = columnCount;
+      this.nullColumns = nullColumns;
+      this.explicitColumns = explicitColumns;
+    }
+
+    @Override
+    public int hashCode() {
+
+      int hash = clazz.hashCode();
+      hash = 31 * hash + (tableName == null ? 0 : tableName.hashCode());
+      hash = 31 * hash + operation.hashCode();
+      hash = 31 * hash + columnCount;
+      hash = 31 * hash + (explicitColumns ? 1 : 0);
+      return 31 * hash + nullColumns.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ShapeKey)) {
+        return false;
+      }
+      ShapeKey other = (ShapeKey) obj;
+      return clazz == other.clazz && operation == other.operation && columnCount == other.columnCount && explicitColumns == other.explicitColumns
+          && (tableName == null ? other.tableName == null : tableName.equals(other.tableName)) && nullColumns.equals(other.nullColumns);
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package com.lunary.spring.database;
+
+/**
+ * <pre>
+ * Page of rows read with keyset (seek) pagination.
+ * The continuation token holds the key values of the last row and is passed back to get the next page,
+ * it is null when there is no next page.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.SpringSqlUtil#findWithKeyset(String, String[], boolean, String, int, Class, Object...)
+ */
+public class KeysetPageContainer<T> extends SlicePageContainer<T> {
+
+  private String continuationToken;
+
+  /**
+   * @return token to get the next page with, null if there is no next page
+   */
+  public String getContinuationToken() {
+    return continuationToken;
+  }
+
+  public void setContinuationToken(String continuationToken) {
+    this.continuationToken = continuationToken;
+  }
+}
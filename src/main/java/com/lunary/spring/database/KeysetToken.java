@@ -0,0 +1,173 @@
+package com.lunary.spring.database;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <pre>
+ * Encodes the key values of a row into an opaque continuation token and back.
+ * Supported values are integral numbers, BigDecimal, BigInteger, Double, Float, String, java.sql.Date and
+ * other java.util.Date (decoded as Timestamp). Values are written with a type tag, so no deserialization of
+ * arbitrary classes happens when a client sends a token back.
+ * </pre>
+ */
+public final class KeysetToken {
+
+  private static final String CHARSET = "UTF-8";
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private KeysetToken() {
+  }
+
+  /**
+   * @param values
+   *          key values of a row
+   * @return the token
+   * @throws IllegalArgumentException
+   *           if a value is null or of an unsupported type
+   */
+  public static String encode(Object[] values) throws IllegalArgumentException {
+
+    StringBuilder text = new StringBuilder();
+    for (Object value : values) {
+      char tag;
+      String str;
+      if (value == null) {
+        throw new IllegalArgumentException("Keyset column values cannot be null");
+      }
+      else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+        tag = 'L';
+        str = value.toString();
+      }
+      else if (value instanceof BigDecimal || value instanceof BigInteger) {
+        tag = 'N';
+        str = value.toString();
+      }
+      else if (value instanceof Double) {
+        tag = 'F';
+        str = value.toString();
+      }
+      else if (value instanceof Float) {
+        // decoded as a Float, a REAL column is then compared with the exact value read
+        tag = 'R';
+        str = value.toString();
+      }
+      else if (value instanceof String) {
+        tag = 'S';
+        str = (String) value;
+      }
+      else if (value instanceof java.sql.Date) {
+        tag = 'D';
+        str = String.valueOf(((java.sql.Date) value).getTime());
+      }
+      else if (value instanceof java.util.Date) {
+        tag = 'T';
+        int nanos = value instanceof Timestamp ? ((Timestamp) value).getNanos() : 0;
+        str = ((java.util.Date) value).getTime() + "." + nanos;
+      }
+      else {
+        throw new IllegalArgumentException("Unsupported keyset column value type: " + value.getClass().getName());
+      }
+      text.append(tag).append(str.length()).append(':').append(str);
+    }
+    return toHex(text.toString());
+  }
+
+  /**
+   * @param token
+   *          token created by encode
+   * @return the key values
+   * @throws IllegalArgumentException
+   *           if the token is malformed
+   */
+  public static Object[] decode(String token) throws IllegalArgumentException {
+
+    String text = fromHex(token);
+    List<Object> values = new ArrayList<Object>();
+    int pos = 0;
+    try {
+      while (pos < text.length()) {
+        char tag = text.charAt(pos++);
+        int colon = text.indexOf(':', pos);
+        int length = Integer.parseInt(text.substring(pos, colon));
+        String str = text.substring(colon + 1, colon + 1 + length);
+        pos = colon + 1 + length;
+        switch (tag) {
+          case 'L':
+            values.add(Long.valueOf(str));
+            break;
+          case 'N':
+            values.add(new BigDecimal(str));
+            break;
+          case 'F':
+            values.add(Double.valueOf(str));
+            break;
+          case 'R':
+            values.add(Float.valueOf(str));
+            break;
+          case 'S':
+            values.add(str);
+            break;
+          case 'D':
+            values.add(new java.sql.Date(Long.parseLong(str)));
+            break;
+          case 'T':
+            int dot = str.indexOf('.');
+            Timestamp ts = new Timestamp(Long.parseLong(str.substring(0, dot)));
+            ts.setNanos(Integer.parseInt(str.substring(dot + 1)));
+            values.add(ts);
+            break;
+          default:
+            throw new IllegalArgumentException("Malformed continuation token");
+        }
+      }
+    }
+    catch (RuntimeException e) {
+      throw new IllegalArgumentException("Malformed continuation token", e);
+    }
+    return values.toArray();
+  }
+
+  private static String toHex(String text) {
+
+    byte[] bytes;
+    try {
+      bytes = text.getBytes(CHARSET);
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(hex);
+  }
+
+  private static String fromHex(String hex) {
+
+    if (hex.length() % 2 != 0) {
+      throw new IllegalArgumentException("Malformed continuation token");
+    }
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      int high = Character.digit(hex.charAt(i * 2), 16);
+      int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+      if (high < 0 || low < 0) {
+        throw new IllegalArgumentException("Malformed continuation token");
+      }
+      bytes[i] = (byte) ((high << 4) | low);
+    }
+    try {
+      return new String(bytes, CHARSET);
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
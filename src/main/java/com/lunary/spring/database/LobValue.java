@@ -0,0 +1,176 @@
+package com.lunary.spring.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+
+/**
+ * <pre>
+ * Property type for LOB columns read on demand, see SpringColumnMapper.
+ * LOBs up to the materialization threshold are read when the row is mapped and can be used anywhere.
+ * Larger ones keep the driver's Blob or Clob locator, which can only be read while the connection
+ * (usually the transaction, or the row consumer of a stream) that read the row is still open.
+ * Binary values are read with getBytes / getBinaryStream, character values with getString / getCharacterStream.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.SpringColumnMapper#setLobMaterializationThreshold(long)
+ */
+public class LobValue {
+
+  private final byte[] bytes;
+  private final String string;
+  private final Blob blob;
+  private final Clob clob;
+
+  private LobValue(byte[] bytes, String string, Blob blob, Clob clob) {
+    this.bytes = bytes;
+    this.string = string;
+    this.blob = blob;
+    this.clob = clob;
+  }
+
+  public static LobValue of(byte[] bytes) {
+    return new LobValue(bytes, null, null, null);
+  }
+
+  public static LobValue of(String string) {
+    return new LobValue(null, string, null, null);
+  }
+
+  public static LobValue of(Blob blob) {
+    return new LobValue(null, null, blob, null);
+  }
+
+  public static LobValue of(Clob clob) {
+    return new LobValue(null, null, null, clob);
+  }
+
+  /**
+   * @return true if the value is held in memory, false if it is read from the database
+   */
+  public boolean isMaterialized() {
+    return blob == null && clob == null;
+  }
+
+  /**
+   * @return true for a binary value, false for a character value
+   */
+  public boolean isBinary() {
+    return bytes != null || blob != null;
+  }
+
+  /**
+   * @return the number of bytes of a binary value or characters of a character value
+   * @throws SQLException
+   */
+  public long length() throws SQLException {
+
+    if (bytes != null) {
+      return bytes.length;
+    }
+    if (string != null) {
+      return string.length();
+    }
+    return blob != null ? blob.length() : clob.length();
+  }
+
+  /**
+   * @return the whole binary value, the array of a materialized value is not copied
+   * @throws SQLException
+   * @throws IllegalStateException
+   *           if the value is not binary
+   */
+  public byte[] getBytes() throws SQLException, IllegalStateException {
+
+    if (bytes != null) {
+      return bytes;
+    }
+    if (blob == null) {
+      throw new IllegalStateException("Character LOB cannot be read as bytes");
+    }
+    return blob.getBytes(1, toInt(blob.length()));
+  }
+
+  /**
+   * @return a stream over the binary value
+   * @throws SQLException
+   * @throws IllegalStateException
+   *           if the value is not binary
+   */
+  public InputStream getBinaryStream() throws SQLException, IllegalStateException {
+
+    if (bytes != null) {
+      return new ByteArrayInputStream(bytes);
+    }
+    if (blob == null) {
+      throw new IllegalStateException("Character LOB cannot be read as a binary stream");
+    }
+    return blob.getBinaryStream();
+  }
+
+  /**
+   * @return the whole character value
+   * @throws SQLException
+   * @throws IllegalStateException
+   *           if the value is binary
+   */
+  public String getString() throws SQLException, IllegalStateException {
+
+    if (string != null) {
+      return string;
+    }
+    if (clob == null) {
+      throw new IllegalStateException("Binary LOB cannot be read as a String");
+    }
+    return clob.getSubString(1, toInt(clob.length()));
+  }
+
+  /**
+   * @return a reader over the character value
+   * @throws SQLException
+   * @throws IllegalStateException
+   *           if the value is binary
+   */
+  public Reader getCharacterStream() throws SQLException, IllegalStateException {
+
+    if (string != null) {
+      return new StringReader(string);
+    }
+    if (clob == null) {
+      throw new IllegalStateException("Binary LOB cannot be read as a character stream");
+    }
+    return clob.getCharacterStream();
+  }
+
+  /**
+   * Release the locator of a value that is not materialized, it cannot be read afterwards.
+   * 
+   * @throws SQLException
+   */
+  public void free() throws SQLException {
+
+    if (blob != null) {
+      blob.free();
+    }
+    else if (clob != null) {
+      clob.free();
+    }
+  }
+
+  private static int toInt(long length) throws SQLException {
+
+    if (length > Integer.MAX_VALUE) {
+      throw new SQLException("LOB of " + length + " is too large to be read at once");
+    }
+    return (int) length;
+  }
+
+  @Override
+  public String toString() {
+    return "LobValue [" + (isBinary() ? "binary" : "character") + (isMaterialized() ? ", materialized" : ", locator") + "]";
+  }
+}
@@ -0,0 +1,405 @@
+package com.lunary.spring.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.lunary.database.PaginateSqlTemplate;
+import com.lunary.database.TopSqlTemplate;
+
+/**
+ * <pre>
+ * A query split into its base SQL and its trailing top level ORDER BY clause.
+ * ORDER BY inside parentheses (subqueries, OVER clauses), string literals, quoted identifiers
+ * and comments is ignored. The count and top SQL formatted from the base SQL are kept once computed,
+ * as are the names of the tables the SQL refers to.
+ * Instances are immutable apart from those memoized values and are shared through SqlRewriteCache.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.SqlRewriteCache
+ */
+public class ParsedSql {
+
+  private static final int MAX_TOP_SQL = 16;
+  private static final Set<String> TABLE_KEYWORDS = new HashSet<String>(Arrays.asList("FROM", "JOIN", "UPDATE", "INTO", "USING"));
+  private static final Set<String> CLAUSE_KEYWORDS = new HashSet<String>(Arrays.asList("WHERE", "GROUP", "ORDER", "HAVING", "UNION", "EXCEPT", "INTERSECT", "MINUS", "ON",
+      "SET", "VALUES", "SELECT", "LIMIT", "FETCH", "OFFSET", "CONNECT", "START", "FOR", "WINDOW"));
+
+  private static final Set<String> ROW_LIMIT_KEYWORDS = new HashSet<String>(Arrays.asList("LIMIT", "OFFSET", "FETCH", "TOP", "ROWNUM"));
+  private static final Set<String> LOCK_KEYWORDS = new HashSet<String>(Arrays.asList("UPDATE", "SHARE", "NO", "KEY"));
+
+  private final String sql;
+  private final String baseSql;
+  private final String orderBy;
+  private volatile FormattedSql countSql;
+  private volatile String[] tableNames;
+  private final Map<Integer, FormattedSql> topSql = new ConcurrentHashMap<Integer, FormattedSql>();
+
+  private ParsedSql(String sql, String baseSql, String orderBy) {
+    this.sql = sql;
+    this.baseSql = baseSql;
+    this.orderBy = orderBy;
+  }
+
+  /**
+   * @param sql
+   * @return sql split on its last top level ORDER BY
+   */
+  public static ParsedSql parse(String sql) {
+
+    int length = sql.length();
+    int depth = 0;
+    int orderStart = -1;
+    int orderEnd = -1;
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (c == '\'' || c == '"' || c == '`') {
+        i = skipQuoted(sql, i, c);
+      }
+      else if (c == '[') {
+        i = skipQuoted(sql, i, ']');
+      }
+      else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? length : end + 1;
+      }
+      else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      }
+      else if (c == '(') {
+        ++depth;
+        ++i;
+      }
+      else if (c == ')') {
+        --depth;
+        ++i;
+      }
+      else if (isWordChar(c)) {
+        int end = wordEnd(sql, i);
+        if (depth == 0 && end - i == 5 && sql.regionMatches(true, i, "ORDER", 0, 5)) {
+          int next = skipSpace(sql, end);
+          int nextEnd = next < length ? wordEnd(sql, next) : next;
+          if (nextEnd - next == 2 && sql.regionMatches(true, next, "BY", 0, 2)) {
+            orderStart = i;
+            orderEnd = nextEnd;
+            end = nextEnd;
+          }
+        }
+        i = end;
+      }
+      else {
+        ++i;
+      }
+    }
+
+    if (orderStart < 0) {
+      return new ParsedSql(sql, sql, null);
+    }
+    String orderBy = sql.substring(orderEnd).trim();
+    int baseEnd = orderStart;
+    while (baseEnd > 0 && Character.isWhitespace(sql.charAt(baseEnd - 1))) {
+      --baseEnd;
+    }
+    return new ParsedSql(sql, sql.substring(0, baseEnd), orderBy.length() == 0 ? null : orderBy);
+  }
+
+  /**
+   * Find the tables of sql: the names after FROM (including comma separated lists), JOIN, UPDATE, INTO and USING.
+   */
+  private static String[] scanTableNames(String sql) {
+
+    List<String> names = new ArrayList<String>();
+    int length = sql.length();
+    int depth = 0;
+    // depths at which a FROM list is being read, kept per depth so a subquery does not end the list around it
+    BitSet fromLists = new BitSet();
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (c == '\'' || c == '"' || c == '`') {
+        i = skipQuoted(sql, i, c);
+      }
+      else if (c == '[') {
+        i = skipQuoted(sql, i, ']');
+      }
+      else if ((c == '-' || c == '/') && skipSpace(sql, i) > i) {
+        i = skipSpace(sql, i);
+      }
+      else if (c == '(') {
+        fromLists.clear(++depth);
+        ++i;
+      }
+      else if (c == ')') {
+        if (depth > 0) {
+          fromLists.clear(depth--);
+        }
+        ++i;
+      }
+      else if (c == ',' && fromLists.get(depth)) {
+        i = readTableName(sql, skipSpace(sql, i + 1), names);
+      }
+      else if (isWordChar(c)) {
+        int end = wordEnd(sql, i);
+        String word = sql.substring(i, end).toUpperCase(Locale.ENGLISH);
+        if (TABLE_KEYWORDS.contains(word)) {
+          if (word.equals("FROM")) {
+            fromLists.set(depth);
+          }
+          end = readTableName(sql, skipSpace(sql, end), names);
+        }
+        else if (CLAUSE_KEYWORDS.contains(word)) {
+          fromLists.clear(depth);
+        }
+        i = end;
+      }
+      else {
+        ++i;
+      }
+    }
+    return names.toArray(new String[names.size()]);
+  }
+
+  /**
+   * Read the possibly qualified and quoted table name at start, nothing is read for a subquery.
+   */
+  private static int readTableName(String sql, int start, List<String> names) {
+
+    int i = start;
+    int nameStart = start;
+    while (i < sql.length()) {
+      char c = sql.charAt(i);
+      if (c == '"' || c == '`') {
+        i = skipQuoted(sql, i, c);
+      }
+      else if (c == '[') {
+        i = skipQuoted(sql, i, ']');
+      }
+      else if (isWordChar(c)) {
+        i = wordEnd(sql, i);
+      }
+      else {
+        break;
+      }
+      if (i < sql.length() && sql.charAt(i) == '.') {
+        nameStart = ++i;
+      }
+      else {
+        break;
+      }
+    }
+    if (i > nameStart) {
+      String name = normalizeTableName(sql.substring(nameStart, i));
+      if (!names.contains(name)) {
+        names.add(name);
+      }
+    }
+    return i;
+  }
+
+  /**
+   * @param tableName
+   * @return the table name without schema and quotes, in upper case
+   */
+  public static String normalizeTableName(String tableName) {
+
+    String name = tableName.trim();
+    int dot = name.lastIndexOf('.');
+    if (dot >= 0) {
+      name = name.substring(dot + 1);
+    }
+    if (name.length() > 1 && (name.charAt(0) == '"' || name.charAt(0) == '`' || name.charAt(0) == '[')) {
+      name = name.substring(1, name.length() - 1);
+    }
+    return name.toUpperCase(Locale.ENGLISH);
+  }
+
+  private static int skipQuoted(String sql, int start, char close) {
+
+    int i = start + 1;
+    while (i < sql.length()) {
+      if (sql.charAt(i) == close) {
+        // a doubled quote is an escaped quote
+        if (i + 1 < sql.length() && sql.charAt(i + 1) == close && close != ']') {
+          i += 2;
+          continue;
+        }
+        return i + 1;
+      }
+      ++i;
+    }
+    return i;
+  }
+
+  private static int skipSpace(String sql, int start) {
+
+    int i = start;
+    while (i < sql.length()) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        ++i;
+      }
+      else if (c == '/' && i + 1 < sql.length() && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? sql.length() : end + 2;
+      }
+      else if (c == '-' && i + 1 < sql.length() && sql.charAt(i + 1) == '-') {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? sql.length() : end + 1;
+      }
+      else {
+        break;
+      }
+    }
+    return i;
+  }
+
+  private static boolean isWordChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '@';
+  }
+
+  private static int wordEnd(String sql, int start) {
+
+    int i = start;
+    while (i < sql.length() && isWordChar(sql.charAt(i))) {
+      ++i;
+    }
+    return i;
+  }
+
+  /**
+   * @return the original SQL
+   */
+  public String getSql() {
+    return sql;
+  }
+
+  /**
+   * @return the SQL without its top level ORDER BY clause
+   */
+  public String getBaseSql() {
+    return baseSql;
+  }
+
+  /**
+   * @return the columns of the top level ORDER BY clause or null if there is none
+   */
+  public String getOrderBy() {
+    return orderBy;
+  }
+
+  /**
+   * @return the names of the tables the SQL reads or writes, normalized by {@link #normalizeTableName(String)}
+   */
+  public String[] getTableNames() {
+
+    String[] names = tableNames;
+    if (names == null) {
+      names = scanTableNames(sql);
+      tableNames = names;
+    }
+    return names.clone();
+  }
+
+  /**
+   * @return whether the SQL has a top level clause limiting or locking its rows: LIMIT, OFFSET, FETCH, TOP, ROWNUM,
+   *         FOR UPDATE / SHARE or LOCK IN SHARE MODE, such SQL cannot be split into independent queries
+   */
+  public boolean isRowLimitedOrLocked() {
+
+    int length = sql.length();
+    int depth = 0;
+    String previous = null;
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (c == '\'' || c == '"' || c == '`') {
+        i = skipQuoted(sql, i, c);
+      }
+      else if (c == '[') {
+        i = skipQuoted(sql, i, ']');
+      }
+      else if ((c == '-' || c == '/') && skipSpace(sql, i) > i) {
+        i = skipSpace(sql, i);
+      }
+      else if (c == '(') {
+        ++depth;
+        ++i;
+      }
+      else if (c == ')') {
+        --depth;
+        ++i;
+      }
+      else if (isWordChar(c)) {
+        int end = wordEnd(sql, i);
+        if (depth == 0) {
+          String word = sql.substring(i, end).toUpperCase(Locale.ENGLISH);
+          if (ROW_LIMIT_KEYWORDS.contains(word) || ("FOR".equals(previous) && LOCK_KEYWORDS.contains(word))
+              || ("LOCK".equals(previous) && "IN".equals(word))) {
+            return true;
+          }
+          previous = word;
+        }
+        i = end;
+      }
+      else {
+        if (!Character.isWhitespace(c)) {
+          previous = null;
+        }
+        ++i;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param template
+   * @return the count SQL of the base SQL formatted by template
+   */
+  public String getCountSql(PaginateSqlTemplate template) {
+
+    FormattedSql formatted = countSql;
+    if (formatted == null || formatted.template != template) {
+      formatted = new FormattedSql(template, template.formatCountSql(baseSql));
+      countSql = formatted;
+    }
+    return formatted.sql;
+  }
+
+  /**
+   * @param template
+   * @param top
+   * @return the original SQL limited to top rows by template
+   */
+  public String getTopSql(TopSqlTemplate template, int top) {
+
+    Integer key = top;
+    FormattedSql formatted = topSql.get(key);
+    if (formatted == null || formatted.template != template) {
+      formatted = new FormattedSql(template, template.formatTopSql(sql, top));
+      if (topSql.size() >= MAX_TOP_SQL) {
+        topSql.clear();
+      }
+      topSql.put(key, formatted);
+    }
+    return formatted.sql;
+  }
+
+  private static class FormattedSql {
+
+    private final Object template;
+    private final String sql;
+
+    private FormattedSql(Object template, String sql) {
+      this.template = template;
+      this.sql = sql;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package com.lunary.spring.database;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.sql.DataSource;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+
+/**
+ * <pre>
+ * Iterator over an open ResultSet, rows are mapped one at a time as they are read.
+ * The cursor holds a connection until it is exhausted or closed, so always close it in a finally block.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.SpringSqlUtil#openCursor(String, Class, Object...)
+ */
+public class QueryCursor<T> implements Iterator<T>, Closeable {
+
+  private final DataSource dataSource;
+  private final Connection con;
+  private final PreparedStatement ps;
+  private final ResultSet rs;
+  private final RowMapper<T> rowMapper;
+  private final SQLExceptionTranslator exceptionTranslator;
+  private final String sql;
+  private int rowNum = 0;
+  private boolean fetched = false;
+  private boolean hasRow = false;
+  private boolean closed = false;
+
+  public QueryCursor(DataSource dataSource, Connection con, PreparedStatement ps, ResultSet rs, RowMapper<T> rowMapper, SQLExceptionTranslator exceptionTranslator, String sql) {
+    this.dataSource = dataSource;
+    this.con = con;
+    this.ps = ps;
+    this.rs = rs;
+    this.rowMapper = rowMapper;
+    this.exceptionTranslator = exceptionTranslator;
+    this.sql = sql;
+  }
+
+  @Override
+  public boolean hasNext() {
+
+    if (closed) {
+      return false;
+    }
+    if (!fetched) {
+      try {
+        hasRow = rs.next();
+        fetched = true;
+      }
+      catch (SQLException e) {
+        throw fail(e);
+      }
+      if (!hasRow) {
+        close();
+      }
+    }
+    return hasRow;
+  }
+
+  @Override
+  public T next() {
+
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    fetched = false;
+    try {
+      return rowMapper.mapRow(rs, rowNum++);
+    }
+    catch (SQLException e) {
+      throw fail(e);
+    }
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("remove is not supported by QueryCursor");
+  }
+
+  /**
+   * Release the ResultSet, statement and connection. Can be called more than once.
+   */
+  @Override
+  public void close() {
+
+    if (!closed) {
+      closed = true;
+      JdbcUtils.closeResultSet(rs);
+      JdbcUtils.closeStatement(ps);
+      DataSourceUtils.releaseConnection(con, dataSource);
+    }
+  }
+
+  /**
+   * Translate an exception thrown while reading, the default returns it unchanged.
+   */
+  protected RuntimeException translateException(DataAccessException e) {
+    return e;
+  }
+
+  private RuntimeException fail(SQLException e) {
+
+    close();
+    return translateException(exceptionTranslator.translate("QueryCursor", sql, e));
+  }
+}
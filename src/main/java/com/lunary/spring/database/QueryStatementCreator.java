@@ -0,0 +1,97 @@
+package com.lunary.spring.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.jdbc.core.ParameterDisposer;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * <pre>
+ * PreparedStatementCreator binding the given parameters and applying per query statement settings:
+ * fetch size, max rows and ResultSet type.
+ * </pre>
+ */
+public class QueryStatementCreator implements PreparedStatementCreator, SqlProvider, ParameterDisposer {
+
+  private final String sql;
+  private final Object[] params;
+  private int fetchSize = 0;
+  private int maxRows = 0;
+  private int resultSetType = ResultSet.TYPE_FORWARD_ONLY;
+
+  public QueryStatementCreator(String sql, Object... params) {
+    this.sql = sql;
+    this.params = params;
+  }
+
+  /**
+   * @param fetchSize
+   *          JDBC fetch size, 0 leaves the driver default (some drivers use negative values for streaming)
+   */
+  public void setFetchSize(int fetchSize) {
+    this.fetchSize = fetchSize;
+  }
+
+  /**
+   * @param maxRows
+   *          maximum rows the driver returns, 0 for no limit
+   */
+  public void setMaxRows(int maxRows) {
+    this.maxRows = maxRows;
+  }
+
+  /**
+   * @param resultSetType
+   *          one of the ResultSet.TYPE_ constants
+   */
+  public void setResultSetType(int resultSetType) {
+    this.resultSetType = resultSetType;
+  }
+
+  @Override
+  public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+
+    PreparedStatement ps = con.prepareStatement(sql, resultSetType, ResultSet.CONCUR_READ_ONLY);
+    try {
+      if (fetchSize != 0) {
+        ps.setFetchSize(fetchSize);
+      }
+      if (maxRows > 0) {
+        ps.setMaxRows(maxRows);
+      }
+      if (params != null) {
+        for (int i = 0; i < params.length; i++) {
+          StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, params[i]);
+        }
+      }
+    }
+    catch (SQLException e) {
+      JdbcUtils.closeStatement(ps);
+      throw e;
+    }
+    return ps;
+  }
+
+  @Override
+  public String getSql() {
+    return sql;
+  }
+
+  public Object[] getParams() {
+    return params;
+  }
+
+  @Override
+  public void cleanupParameters() {
+    if (params != null) {
+      StatementCreatorUtils.cleanupParameters(params);
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package com.lunary.spring.database;
+
+import java.lang.ref.WeakReference;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * <pre>
+ * Caches a plan derived from ResultSetMetaData for each distinct ResultSet shape
+ * (column labels and column types).
+ * The plan of the ResultSet currently being read is remembered per thread, so rows after
+ * the first one are served without touching the metadata again.
+ * </pre>
+ *
+ * @param <P>
+ *          type of the plan
+ */
+public abstract class ResultSetShapeCache<P> {
+
+  public static final int DEFAULT_MAX_SHAPES = 64;
+
+  private final ConcurrentMap<String, P> plans = new ConcurrentHashMap<String, P>();
+  private final ThreadLocal<CurrentPlan<P>> currentPlan = new ThreadLocal<CurrentPlan<P>>();
+  private final int maxShapes;
+
+  public ResultSetShapeCache() {
+    this(DEFAULT_MAX_SHAPES);
+  }
+
+  /**
+   * @param maxShapes
+   *          maximum number of shapes kept, plans of further shapes are built per ResultSet
+   */
+  public ResultSetShapeCache(int maxShapes) {
+    this.maxShapes = maxShapes;
+  }
+
+  /**
+   * Get the plan of the given ResultSet.
+   *
+   * @param rs
+   *          the ResultSet being read
+   * @return plan of the ResultSet shape
+   * @throws SQLException
+   */
+  public P getPlan(ResultSet rs) throws SQLException {
+
+    CurrentPlan<P> current = currentPlan.get();
+    if (current != null && current.resultSet.get() == rs) {
+      return current.plan;
+    }
+    return resolvePlan(rs);
+  }
+
+  /**
+   * Get the plan of the given ResultSet, the shape is always checked again on the first row (rowNum 0).
+   *
+   * @param rs
+   *          the ResultSet being read
+   * @param rowNum
+   *          the number of the current row
+   * @return plan of the ResultSet shape
+   * @throws SQLException
+   */
+  public P getPlan(ResultSet rs, int rowNum) throws SQLException {
+
+    if (rowNum == 0) {
+      return resolvePlan(rs);
+    }
+    return getPlan(rs);
+  }
+
+  private P resolvePlan(ResultSet rs) throws SQLException {
+
+    ResultSetMetaData rsmd = rs.getMetaData();
+    String shape = getShape(rsmd);
+    P plan = plans.get(shape);
+    if (plan == null) {
+      plan = createPlan(rsmd);
+      if (plans.size() < maxShapes) {
+        P existing = plans.putIfAbsent(shape, plan);
+        if (existing != null) {
+          plan = existing;
+        }
+      }
+    }
+    currentPlan.set(new CurrentPlan<P>(rs, plan));
+    return plan;
+  }
+
+  protected String getShape(ResultSetMetaData rsmd) throws SQLException {
+
+    int columnCount = rsmd.getColumnCount();
+    StringBuilder shape = new StringBuilder(columnCount * 16);
+    for (int index = 1; index <= columnCount; index++) {
+      shape.append(JdbcUtils.lookupColumnName(rsmd, index)).append(':').append(rsmd.getColumnType(index)).append(',');
+    }
+    return shape.toString();
+  }
+
+  /**
+   * Build the plan for a ResultSet shape, called once per shape.
+   *
+   * @param rsmd
+   *          metadata of the ResultSet
+   * @return the plan
+   * @throws SQLException
+   */
+  protected abstract P createPlan(ResultSetMetaData rsmd) throws SQLException;
+
+  private static class CurrentPlan<P> {
+
+    private final WeakReference<ResultSet> resultSet;
+    private final P plan;
+
+    private CurrentPlan(ResultSet rs, P plan) {
+      this.resultSet = new WeakReference<ResultSet>(rs);
+      this.plan = plan;
+    }
+  }
+}
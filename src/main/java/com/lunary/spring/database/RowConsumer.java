@@ -0,0 +1,19 @@
+package com.lunary.spring.database;
+
+/**
+ * <pre>
+ * Callback receiving the mapped rows of a streaming query one at a time.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.SpringSqlUtil#stream(String, Class, RowConsumer, Object...)
+ */
+public interface RowConsumer<T> {
+
+  /**
+   * Handle one mapped row.
+   *
+   * @param row
+   *          the mapped row
+   */
+  void accept(T row);
+}
@@ -0,0 +1,163 @@
+package com.lunary.spring.database;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.RowMapper;
+
+import com.lunary.database.ColumnMapper;
+
+/**
+ * <pre>
+ * Thread safe, bounded registry of bean RowMappers keyed by (mapped class, ColumnMapper).
+ * Building a BaseBeanPropertyRowMapper introspects the mapped class, so mappers are built once and shared.
+ * With directMapping enabled DirectBeanRowMapper is used for the classes that allow it.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.BaseBeanPropertyRowMapper
+ */
+public class RowMapperRegistry {
+
+  public static final int DEFAULT_MAX_SIZE = 512;
+
+  private final Logger logger = LoggerFactory.getLogger(RowMapperRegistry.class);
+
+  private final ConcurrentMap<MapperKey, RowMapper<?>> mappers = new ConcurrentHashMap<MapperKey, RowMapper<?>>();
+  private final int maxSize;
+  private final boolean directMapping;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  public RowMapperRegistry() {
+    this(DEFAULT_MAX_SIZE, false);
+  }
+
+  /**
+   * @param maxSize
+   *          maximum number of mappers kept
+   * @throws IllegalArgumentException
+   *           if maxSize is not positive
+   */
+  public RowMapperRegistry(int maxSize) throws IllegalArgumentException {
+    this(maxSize, false);
+  }
+
+  /**
+   * @param maxSize
+   *          maximum number of mappers kept
+   * @param directMapping
+   *          true to create DirectBeanRowMapper where the mapped class allows it, BaseBeanPropertyRowMapper otherwise
+   * @throws IllegalArgumentException
+   *           if maxSize is not positive
+   */
+  public RowMapperRegistry(int maxSize, boolean directMapping) throws IllegalArgumentException {
+
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    this.maxSize = maxSize;
+    this.directMapping = directMapping;
+  }
+
+  /**
+   * Get the shared RowMapper for the given class and ColumnMapper, creating it on first use.
+   *
+   * @param clazz
+   *          the mapped class
+   * @param columnMapper
+   *          ColumnMapper used by the RowMapper
+   * @return RowMapper for clazz
+   */
+  @SuppressWarnings("unchecked")
+  public <E> RowMapper<E> getRowMapper(Class<E> clazz, ColumnMapper columnMapper) {
+
+    MapperKey key = new MapperKey(clazz, columnMapper);
+    RowMapper<E> mapper = (RowMapper<E>) mappers.get(key);
+    if (mapper != null) {
+      hitCount.incrementAndGet();
+      return mapper;
+    }
+    missCount.incrementAndGet();
+    mapper = createRowMapper(clazz, columnMapper);
+    if (mappers.size() >= maxSize) {
+      evict();
+    }
+    RowMapper<E> existing = (RowMapper<E>) mappers.putIfAbsent(key, mapper);
+    return existing != null ? existing : mapper;
+  }
+
+  protected <E> RowMapper<E> createRowMapper(Class<E> clazz, ColumnMapper columnMapper) {
+
+    if (directMapping) {
+      try {
+        return new DirectBeanRowMapper<E>(clazz, columnMapper);
+      }
+      catch (IllegalArgumentException e) {
+        logger.debug("Falling back to BaseBeanPropertyRowMapper: {}", e.getMessage());
+      }
+    }
+    return new BaseBeanPropertyRowMapper<E>(clazz, columnMapper);
+  }
+
+  public boolean isDirectMapping() {
+    return directMapping;
+  }
+
+  private void evict() {
+
+    Iterator<MapperKey> it = mappers.keySet().iterator();
+    if (it.hasNext()) {
+      it.next();
+      it.remove();
+    }
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  public int size() {
+    return mappers.size();
+  }
+
+  public void clear() {
+    mappers.clear();
+  }
+
+  private static class MapperKey {
+
+    private final Class<?> clazz;
+    private final ColumnMapper columnMapper;
+
+    private MapperKey(Class<?> clazz, ColumnMapper columnMapper) {
+      this.clazz = clazz;
+      this.columnMapper = columnMapper;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * clazz.hashCode() + System.identityHashCode(columnMapper);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof MapperKey)) {
+        return false;
+      }
+      MapperKey other = (MapperKey) obj;
+      return clazz == other.clazz && columnMapper == other.columnMapper;
+    }
+  }
+}
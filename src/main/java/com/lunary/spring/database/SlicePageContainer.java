@@ -0,0 +1,32 @@
+package com.lunary.spring.database;
+
+import com.lunary.database.BasePageContainer;
+
+/**
+ * <pre>
+ * Page of rows read without counting the whole query.
+ * Instead of the totals, which are -1, it tells whether there is a row after this page.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.SpringSqlUtil#findSlice(String, int, int, Class, Object...)
+ */
+public class SlicePageContainer<T> extends BasePageContainer<T> {
+
+  private boolean hasNext;
+
+  public SlicePageContainer() {
+    setTotalRows(-1);
+    setTotalPages(-1);
+  }
+
+  /**
+   * @return true if the query has at least one row after this page
+   */
+  public boolean hasNext() {
+    return hasNext;
+  }
+
+  public void setHasNext(boolean hasNext) {
+    this.hasNext = hasNext;
+  }
+}
@@ -1,10 +1,19 @@
-
 package com.lunary.spring.database;
 
+import java.io.InputStream;
+import java.io.Reader;
 import java.math.BigDecimal;
+import java.sql.Blob;
+import java.sql.Clob;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.springframework.jdbc.support.lob.DefaultLobHandler;
 import org.springframework.jdbc.support.lob.LobHandler;
@@ -12,57 +21,364 @@ import org.springframework.jdbc.support.lob.LobHandler;
 import com.lunary.database.ColumnMapper;
 import com.lunary.database.exception.DataMappingException;
 
+/**
+ * <pre>
+ * ColumnMapper handling String (including CLOB), BigDecimal, java.sql.Date and Enum properties,
+ * and LOB properties:
+ * - byte[], read in one call with getBlobAsBytes / getBytes,
+ * - InputStream and Reader, streaming the value; they are only valid until the ResultSet moves to the next row,
+ *   so they suit the RowConsumer of stream or a QueryCursor,
+ * - LobValue, materialized up to {@link #setLobMaterializationThreshold(long)} and otherwise read on demand
+ *   from the LOB locator while the connection is open (e.g. in the transaction).
+ * Column types are read from the metadata once per ResultSet, and the reader of each column
+ * is chosen on the first row, so later rows are a direct dispatch.
+ * </pre>
+ */
 public class SpringColumnMapper implements ColumnMapper {
 
+  public static final long DEFAULT_LOB_MATERIALIZATION_THRESHOLD = 64 * 1024;
+
   private final LobHandler lobHandler;
-  
+  private volatile long lobMaterializationThreshold = DEFAULT_LOB_MATERIALIZATION_THRESHOLD;
+  private final ConcurrentMap<Class<?>, Map<String, Object>> enumConstants = new ConcurrentHashMap<Class<?>, Map<String, Object>>();
+  private final ResultSetShapeCache<ColumnPlan> columnPlans = new ResultSetShapeCache<ColumnPlan>() {
+
+    @Override
+    protected ColumnPlan createPlan(ResultSetMetaData rsmd) throws SQLException {
+
+      int[] columnTypes = new int[rsmd.getColumnCount() + 1];
+      for (int index = 1; index < columnTypes.length; index++) {
+        columnTypes[index] = rsmd.getColumnType(index);
+      }
+      return new ColumnPlan(columnTypes);
+    }
+  };
+
   public SpringColumnMapper(LobHandler lobHandler) {
     this.lobHandler = lobHandler;
   }
-  
+
   public SpringColumnMapper() {
     this(new DefaultLobHandler());
   }
-  
-  //TODO complete the handling of LOB values
+
+  public long getLobMaterializationThreshold() {
+    return lobMaterializationThreshold;
+  }
+
+  /**
+   * Set the size (bytes of BLOBs, characters of CLOBs) up to which LobValue properties are read when the row is mapped,
+   * default is {@value #DEFAULT_LOB_MATERIALIZATION_THRESHOLD}, through the LobHandler. Larger LOBs,
+   * and LOBs beyond Integer.MAX_VALUE whatever the threshold, are read on demand.
+   * 
+   * @param lobMaterializationThreshold
+   */
+  public void setLobMaterializationThreshold(long lobMaterializationThreshold) {
+    this.lobMaterializationThreshold = lobMaterializationThreshold;
+  }
+
   @Override
-  @SuppressWarnings({"unchecked", "rawtypes"})
   public Object toObject(ResultSet rs, int index, Class<?> propType) throws SQLException, DataMappingException {
-    
-    Object value = null;
-    if (propType.equals(String.class)) {
-      
-      int columnType = rs.getMetaData().getColumnType(index);
-      if(columnType == Types.CLOB) {
-        value = lobHandler.getClobAsString(rs, index);
+
+    ColumnPlan plan = columnPlans.getPlan(rs);
+    BoundReader bound;
+    if (index > 0 && index < plan.readers.length) {
+      bound = plan.readers[index];
+      if (bound == null || bound.propType != propType) {
+        bound = new BoundReader(propType, createReader(plan.columnTypes[index], propType));
+        plan.readers[index] = bound;
       }
-      else {
-        value = rs.getString(index);
+    }
+    else {
+      bound = new BoundReader(propType, createReader(rs.getMetaData().getColumnType(index), propType));
+    }
+    return bound.reader.read(rs, index);
+  }
+
+  private ColumnReader createReader(int columnType, final Class<?> propType) {
+
+    if (propType.equals(String.class)) {
+      if (isClob(columnType)) {
+        return new ColumnReader() {
+
+          @Override
+          public Object read(ResultSet rs, int index) throws SQLException {
+            return lobHandler.getClobAsString(rs, index);
+          }
+        };
       }
+      return STRING_READER;
     }
     else if (propType.equals(BigDecimal.class)) {
-      value = rs.getBigDecimal(index);
+      return BIG_DECIMAL_READER;
+    }
+    else if (propType.equals(byte[].class)) {
+      if (columnType == Types.BLOB) {
+        return new ColumnReader() {
+
+          @Override
+          public Object read(ResultSet rs, int index) throws SQLException {
+            return lobHandler.getBlobAsBytes(rs, index);
+          }
+        };
+      }
+      return BYTES_READER;
+    }
+    else if (propType.equals(InputStream.class)) {
+      if (columnType == Types.BLOB) {
+        return new ColumnReader() {
+
+          @Override
+          public Object read(ResultSet rs, int index) throws SQLException {
+            return lobHandler.getBlobAsBinaryStream(rs, index);
+          }
+        };
+      }
+      return BINARY_STREAM_READER;
+    }
+    else if (propType.equals(Reader.class)) {
+      if (isClob(columnType)) {
+        return new ColumnReader() {
+
+          @Override
+          public Object read(ResultSet rs, int index) throws SQLException {
+            return lobHandler.getClobAsCharacterStream(rs, index);
+          }
+        };
+      }
+      return CHARACTER_STREAM_READER;
+    }
+    else if (propType.equals(LobValue.class)) {
+      return createLobValueReader(columnType);
     }
     else if (propType.equals(java.sql.Date.class)) {
-      value = rs.getDate(index);
+      return DATE_READER;
     }
     else if (Enum.class.isAssignableFrom(propType)) {
 
-      String val = rs.getString(index);
-      try {
+      final Map<String, Object> constants = getEnumConstants(propType);
+      return new ColumnReader() {
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException {
+
+          String val = rs.getString(index);
+          if (val == null) {
+            return null;
+          }
+          Object value = constants.get(val);
+          if (value == null) {
+            throw new DataMappingException("Error converting to Enum [" + propType.getCanonicalName() + "] for column index " + index + " of value [" + val + "] : no enum constant " + val, null);
+          }
+          return value;
+        }
+      };
+    }
+    return UNKNOWN_READER;
+  }
+
+  /**
+   * LOBs larger than the threshold keep the JDBC locator, the others are read through the LobHandler
+   * and their locator is freed.
+   */
+  private ColumnReader createLobValueReader(int columnType) {
 
-        if (val != null) {
-          value = Enum.valueOf((Class<? extends Enum>) propType, val);
+    if (columnType == Types.BLOB) {
+      return new ColumnReader() {
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException {
+
+          Blob blob = rs.getBlob(index);
+          if (blob == null) {
+            return null;
+          }
+          if (blob.length() > getMaterializedLobLength()) {
+            return LobValue.of(blob);
+          }
+          byte[] bytes = lobHandler.getBlobAsBytes(rs, index);
+          free(blob);
+          return bytes != null ? LobValue.of(bytes) : null;
         }
+      };
+    }
+    if (isClob(columnType)) {
+      return new ColumnReader() {
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException {
+
+          Clob clob = rs.getClob(index);
+          if (clob == null) {
+            return null;
+          }
+          if (clob.length() > getMaterializedLobLength()) {
+            return LobValue.of(clob);
+          }
+          String string = lobHandler.getClobAsString(rs, index);
+          free(clob);
+          return string != null ? LobValue.of(string) : null;
+        }
+      };
+    }
+    if (columnType == Types.BINARY || columnType == Types.VARBINARY || columnType == Types.LONGVARBINARY) {
+      return new ColumnReader() {
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException {
+
+          byte[] bytes = rs.getBytes(index);
+          return bytes != null ? LobValue.of(bytes) : null;
+        }
+      };
+    }
+    return new ColumnReader() {
+
+      @Override
+      public Object read(ResultSet rs, int index) throws SQLException {
+
+        String string = rs.getString(index);
+        return string != null ? LobValue.of(string) : null;
       }
-      catch (IllegalArgumentException e) {
-        throw new DataMappingException("Error converting to Enum [" + propType.getCanonicalName() + "] for column index " + index + " of value [" + val + "] : " + e.getMessage(), e);
+    };
+  }
+
+  /**
+   * @return the largest LOB read when the row is mapped, at most what an array can hold
+   */
+  private long getMaterializedLobLength() {
+    return Math.min(lobMaterializationThreshold, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Free blob, ignored by drivers not implementing the JDBC 4 free().
+   */
+  private static void free(Blob blob) throws SQLException {
+
+    try {
+      blob.free();
+    }
+    catch (SQLFeatureNotSupportedException e) {
+      // the locator is released with the ResultSet
+    }
+    catch (AbstractMethodError e) {
+      // JDBC 3 driver
+    }
+  }
+
+  /**
+   * Free clob, ignored by drivers not implementing the JDBC 4 free().
+   */
+  private static void free(Clob clob) throws SQLException {
+
+    try {
+      clob.free();
+    }
+    catch (SQLFeatureNotSupportedException e) {
+      // the locator is released with the ResultSet
+    }
+    catch (AbstractMethodError e) {
+      // JDBC 3 driver
+    }
+  }
+
+  private static boolean isClob(int columnType) {
+    return columnType == Types.CLOB || columnType == Types.NCLOB;
+  }
+
+  private Map<String, Object> getEnumConstants(Class<?> enumType) {
+
+    Map<String, Object> constants = enumConstants.get(enumType);
+    if (constants == null) {
+      constants = new HashMap<String, Object>();
+      for (Object constant : enumType.getEnumConstants()) {
+        constants.put(((Enum<?>) constant).name(), constant);
       }
+      enumConstants.putIfAbsent(enumType, constants);
     }
-    else {
-      value = UNKNOWN;
+    return constants;
+  }
+
+  private interface ColumnReader {
+
+    Object read(ResultSet rs, int index) throws SQLException;
+  }
+
+  private static final ColumnReader STRING_READER = new ColumnReader() {
+
+    @Override
+    public Object read(ResultSet rs, int index) throws SQLException {
+      return rs.getString(index);
+    }
+  };
+
+  private static final ColumnReader BIG_DECIMAL_READER = new ColumnReader() {
+
+    @Override
+    public Object read(ResultSet rs, int index) throws SQLException {
+      return rs.getBigDecimal(index);
+    }
+  };
+
+  private static final ColumnReader DATE_READER = new ColumnReader() {
+
+    @Override
+    public Object read(ResultSet rs, int index) throws SQLException {
+      return rs.getDate(index);
+    }
+  };
+
+  private static final ColumnReader BYTES_READER = new ColumnReader() {
+
+    @Override
+    public Object read(ResultSet rs, int index) throws SQLException {
+      return rs.getBytes(index);
+    }
+  };
+
+  private static final ColumnReader BINARY_STREAM_READER = new ColumnReader() {
+
+    @Override
+    public Object read(ResultSet rs, int index) throws SQLException {
+      return rs.getBinaryStream(index);
+    }
+  };
+
+  private static final ColumnReader CHARACTER_STREAM_READER = new ColumnReader() {
+
+    @Override
+    public Object read(ResultSet rs, int index) throws SQLException {
+      return rs.getCharacterStream(index);
+    }
+  };
+
+  private static final ColumnReader UNKNOWN_READER = new ColumnReader() {
+
+    @Override
+    public Object read(ResultSet rs, int index) throws SQLException {
+      return UNKNOWN;
+    }
+  };
+
+  private static class BoundReader {
+
+    private final Class<?> propType;
+    private final ColumnReader reader;
+
+    private BoundReader(Class<?> propType, ColumnReader reader) {
+      this.propType = propType;
+      this.reader = reader;
     }
-    return value;
   }
 
+  private static class ColumnPlan {
+
+    private final int[] columnTypes;
+    private final BoundReader[] readers;
+
+    private ColumnPlan(int[] columnTypes) {
+      this.columnTypes = columnTypes;
+      this.readers = new BoundReader[columnTypes.length];
+    }
+  }
 }
@@ -1,6 +1,18 @@
 package com.lunary.spring.database;
 
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -8,13 +20,22 @@ import java.util.concurrent.ConcurrentMap;
 
 import javax.sql.DataSource;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
-import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.core.SqlTypeValue;
 import org.springframework.jdbc.core.StatementCreatorUtils;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
 
 import com.lunary.database.ColumnMapper;
 import com.lunary.database.PageContainer;
@@ -25,8 +46,19 @@ import com.lunary.database.util.StatementUtil.SqlStatement;
 import com.lunary.database.util.TableEntityUtil;
 import com.lunary.model.IdKeyedTableEntity;
 import com.lunary.model.TableEntity;
+import com.lunary.spring.database.EntityStatementCache.BoundStatement;
+import com.lunary.spring.database.EntityStatementCache.Operation;
+import com.lunary.spring.database.extractor.ColumnarExtractor;
+import com.lunary.spring.database.extractor.ColumnarResult;
+import com.lunary.spring.database.extractor.ExistsExtractor;
+import com.lunary.spring.database.extractor.KeysetExtractor;
 import com.lunary.spring.database.extractor.ListExtractor;
 import com.lunary.spring.database.extractor.PaginateExtractor;
+import com.lunary.spring.database.extractor.StreamingExtractor;
+import com.lunary.spring.database.extractor.TimedExtractor;
+import com.lunary.spring.database.monitor.SqlExecution;
+import com.lunary.spring.database.monitor.SqlExecutionListener;
+import com.lunary.spring.database.template.UpsertSqlTemplate;
 import com.lunary.util.CollectionUtil;
 import com.lunary.util.factory.Factory;
 /**
@@ -40,12 +72,26 @@ import com.lunary.util.factory.Factory;
  */
 public class SpringSqlUtil implements SqlUtil {
 
+  public static final int DEFAULT_STREAM_FETCH_SIZE = 1000;
+  public static final int DEFAULT_BATCH_SIZE = 500;
+  public static final int DEFAULT_MAX_IN_LIST_SIZE = 1000;
+  public static final int DEFAULT_MAX_PARAMETER_COUNT = 2000;
+
+  private final Logger logger = LoggerFactory.getLogger(SpringSqlUtil.class);
   private final String autoGenerateColumnName = IdKeyedTableEntity.ID;
   private final JdbcTemplate jdbcTemplate;
 
   private final ConcurrentMap<String, SimpleJdbcInsert> insertMap = new ConcurrentHashMap<String, SimpleJdbcInsert>();
   private Factory<SimpleJdbcInsert> insertFactory;
   private final ColumnMapper columnMapper;
+  private RowMapperRegistry rowMapperRegistry = new RowMapperRegistry();
+  private final RowMapper<Map<String, Object>> columnMapRowMapper = new CompactColumnMapRowMapper();
+  private EntityStatementCache entityStatementCache = new EntityStatementCache();
+  private int streamFetchSize = DEFAULT_STREAM_FETCH_SIZE;
+  private volatile Boolean scrollableCursors;
+  private volatile Boolean generatedKeysSupported;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private volatile SqlExecutionListener sqlExecutionListener;
 
   public SpringSqlUtil(final JdbcTemplate jdbcTemplate, DataSource dataSource, ColumnMapper columnMapper) throws NullPointerException {
     
@@ -81,6 +127,80 @@ public class SpringSqlUtil implements SqlUtil {
   protected ColumnMapper getColumnMapper() {
     return columnMapper;
   }
+
+  public RowMapperRegistry getRowMapperRegistry() {
+    return rowMapperRegistry;
+  }
+
+  /**
+   * Set the registry bean RowMappers are taken from, a registry can be shared by several SqlUtils.
+   * 
+   * @param rowMapperRegistry
+   * @throws NullPointerException
+   *           if rowMapperRegistry is null
+   */
+  public void setRowMapperRegistry(RowMapperRegistry rowMapperRegistry) throws NullPointerException {
+
+    if (rowMapperRegistry == null) {
+      throw new NullPointerException("rowMapperRegistry cannot be null");
+    }
+    this.rowMapperRegistry = rowMapperRegistry;
+  }
+
+  public EntityStatementCache getEntityStatementCache() {
+    return entityStatementCache;
+  }
+
+  /**
+   * Set the cache of the statements of delete, update, updateWithNull and findByKey (and their batch versions).
+   * null builds every statement with StatementUtil.
+   * 
+   * @param entityStatementCache
+   */
+  public void setEntityStatementCache(EntityStatementCache entityStatementCache) {
+    this.entityStatementCache = entityStatementCache;
+  }
+
+  public SqlExecutionListener getSqlExecutionListener() {
+    return sqlExecutionListener;
+  }
+
+  /**
+   * <pre>
+   * Set the listener told about every statement with its execute and mapping times, rows and error,
+   * e.g. a SqlMetricsCollector, a SlowQueryLogger or both in a CompositeSqlExecutionListener.
+   * null (the default) disables the instrumentation, statements are then not timed at all.
+   * </pre>
+   * 
+   * @param sqlExecutionListener
+   */
+  public void setSqlExecutionListener(SqlExecutionListener sqlExecutionListener) {
+    this.sqlExecutionListener = sqlExecutionListener;
+  }
+
+  public int getStreamFetchSize() {
+    return streamFetchSize;
+  }
+
+  /**
+   * Set the JDBC fetch size used by stream and openCursor, default is {@value #DEFAULT_STREAM_FETCH_SIZE}.
+   * 0 leaves the driver default, some drivers (e.g. MySQL) need Integer.MIN_VALUE to really stream rows.
+   * 
+   * @param streamFetchSize
+   */
+  public void setStreamFetchSize(int streamFetchSize) {
+    this.streamFetchSize = streamFetchSize;
+  }
+
+  /**
+   * Set whether pagination without a PaginateSqlTemplate uses scrollable ResultSets to position on the page and count the rows.
+   * When not set it is detected from the DatabaseMetaData on first use.
+   * 
+   * @param scrollableCursors
+   */
+  public void setScrollableCursors(boolean scrollableCursors) {
+    this.scrollableCursors = scrollableCursors;
+  }
   
   /**
    * {@inheritDoc}
@@ -94,10 +214,19 @@ public class SpringSqlUtil implements SqlUtil {
 
   private int updateWithoutParamCheck(String sql, Object... params) {
     
+    SqlExecutionListener listener = sqlExecutionListener;
+    long start = listener != null ? System.nanoTime() : 0;
     try {
-      return jdbcTemplate.update(sql, params);
+      int cnt = jdbcTemplate.update(sql, params);
+      if (listener != null) {
+        fireExecution(listener, SqlExecution.Type.UPDATE, sql, params, start, 0, cnt, null);
+      }
+      return cnt;
     }
     catch (DataAccessException e){
+      if (listener != null) {
+        fireExecution(listener, SqlExecution.Type.UPDATE, sql, params, start, 0, -1, e);
+      }
       throw translateException(e);
     }
   }
@@ -108,6 +237,10 @@ public class SpringSqlUtil implements SqlUtil {
   @Override
   public int delete(TableEntity entity) {
 
+    BoundStatement bound = bindEntityStatement(entity, Operation.DELETE);
+    if (bound != null) {
+      return this.update(bound.getSql(), bound.getParams());
+    }
     SqlStatement sset = StatementUtil.buildDeleteStatement(entity);
 
     return this.update(sset.getSql(), sset.getParams());
@@ -125,32 +258,357 @@ public class SpringSqlUtil implements SqlUtil {
     SimpleJdbcInsert insert = CollectionUtil.getFromConcurrentMap(insertMap, tableName, insertFactory);
     Map<String, Object> params = TableEntityUtil.convert(entity);
 
+    SqlExecutionListener listener = sqlExecutionListener;
+    long start = listener != null ? System.nanoTime() : 0;
     int cnt = 0;
-    if(entity instanceof IdKeyedTableEntity) {
-      try {
-        // insert.usingColumns((String[]) params.keySet().toArray());
-        Number id = insert.executeAndReturnKey(params);
-        ((IdKeyedTableEntity) entity).setId(id.longValue());
-        cnt = 1;
+    try {
+      if(entity instanceof IdKeyedTableEntity) {
+        try {
+          // insert.usingColumns((String[]) params.keySet().toArray());
+          Number id = insert.executeAndReturnKey(params);
+          ((IdKeyedTableEntity) entity).setId(id.longValue());
+          cnt = 1;
+        }
+        finally {
+          // Currently SimpleJdbcInsert doesn't call
+          // StatementCreatorUtils.cleanupParameters() automatically
+          StatementCreatorUtils.cleanupParameters(params.values());
+        }
       }
-      finally {
-        // Currently SimpleJdbcInsert doesn't call
-        // StatementCreatorUtils.cleanupParameters() automatically
-        StatementCreatorUtils.cleanupParameters(params.values());
+      else {
+        cnt = insert.execute(params);
       }
     }
-    else {
-      cnt = insert.execute(params);
+    catch (RuntimeException e) {
+      if (listener != null) {
+        fireExecution(listener, SqlExecution.Type.INSERT, insert.getInsertString(), params.values().toArray(), start, 0, -1, e);
+      }
+      throw e;
+    }
+    if (listener != null) {
+      fireExecution(listener, SqlExecution.Type.INSERT, insert.getInsertString(), params.values().toArray(), start, 0, cnt, null);
     }
     return cnt;
   }
 
+  /**
+   * <pre>
+   * Insert entities with JDBC batches of {@link #getBatchSize()} rows.
+   * Entities are grouped by table name, tables are inserted in the order they first appear.
+   * The IdKeyedTableEntity of a table are inserted before its other entities, each keeping their order.
+   * 
+   * Ids of IdKeyedTableEntity are taken from {@link #prefetchIds(String, int)} when it returns them,
+   * otherwise read through getGeneratedKeys when the driver supports it.
+   * If neither is available those entities are inserted one by one.
+   * </pre>
+   * 
+   * @param entities
+   * @return rows affected per chunk
+   */
+  public BatchResult insertBatch(Collection<? extends TableEntity> entities) {
+
+    BatchResult result = new BatchResult();
+    for (Map.Entry<String, List<TableEntity>> table : groupByTable(entities).entrySet()) {
+      List<TableEntity> idKeyedEntities = new ArrayList<TableEntity>();
+      List<TableEntity> otherEntities = new ArrayList<TableEntity>();
+      for (TableEntity entity : table.getValue()) {
+        (entity instanceof IdKeyedTableEntity ? idKeyedEntities : otherEntities).add(entity);
+      }
+      insertChunks(table.getKey(), idKeyedEntities, true, result);
+      insertChunks(table.getKey(), otherEntities, false, result);
+    }
+    return result;
+  }
+
+  private void insertChunks(String tableName, List<TableEntity> entities, boolean idKeyed, BatchResult result) {
+
+    for (int from = 0; from < entities.size(); from += batchSize) {
+      insertChunk(tableName, entities.subList(from, Math.min(from + batchSize, entities.size())), idKeyed, result);
+    }
+  }
+
+  /**
+   * @param idKeyed
+   *          whether all entities are IdKeyedTableEntity, none of them otherwise
+   */
+  private void insertChunk(String tableName, List<TableEntity> entities, boolean idKeyed, BatchResult result) {
+
+    long[] ids = idKeyed ? prefetchIds(tableName, entities.size()) : null;
+    boolean useGeneratedKeys = idKeyed && ids == null && isGeneratedKeysSupported();
+    if (idKeyed && ids == null && !useGeneratedKeys) {
+      int cnt = 0;
+      for (TableEntity entity : entities) {
+        cnt += insert(entity);
+      }
+      result.addChunk(tableName, entities.size(), cnt);
+      return;
+    }
+
+    Map<String, List<Object[]>> rowsBySql = new LinkedHashMap<String, List<Object[]>>();
+    Map<String, List<IdKeyedTableEntity>> keyHoldersBySql = new LinkedHashMap<String, List<IdKeyedTableEntity>>();
+    int i = 0;
+    for (TableEntity entity : entities) {
+      Map<String, Object> values = TableEntityUtil.convert(entity);
+      if (idKeyed) {
+        removeColumn(values, autoGenerateColumnName);
+        if (ids != null) {
+          ((IdKeyedTableEntity) entity).setId(ids[i]);
+          values.put(autoGenerateColumnName, ids[i]);
+        }
+      }
+      ++i;
+
+      StringBuilder columns = new StringBuilder();
+      StringBuilder marks = new StringBuilder();
+      for (String column : values.keySet()) {
+        if (columns.length() > 0) {
+          columns.append(", ");
+          marks.append(", ");
+        }
+        columns.append(column);
+        marks.append('?');
+      }
+      String sql = "INSERT INTO " + tableName + " (" + columns + ") VALUES (" + marks + ")";
+      List<Object[]> rows = rowsBySql.get(sql);
+      if (rows == null) {
+        rows = new ArrayList<Object[]>();
+        rowsBySql.put(sql, rows);
+        keyHoldersBySql.put(sql, new ArrayList<IdKeyedTableEntity>());
+      }
+      rows.add(values.values().toArray());
+      if (useGeneratedKeys) {
+        keyHoldersBySql.get(sql).add((IdKeyedTableEntity) entity);
+      }
+    }
+
+    for (Map.Entry<String, List<Object[]>> rows : rowsBySql.entrySet()) {
+      executeBatch(tableName, rows.getKey(), rows.getValue(), useGeneratedKeys ? keyHoldersBySql.get(rows.getKey()) : null, result);
+    }
+  }
+
+  /**
+   * <pre>
+   * Insert entity, or update all its columns (null properties included) when a row with its key exists.
+   * With an {@link #getUpsertSqlTemplate()} this is a single statement, otherwise entity is updated
+   * with {@link #updateWithNull(TableEntity)} and inserted with its key when no row was updated, which is not atomic.
+   * An entity with a null key value is inserted, e.g. an IdKeyedTableEntity without id gets a generated id.
+   * </pre>
+   * 
+   * @param entity
+   * @return rows affected as reported by the driver (MySQL reports 2 for an update)
+   */
+  public int upsert(TableEntity entity) {
+
+    String tableName = entity.getTableName();
+    if(tableName == null) throw new NullPointerException("TableEntity tableName cannot be null.");
+
+    List<Object> keyValues = new ArrayList<Object>();
+    String[] keyColumns = getKeyValues(entity, bindEntityStatement(entity, Operation.FIND_BY_KEY), keyValues);
+    if (keyValues.contains(null)) {
+      return insert(entity);
+    }
+    UpsertSqlTemplate template = getUpsertSqlTemplate();
+    if (template == null || keyColumns == null) {
+      int cnt = updateWithNull(entity);
+      if (cnt > 0) {
+        return cnt;
+      }
+    }
+    Map<String, Object> values = TableEntityUtil.convert(entity);
+    StringBuilder sql = new StringBuilder();
+    if (template == null || keyColumns == null) {
+      StringBuilder marks = new StringBuilder();
+      for (String column : values.keySet()) {
+        sql.append(sql.length() > 0 ? ", " : "").append(column);
+        marks.append(marks.length() > 0 ? ", ?" : "?");
+      }
+      sql.insert(0, "INSERT INTO " + tableName + " (").append(") VALUES (").append(marks).append(')');
+    }
+    else {
+      sql.append(template.formatUpsertSql(tableName, values.keySet().toArray(new String[values.size()]), keyColumns));
+    }
+    return updateWithoutParamCheck(sql.toString(), convertValues(values.values().toArray()));
+  }
+
+  /**
+   * <pre>
+   * Upsert entities (see {@link #upsert(TableEntity)}) with JDBC batches of the upsert statement.
+   * Entities with a null key value are inserted with {@link #insertBatch(Collection)}.
+   * Without an UpsertSqlTemplate entities are upserted one by one.
+   * </pre>
+   * 
+   * @param entities
+   * @return rows affected per chunk
+   */
+  public BatchResult upsertBatch(Collection<? extends TableEntity> entities) {
+
+    BatchResult result = new BatchResult();
+    UpsertSqlTemplate template = getUpsertSqlTemplate();
+    for (Map.Entry<String, List<TableEntity>> table : groupByTable(entities).entrySet()) {
+      String tableName = table.getKey();
+      List<TableEntity> inserts = new ArrayList<TableEntity>();
+      Map<List<String>, String> sqlByColumns = new HashMap<List<String>, String>();
+      Map<String, List<Object[]>> rowsBySql = new LinkedHashMap<String, List<Object[]>>();
+      int oneByOne = 0;
+      int oneByOneCnt = 0;
+      for (TableEntity entity : table.getValue()) {
+        List<Object> keyValues = new ArrayList<Object>();
+        String[] keyColumns = getKeyValues(entity, bindEntityStatement(entity, Operation.FIND_BY_KEY), keyValues);
+        if (keyValues.contains(null)) {
+          inserts.add(entity);
+        }
+        else if (template == null || keyColumns == null) {
+          oneByOneCnt += upsert(entity);
+          ++oneByOne;
+        }
+        else {
+          Map<String, Object> values = TableEntityUtil.convert(entity);
+          List<String> columns = new ArrayList<String>(values.keySet());
+          String sql = sqlByColumns.get(columns);
+          if (sql == null) {
+            sql = template.formatUpsertSql(tableName, columns.toArray(new String[columns.size()]), keyColumns);
+            sqlByColumns.put(columns, sql);
+          }
+          addRow(rowsBySql, sql, convertValues(values.values().toArray()));
+        }
+      }
+      if (oneByOne > 0) {
+        result.addChunk(tableName, oneByOne, oneByOneCnt);
+      }
+      for (Map.Entry<String, List<Object[]>> rows : rowsBySql.entrySet()) {
+        executeBatch(tableName, rows.getKey(), rows.getValue(), null, result);
+      }
+      if (!inserts.isEmpty()) {
+        for (BatchResult.Chunk chunk : insertBatch(inserts).getChunks()) {
+          result.addChunk(chunk.getTableName(), chunk.getSize(), chunk.getAffectedRows());
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Template of the upsert statement, the default returns null and upserts with an update then an insert.
+   */
+  protected UpsertSqlTemplate getUpsertSqlTemplate() {
+    return null;
+  }
+
+  /**
+   * Get ids for IdKeyedTableEntity to be inserted in tableName, e.g. from a sequence.
+   * The default returns null, meaning ids are generated by the database.
+   * 
+   * @param tableName
+   * @param count
+   *          number of ids needed
+   * @return count ids or null
+   */
+  protected long[] prefetchIds(String tableName, int count) {
+    return null;
+  }
+
+  /**
+   * Execute sql as a JDBC batch of the given rows, in chunks of batchSize.
+   * When keyHolders is not null the generated keys are read and set on them in row order.
+   */
+  private void executeBatch(final String tableName, final String sql, final List<Object[]> rows, final List<IdKeyedTableEntity> keyHolders, final BatchResult result) {
+
+    SqlExecutionListener listener = sqlExecutionListener;
+    long start = listener != null ? System.nanoTime() : 0;
+    int affectedBefore = listener != null ? result.getTotalAffectedRows() : 0;
+    try {
+      jdbcTemplate.execute(new ConnectionCallback<Object>() {
+
+        @Override
+        public Object doInConnection(Connection con) throws SQLException {
+
+          PreparedStatement ps = keyHolders != null ? con.prepareStatement(sql, new String[] { autoGenerateColumnName }) : con.prepareStatement(sql);
+          try {
+            for (int from = 0; from < rows.size(); from += batchSize) {
+              int to = Math.min(from + batchSize, rows.size());
+              for (Object[] row : rows.subList(from, to)) {
+                for (int i = 0; i < row.length; i++) {
+                  StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, row[i]);
+                }
+                ps.addBatch();
+              }
+              result.addChunk(tableName, to - from, ps.executeBatch());
+              if (keyHolders != null) {
+                readGeneratedKeys(ps, keyHolders.subList(from, to));
+              }
+            }
+          }
+          finally {
+            JdbcUtils.closeStatement(ps);
+          }
+          return null;
+        }
+      });
+    }
+    catch (DataAccessException e) {
+      if (listener != null) {
+        fireExecution(listener, SqlExecution.Type.BATCH, sql, null, start, 0, -1, e);
+      }
+      throw translateException(e);
+    }
+    if (listener != null) {
+      fireExecution(listener, SqlExecution.Type.BATCH, sql, null, start, 0, result.getTotalAffectedRows() - affectedBefore, null);
+    }
+  }
+
+  private void readGeneratedKeys(PreparedStatement ps, List<IdKeyedTableEntity> keyHolders) throws SQLException {
+
+    ResultSet keys = ps.getGeneratedKeys();
+    try {
+      Iterator<IdKeyedTableEntity> it = keyHolders.iterator();
+      while (keys.next() && it.hasNext()) {
+        it.next().setId(keys.getLong(1));
+      }
+      if (it.hasNext()) {
+        throw new DataRetrievalFailureException("Driver returned fewer generated keys than the " + keyHolders.size() + " rows inserted");
+      }
+    }
+    finally {
+      JdbcUtils.closeResultSet(keys);
+    }
+  }
+
+  private Map<String, List<TableEntity>> groupByTable(Collection<? extends TableEntity> entities) {
+
+    Map<String, List<TableEntity>> byTable = new LinkedHashMap<String, List<TableEntity>>();
+    for (TableEntity entity : entities) {
+      String tableName = entity.getTableName();
+      if(tableName == null) throw new NullPointerException("TableEntity tableName cannot be null.");
+      List<TableEntity> list = byTable.get(tableName);
+      if (list == null) {
+        list = new ArrayList<TableEntity>();
+        byTable.put(tableName, list);
+      }
+      list.add(entity);
+    }
+    return byTable;
+  }
+
+  private static void removeColumn(Map<String, Object> values, String column) {
+
+    Iterator<String> it = values.keySet().iterator();
+    while (it.hasNext()) {
+      if (it.next().equalsIgnoreCase(column)) {
+        it.remove();
+      }
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public int update(TableEntity entity) {
 
+    BoundStatement bound = bindEntityStatement(entity, Operation.UPDATE);
+    if (bound != null) {
+      return this.updateWithoutParamCheck(bound.getSql(), bound.getParams());
+    }
     SqlStatement sset = StatementUtil.buildPreparedUpdateStatement(entity, false);
     int cnt = this.updateWithoutParamCheck(sset.getSql(), sset.getParams());
 
@@ -163,49 +621,202 @@ public class SpringSqlUtil implements SqlUtil {
   @Override
   public int updateWithNull(TableEntity entity) {
 
+    BoundStatement bound = bindEntityStatement(entity, Operation.UPDATE_WITH_NULL);
+    if (bound != null) {
+      return this.updateWithoutParamCheck(bound.getSql(), bound.getParams());
+    }
     SqlStatement sset = StatementUtil.buildPreparedUpdateStatement(entity, true);
     return this.updateWithoutParamCheck(sset.getSql(), sset.getParams());
   }
 
+  /**
+   * <pre>
+   * Update entities with JDBC batches, null properties are not updated (see {@link #update(TableEntity)}).
+   * Entities producing the same statement share one PreparedStatement.
+   * </pre>
+   * 
+   * @param entities
+   * @return rows affected per chunk
+   */
+  public BatchResult updateBatch(Collection<? extends TableEntity> entities) {
+    return updateBatch(entities, false);
+  }
+
+  /**
+   * Same as {@link #updateBatch(Collection)} with null properties updated to NULL (see {@link #updateWithNull(TableEntity)}).
+   */
+  public BatchResult updateWithNullBatch(Collection<? extends TableEntity> entities) {
+    return updateBatch(entities, true);
+  }
+
+  private BatchResult updateBatch(Collection<? extends TableEntity> entities, boolean withNull) {
+
+    BatchResult result = new BatchResult();
+    for (Map.Entry<String, List<TableEntity>> table : groupByTable(entities).entrySet()) {
+      Map<String, List<Object[]>> rowsBySql = new LinkedHashMap<String, List<Object[]>>();
+      for (TableEntity entity : table.getValue()) {
+        BoundStatement bound = bindEntityStatement(entity, withNull ? Operation.UPDATE_WITH_NULL : Operation.UPDATE);
+        if (bound != null) {
+          addRow(rowsBySql, bound.getSql(), bound.getParams());
+        }
+        else {
+          SqlStatement sset = StatementUtil.buildPreparedUpdateStatement(entity, withNull);
+          addRow(rowsBySql, sset.getSql(), sset.getParams());
+        }
+      }
+      for (Map.Entry<String, List<Object[]>> rows : rowsBySql.entrySet()) {
+        executeBatch(table.getKey(), rows.getKey(), rows.getValue(), null, result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * <pre>
+   * Delete entities in as few round trips as possible.
+   * Entities with a single key column are deleted with DELETE ... WHERE key IN (...) in chunks of
+   * at most {@link #getMaxInListSize()} keys, others with JDBC batches of their delete statement.
+   * </pre>
+   * 
+   * @param entities
+   * @return rows affected per chunk
+   */
+  public BatchResult deleteBatch(Collection<? extends TableEntity> entities) {
+
+    BatchResult result = new BatchResult();
+    int inListSize = Math.min(batchSize, getMaxInListSize());
+    for (Map.Entry<String, List<TableEntity>> table : groupByTable(entities).entrySet()) {
+      String tableName = table.getKey();
+      Map<String, List<Object>> keysByColumn = new LinkedHashMap<String, List<Object>>();
+      Map<String, List<Object[]>> rowsBySql = new LinkedHashMap<String, List<Object[]>>();
+      for (TableEntity entity : table.getValue()) {
+        BoundStatement bound = bindEntityStatement(entity, Operation.DELETE);
+        String keyColumn = null;
+        Object keyValue = null;
+        if (bound != null) {
+          if (bound.getKeyCount() == 1) {
+            keyColumn = entityStatementCache.getKeyColumns(entity)[0];
+            Object[] params = bound.getParams();
+            // the key values are the last parameters
+            keyValue = params[params.length - bound.getKeyCount()];
+          }
+        }
+        else {
+          List<Object> keyValues = new ArrayList<Object>(1);
+          String[] keyColumns = EntityStatementCache.parseKeyColumns(StatementUtil.assembleKeyStatement(entity, keyValues));
+          if (keyColumns != null && keyColumns.length == 1 && keyValues.size() == 1) {
+            keyColumn = keyColumns[0];
+            keyValue = keyValues.get(0);
+          }
+        }
+        if (keyColumn != null) {
+          List<Object> keys = keysByColumn.get(keyColumn);
+          if (keys == null) {
+            keys = new ArrayList<Object>();
+            keysByColumn.put(keyColumn, keys);
+          }
+          keys.add(keyValue);
+        }
+        else if (bound != null) {
+          addRow(rowsBySql, bound.getSql(), convertValues(bound.getParams()));
+        }
+        else {
+          SqlStatement sset = StatementUtil.buildDeleteStatement(entity);
+          addRow(rowsBySql, sset.getSql(), convertValues(sset.getParams()));
+        }
+      }
+
+      for (Map.Entry<String, List<Object>> keys : keysByColumn.entrySet()) {
+        List<Object> values = keys.getValue();
+        for (int from = 0; from < values.size(); from += inListSize) {
+          List<Object> chunk = values.subList(from, Math.min(from + inListSize, values.size()));
+          StringBuilder sql = new StringBuilder("DELETE FROM ").append(tableName).append(" WHERE ").append(keys.getKey()).append(" IN (");
+          for (int i = 0; i < chunk.size(); i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+          }
+          sql.append(')');
+          result.addChunk(tableName, chunk.size(), updateWithoutParamCheck(sql.toString(), convertValues(chunk.toArray())));
+        }
+      }
+      for (Map.Entry<String, List<Object[]>> rows : rowsBySql.entrySet()) {
+        executeBatch(tableName, rows.getKey(), rows.getValue(), null, result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Maximum number of values put in one IN list, default is {@value #DEFAULT_MAX_IN_LIST_SIZE}.
+   */
+  protected int getMaxInListSize() {
+    return DEFAULT_MAX_IN_LIST_SIZE;
+  }
+
+  /**
+   * Maximum number of parameters bound to one statement, default is {@value #DEFAULT_MAX_PARAMETER_COUNT}.
+   */
+  protected int getMaxParameterCount() {
+    return DEFAULT_MAX_PARAMETER_COUNT;
+  }
+
+  private BoundStatement bindEntityStatement(TableEntity entity, Operation operation) {
+    return entityStatementCache != null ? entityStatementCache.bind(entity, operation) : null;
+  }
+
+  private static void addRow(Map<String, List<Object[]>> rowsBySql, String sql, Object[] params) {
+
+    List<Object[]> rows = rowsBySql.get(sql);
+    if (rows == null) {
+      rows = new ArrayList<Object[]>();
+      rowsBySql.put(sql, rows);
+    }
+    rows.add(params);
+  }
+
   @Override
   public <E> List<E> find(String sql, Class<E> clazz, Object... params) {
 
-    ResultSetExtractor<List<E>> rse = new ListExtractor<E>(new BaseBeanPropertyRowMapper<E>(clazz, columnMapper));
+    ResultSetExtractor<List<E>> rse = new ListExtractor<E>(getRowMapper(clazz));
     return query(sql, rse, params);
   }
 
   @Override
   public int findCount(String sql, Object... params) {
-    try {
-      convert(params);
-      return jdbcTemplate.queryForInt(sql, params);
-    }
-    catch (DataAccessException e) {
-      throw translateException(e);
-    }
+
+    convert(params);
+    List<Integer> results = query(new QueryStatementCreator(sql, params), new RowMapperResultSetExtractor<Integer>(new SingleColumnRowMapper<Integer>(Integer.class), 1));
+    Integer count = requiredSingleResult(results);
+    return count != null ? count : 0;
   }
 
   @Override
   public boolean exists(String fromSql, Object... params) {
-    return findTopWithMap("SELECT 1 " + fromSql, 1, params).size() > 0;
+
+    convertParams(params);
+    QueryStatementCreator psc = new QueryStatementCreator(formatTopSql("SELECT 1 " + fromSql, 1), params);
+    psc.setMaxRows(1);
+    psc.setFetchSize(1);
+    return query(psc, new ExistsExtractor());
   }
 
   @Override
   public <E> E findOne(String sql, Class<E> clazz, Object... params) {
-    try {
-      convert(params);
-      return jdbcTemplate.queryForObject(sql, params, new BaseBeanPropertyRowMapper<E>(clazz, columnMapper));
-    }
-    catch (DataAccessException e) {
-      throw translateException(e);
-    }
+
+    convert(params);
+    return requiredSingleResult(query(new QueryStatementCreator(sql, params), new RowMapperResultSetExtractor<E>(getRowMapper(clazz), 1)));
   }
 
   @Override
   public Map<String, Object> findOneWithMap(String sql, Object... params) {
+
+    convert(params);
+    return requiredSingleResult(query(new QueryStatementCreator(sql, params), new RowMapperResultSetExtractor<Map<String, Object>>(getColumnMapRowMapper(), 1)));
+  }
+
+  private <E> E requiredSingleResult(List<E> results) {
+
     try {
-      convert(params);
-      return jdbcTemplate.queryForMap(sql, params);
+      return DataAccessUtils.requiredSingleResult(results);
     }
     catch (DataAccessException e) {
       throw translateException(e);
@@ -214,43 +825,337 @@ public class SpringSqlUtil implements SqlUtil {
 
   @Override
   public <E> List<E> findTop(String sql, int top, Class<E> clazz, Object... params) {
-    ResultSetExtractor<List<E>> rse = new ListExtractor<E>(new BaseBeanPropertyRowMapper<E>(clazz, columnMapper), top);
-    return query(sql, rse, params);
+    return top(sql, top, getRowMapper(clazz), params);
   }
 
   @Override
   public List<Map<String, Object>> findTopWithMap(String sql, int top, Object... params) {
-    ResultSetExtractor<List<Map<String, Object>>> rse = new ListExtractor<Map<String, Object>>(getColumnMapRowMapper(), top);
-    return query(sql, rse, params);
+    return top(sql, top, getColumnMapRowMapper(), params);
   }
 
-  @Override
-  public List<Map<String, Object>> findWithMap(String sql, Object... params) {
-    try {
-      convert(params);
-      return jdbcTemplate.queryForList(sql, params);
+  /**
+   * Limit the query to top rows with {@link #formatTopSql(String, int)} and Statement.setMaxRows,
+   * so neither the database nor the driver produce rows that would be discarded.
+   */
+  private <E> List<E> top(String sql, int top, RowMapper<E> rowMapper, Object... params) {
+
+    convertParams(params);
+    QueryStatementCreator psc;
+    if (top > 0) {
+      psc = new QueryStatementCreator(formatTopSql(sql, top), params);
+      psc.setMaxRows(top);
+      psc.setFetchSize(top);
     }
-    catch (DataAccessException e) {
-      throw translateException(e);
+    else {
+      psc = new QueryStatementCreator(sql, params);
     }
+    return query(psc, new ListExtractor<E>(rowMapper, top));
+  }
+
+  @Override
+  public List<Map<String, Object>> findWithMap(String sql, Object... params) {
+
+    convert(params);
+    return query(new QueryStatementCreator(sql, params), new ListExtractor<Map<String, Object>>(getColumnMapRowMapper()));
+  }
+
+  /**
+   * <pre>
+   * Read the rows of a query into primitive column arrays instead of a Map or bean per row,
+   * for queries returning many numeric rows.
+   * </pre>
+   * 
+   * @param sql
+   * @param params
+   * @return the rows by column
+   * @see com.lunary.spring.database.extractor.ColumnarResult
+   */
+  public ColumnarResult findColumnar(String sql, Object... params) {
+
+    convertParams(params);
+    return query(new QueryStatementCreator(sql, params), new ColumnarExtractor());
   }
 
   @Override
   public <E> PageContainer<E> findWithPagination(String sql, int page, int rowsPerPage, Class<E> clazz, Object... params) {
-    ResultSetExtractor<PageContainer<E>> rse = new PaginateExtractor<E>(new BaseBeanPropertyRowMapper<E>(clazz, columnMapper), page, rowsPerPage);
-    return query(sql, rse, params);
+    return paginate(sql, page, rowsPerPage, getRowMapper(clazz), true, params);
   }
 
   @Override
   public PageContainer<Map<String, Object>> findWithPaginationMap(String sql, int page, int rowsPerPage, Object... params) {
-    ResultSetExtractor<PageContainer<Map<String, Object>>> rse = new PaginateExtractor<Map<String, Object>>(getColumnMapRowMapper(), page, rowsPerPage);
-    return query(sql, rse, params);
+    return paginate(sql, page, rowsPerPage, getColumnMapRowMapper(), true, params);
+  }
+
+  /**
+   * <pre>
+   * Get one page of a query without counting the total rows.
+   * Only the rows up to the end of the page and one more are read, the returned container tells whether
+   * there is a next page instead of the totals.
+   * </pre>
+   * 
+   * @param sql
+   * @param page
+   *          the page to get, starting from 1
+   * @param rowsPerPage
+   * @param clazz
+   *          class each row is mapped to
+   * @param params
+   * @return the page
+   */
+  public <E> SlicePageContainer<E> findSlice(String sql, int page, int rowsPerPage, Class<E> clazz, Object... params) {
+    return (SlicePageContainer<E>) paginate(sql, page, rowsPerPage, getRowMapper(clazz), false, params);
+  }
+
+  /**
+   * Same as {@link #findSlice(String, int, int, Class, Object...)} with each row mapped to a Map.
+   */
+  public SlicePageContainer<Map<String, Object>> findSliceWithMap(String sql, int page, int rowsPerPage, Object... params) {
+    return (SlicePageContainer<Map<String, Object>>) paginate(sql, page, rowsPerPage, getColumnMapRowMapper(), false, params);
+  }
+
+  /**
+   * <pre>
+   * Get one page of a query with keyset (seek) pagination: rows are located by the key values of the last row
+   * of the previous page instead of an offset, so deep pages cost the same as the first one. No COUNT is issued.
+   * 
+   * The query is wrapped as a derived table and ordered by keyColumns, so sql must not have an ORDER BY
+   * and keyColumns must be labels of its select list that together identify a row and are never null.
+   * </pre>
+   * 
+   * @param sql
+   * @param keyColumns
+   *          labels of the columns ordering the rows
+   * @param descending
+   *          true to order the key columns descending
+   * @param continuationToken
+   *          token from the previous page, null for the first page
+   * @param rowsPerPage
+   * @param clazz
+   *          class each row is mapped to
+   * @param params
+   * @return the page with the token of the next page
+   * @throws IllegalArgumentException
+   *           if continuationToken is malformed or does not match keyColumns
+   */
+  public <E> KeysetPageContainer<E> findWithKeyset(String sql, String[] keyColumns, boolean descending, String continuationToken, int rowsPerPage, Class<E> clazz, Object... params) throws IllegalArgumentException {
+    return keyset(sql, keyColumns, descending, continuationToken, rowsPerPage, getRowMapper(clazz), params);
+  }
+
+  /**
+   * Same as {@link #findWithKeyset(String, String[], boolean, String, int, Class, Object...)} with each row mapped to a Map.
+   */
+  public KeysetPageContainer<Map<String, Object>> findWithKeysetMap(String sql, String[] keyColumns, boolean descending, String continuationToken, int rowsPerPage, Object... params) throws IllegalArgumentException {
+    return keyset(sql, keyColumns, descending, continuationToken, rowsPerPage, getColumnMapRowMapper(), params);
+  }
+
+  private <E> KeysetPageContainer<E> keyset(String sql, String[] keyColumns, boolean descending, String continuationToken, int rowsPerPage, RowMapper<E> rowMapper, Object... params) {
+
+    Object[] lastKeys = null;
+    if (continuationToken != null) {
+      lastKeys = KeysetToken.decode(continuationToken);
+      if (lastKeys.length != keyColumns.length) {
+        throw new IllegalArgumentException("Continuation token does not match key columns");
+      }
+    }
+
+    List<Object> keysetParams = new ArrayList<Object>();
+    if (params != null) {
+      for (Object param : params) {
+        keysetParams.add(param);
+      }
+    }
+    StringBuilder keysetSql = new StringBuilder("SELECT * FROM (").append(sql).append(") keyset_");
+    if (lastKeys != null) {
+      keysetSql.append(" WHERE ");
+      appendKeysetPredicate(keysetSql, keysetParams, keyColumns, lastKeys, descending);
+    }
+    keysetSql.append(" ORDER BY ");
+    for (int i = 0; i < keyColumns.length; i++) {
+      if (i > 0) {
+        keysetSql.append(", ");
+      }
+      keysetSql.append(keyColumns[i]).append(descending ? " DESC" : " ASC");
+    }
+
+    Object[] allParams = convertParams(keysetParams.toArray());
+    QueryStatementCreator psc = new QueryStatementCreator(formatTopSql(keysetSql.toString(), rowsPerPage + 1), allParams);
+    psc.setMaxRows(rowsPerPage + 1);
+    psc.setFetchSize(rowsPerPage + 1);
+    return query(psc, new KeysetExtractor<E>(rowMapper, keyColumns, rowsPerPage));
+  }
+
+  /**
+   * Append the predicate selecting the rows after lastKeys, as a row value comparison when supported
+   * or expanded to (k1 > ?) OR (k1 = ? AND k2 > ?)...
+   */
+  private void appendKeysetPredicate(StringBuilder sql, List<Object> params, String[] keyColumns, Object[] lastKeys, boolean descending) {
+
+    String op = descending ? " < " : " > ";
+    if (keyColumns.length == 1) {
+      sql.append(keyColumns[0]).append(op).append('?');
+      params.add(lastKeys[0]);
+    }
+    else if (isRowValueComparisonSupported()) {
+      StringBuilder marks = new StringBuilder();
+      sql.append('(');
+      for (int i = 0; i < keyColumns.length; i++) {
+        if (i > 0) {
+          sql.append(", ");
+          marks.append(", ");
+        }
+        sql.append(keyColumns[i]);
+        marks.append('?');
+        params.add(lastKeys[i]);
+      }
+      sql.append(')').append(op).append('(').append(marks).append(')');
+    }
+    else {
+      for (int i = 0; i < keyColumns.length; i++) {
+        if (i > 0) {
+          sql.append(" OR ");
+        }
+        sql.append('(');
+        for (int j = 0; j < i; j++) {
+          sql.append(keyColumns[j]).append(" = ? AND ");
+          params.add(lastKeys[j]);
+        }
+        sql.append(keyColumns[i]).append(op).append("?)");
+        params.add(lastKeys[i]);
+      }
+    }
+  }
+
+  /**
+   * Whether the database supports row value comparisons like (a, b) > (?, ?), false by default.
+   */
+  protected boolean isRowValueComparisonSupported() {
+    return false;
+  }
+
+  /**
+   * Limit sql to its first top rows, the default leaves it unchanged and relies on Statement.setMaxRows.
+   */
+  protected String formatTopSql(String sql, int top) {
+    return sql;
+  }
+
+  private <E> PageContainer<E> paginate(String sql, int page, int rowsPerPage, RowMapper<E> rowMapper, boolean countTotal, Object... params) {
+
+    if (page <= 0) {
+      page = 1;
+    }
+    convertParams(params);
+    QueryStatementCreator psc = new QueryStatementCreator(countTotal ? sql : formatTopSql(sql, page * rowsPerPage + 1), params);
+    psc.setFetchSize(rowsPerPage + 1);
+    if (!countTotal) {
+      psc.setMaxRows(page * rowsPerPage + 1);
+    }
+    else if (isScrollableCursorSupported()) {
+      psc.setResultSetType(ResultSet.TYPE_SCROLL_INSENSITIVE);
+    }
+    return query(psc, new PaginateExtractor<E>(rowMapper, page, rowsPerPage, countTotal));
+  }
+
+  /**
+   * Read the rows of one page of sql, the rows before the page are skipped without being mapped.
+   * Meant for sql already limited to the end of the page, e.g. by {@link #formatTopSql(String, int)}.
+   * 
+   * @param sql
+   * @param page
+   *          the page to get, starting from 1
+   * @param rowsPerPage
+   * @param rowMapper
+   * @param params
+   * @return the rows of the page
+   */
+  protected <E> List<E> findPageRows(String sql, int page, int rowsPerPage, RowMapper<E> rowMapper, Object... params) {
+
+    convertParams(params);
+    QueryStatementCreator psc = new QueryStatementCreator(sql, params);
+    psc.setFetchSize(rowsPerPage);
+    psc.setMaxRows(page * rowsPerPage);
+    return query(psc, new PaginateExtractor<E>(rowMapper, page, rowsPerPage, false)).getRows();
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Set the number of rows sent per JDBC batch by the batch operations, default is {@value #DEFAULT_BATCH_SIZE}.
+   * 
+   * @param batchSize
+   * @throws IllegalArgumentException
+   *           if batchSize is not positive
+   */
+  public void setBatchSize(int batchSize) throws IllegalArgumentException {
+
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batchSize must be positive");
+    }
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Set whether insertBatch reads ids of IdKeyedTableEntity through getGeneratedKeys.
+   * When not set it is detected from the DatabaseMetaData on first use.
+   * 
+   * @param generatedKeysSupported
+   */
+  public void setGeneratedKeysSupported(boolean generatedKeysSupported) {
+    this.generatedKeysSupported = generatedKeysSupported;
+  }
+
+  protected boolean isGeneratedKeysSupported() {
+
+    Boolean supported = generatedKeysSupported;
+    if (supported == null) {
+      try {
+        supported = jdbcTemplate.execute(new ConnectionCallback<Boolean>() {
+
+          @Override
+          public Boolean doInConnection(Connection con) throws SQLException {
+            return con.getMetaData().supportsGetGeneratedKeys();
+          }
+        });
+      }
+      catch (DataAccessException e) {
+        supported = Boolean.FALSE;
+      }
+      generatedKeysSupported = supported;
+    }
+    return supported;
+  }
+
+  protected boolean isScrollableCursorSupported() {
+
+    Boolean supported = scrollableCursors;
+    if (supported == null) {
+      try {
+        supported = jdbcTemplate.execute(new ConnectionCallback<Boolean>() {
+
+          @Override
+          public Boolean doInConnection(Connection con) throws SQLException {
+            return con.getMetaData().supportsResultSetType(ResultSet.TYPE_SCROLL_INSENSITIVE);
+          }
+        });
+      }
+      catch (DataAccessException e) {
+        supported = Boolean.FALSE;
+      }
+      scrollableCursors = supported;
+    }
+    return supported;
   }
 
   @Override
   @SuppressWarnings("unchecked")
   public <E extends TableEntity> E findByKey(E entity) {
-    
+
+    BoundStatement bound = bindEntityStatement(entity, Operation.FIND_BY_KEY);
+    if (bound != null) {
+      return (E) this.findOne(bound.getSql(), entity.getClass(), bound.getParams());
+    }
     List<Object> keyValues = new ArrayList<Object>();
     StringBuilder sql = new StringBuilder("SELECT * FROM ");
     sql.append(entity.getTableName()).append(" WHERE ");
@@ -258,22 +1163,385 @@ public class SpringSqlUtil implements SqlUtil {
 //    logger.debug(sql.toString() + " params: " + keyValues.toString());
     return (E) this.findOne(sql.toString(), entity.getClass(), keyValues.toArray());
   }
+
+  /**
+   * <pre>
+   * Find the entities having the keys of the given entities in as few round trips as possible.
+   * Keys are grouped by table and entity class and looked up with WHERE key IN (...), composite keys with
+   * (k1, k2) IN ((?, ?), ...) when {@link #isRowValueInSupported()}, with (k1 = ? AND k2 = ?) OR ... otherwise.
+   * A query has at most {@link #getMaxInListSize()} keys and {@link #getMaxParameterCount()} parameters.
+   * Entities whose key columns are not known are looked up one by one with {@link #findByKey(TableEntity)}.
+   * Rows are matched back to the keys by value. When a query returns a row matching no key, e.g. because
+   * of a case insensitive collation or CHAR padding, the keys it left without a row are looked up one by one.
+   * </pre>
+   * 
+   * @param entities
+   *          entities with their key properties set
+   * @return the entities found, in the order of entities with null where no row has the key;
+   *         entities with the same key get the same instance
+   */
+  @SuppressWarnings("unchecked")
+  public <E extends TableEntity> List<E> findByKeys(Collection<E> entities) {
+
+    List<E> results = new ArrayList<E>(entities.size());
+    Map<String, KeyLookup> lookups = new LinkedHashMap<String, KeyLookup>();
+    for (E entity : entities) {
+      String tableName = entity.getTableName();
+      if(tableName == null) throw new NullPointerException("TableEntity tableName cannot be null.");
+      List<Object> keyValues = new ArrayList<Object>();
+      BoundStatement bound = bindEntityStatement(entity, Operation.FIND_BY_KEY);
+      String[] keyColumns = getKeyValues(entity, bound, keyValues);
+      if (keyColumns == null) {
+        results.add(findByKey(entity));
+        continue;
+      }
+      String lookupKey = tableName + ' ' + entity.getClass().getName() + ' ' + Arrays.toString(keyColumns);
+      KeyLookup lookup = lookups.get(lookupKey);
+      if (lookup == null) {
+        String selectSql = entityStatementCache != null ? entityStatementCache.getSelectSql(entity) : "SELECT * FROM " + tableName;
+        lookup = new KeyLookup(selectSql, entity.getClass(), keyColumns);
+        lookups.put(lookupKey, lookup);
+      }
+      List<Object> normalizedKey = normalizeKey(keyValues);
+      List<Integer> positions = lookup.positions.get(normalizedKey);
+      if (positions == null) {
+        positions = new ArrayList<Integer>(1);
+        lookup.positions.put(normalizedKey, positions);
+        lookup.keys.add(keyValues);
+      }
+      positions.add(results.size());
+      results.add(null);
+    }
+
+    for (KeyLookup lookup : lookups.values()) {
+      int keyCount = lookup.keyColumns.length;
+      int chunkSize = Math.max(1, Math.min(getMaxInListSize(), getMaxParameterCount() / keyCount));
+      List<List<Object>> keys = lookup.keys;
+      RowMapper<E> rowMapper = (RowMapper<E>) getRowMapper(lookup.entityClass);
+      for (int from = 0; from < keys.size(); from += chunkSize) {
+        List<List<Object>> chunk = keys.subList(from, Math.min(from + chunkSize, keys.size()));
+        List<Object> params = new ArrayList<Object>(chunk.size() * keyCount);
+        String sql = buildKeysSql(lookup.selectSql, lookup.keyColumns, chunk, params);
+        boolean unmatched = false;
+        for (E row : query(sql, new ListExtractor<E>(rowMapper), params.toArray())) {
+          List<Object> rowKey = new ArrayList<Object>(keyCount);
+          getKeyValues(row, bindEntityStatement(row, Operation.FIND_BY_KEY), rowKey);
+          List<Integer> positions = lookup.positions.get(normalizeKey(rowKey));
+          if (positions != null) {
+            for (Integer position : positions) {
+              results.set(position, row);
+            }
+          }
+          else {
+            unmatched = true;
+          }
+        }
+        if (unmatched) {
+          // the database matched some keys to rows with other values, let it match them one by one
+          for (List<Object> key : chunk) {
+            List<Integer> positions = lookup.positions.get(normalizeKey(key));
+            if (results.get(positions.get(0)) == null) {
+              params.clear();
+              sql = buildKeysSql(lookup.selectSql, lookup.keyColumns, Collections.singletonList(key), params);
+              List<E> rows = query(sql, new ListExtractor<E>(rowMapper), params.toArray());
+              for (Integer position : positions) {
+                results.set(position, rows.isEmpty() ? null : rows.get(0));
+              }
+            }
+          }
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Add the key values of entity to keyValues, taken from bound when not null.
+   * 
+   * @return the key columns or null if they are not known
+   */
+  private String[] getKeyValues(TableEntity entity, BoundStatement bound, List<Object> keyValues) {
+
+    if (bound != null) {
+      Object[] params = bound.getParams();
+      for (int i = params.length - bound.getKeyCount(); i < params.length; i++) {
+        keyValues.add(params[i]);
+      }
+      return entityStatementCache.getKeyColumns(entity);
+    }
+    String[] keyColumns = EntityStatementCache.parseKeyColumns(StatementUtil.assembleKeyStatement(entity, keyValues));
+    return keyColumns != null && keyColumns.length == keyValues.size() ? keyColumns : null;
+  }
+
+  /**
+   * Key values compared by value: numbers whatever their type and scale, dates by their time.
+   */
+  private static List<Object> normalizeKey(List<Object> keyValues) {
+
+    List<Object> normalized = new ArrayList<Object>(keyValues.size());
+    for (Object value : keyValues) {
+      if (value instanceof Number) {
+        BigDecimal number = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+        // stripTrailingZeros leaves the scale of zero unchanged before Java 8
+        value = number.signum() == 0 ? BigDecimal.ZERO : number.stripTrailingZeros();
+      }
+      else if (value instanceof Date) {
+        value = ((Date) value).getTime();
+      }
+      normalized.add(value);
+    }
+    return normalized;
+  }
+
+  private String buildKeysSql(String selectSql, String[] keyColumns, List<List<Object>> keys, List<Object> params) {
+
+    StringBuilder sql = new StringBuilder(selectSql).append(" WHERE ");
+    if (keyColumns.length == 1) {
+      sql.append(keyColumns[0]).append(" IN (");
+      for (int i = 0; i < keys.size(); i++) {
+        sql.append(i > 0 ? ", ?" : "?");
+        params.add(keys.get(i).get(0));
+      }
+      sql.append(')');
+    }
+    else if (isRowValueInSupported()) {
+      sql.append('(');
+      for (int i = 0; i < keyColumns.length; i++) {
+        sql.append(i > 0 ? ", " : "").append(keyColumns[i]);
+      }
+      sql.append(") IN (");
+      for (int i = 0; i < keys.size(); i++) {
+        sql.append(i > 0 ? ", (" : "(");
+        for (int j = 0; j < keyColumns.length; j++) {
+          sql.append(j > 0 ? ", ?" : "?");
+          params.add(keys.get(i).get(j));
+        }
+        sql.append(')');
+      }
+      sql.append(')');
+    }
+    else {
+      for (int i = 0; i < keys.size(); i++) {
+        sql.append(i > 0 ? " OR (" : "(");
+        for (int j = 0; j < keyColumns.length; j++) {
+          sql.append(j > 0 ? " AND " : "").append(keyColumns[j]).append(" = ?");
+          params.add(keys.get(i).get(j));
+        }
+        sql.append(')');
+      }
+    }
+    return sql.toString();
+  }
+
+  /**
+   * Whether the database supports row value IN lists like (a, b) IN ((?, ?), (?, ?)), false by default.
+   */
+  protected boolean isRowValueInSupported() {
+    return false;
+  }
+
+  /**
+   * Keys of one findByKeys query: entities of one class and table, their distinct key values
+   * and the positions of the entities by normalized key values.
+   */
+  private static class KeyLookup {
+
+    private final String selectSql;
+    private final Class<? extends TableEntity> entityClass;
+    private final String[] keyColumns;
+    private final List<List<Object>> keys = new ArrayList<List<Object>>();
+    private final Map<List<Object>, List<Integer>> positions = new HashMap<List<Object>, List<Integer>>();
+
+    private KeyLookup(String selectSql, Class<? extends TableEntity> entityClass, String[] keyColumns) {
+      this.selectSql = selectSql;
+      this.entityClass = entityClass;
+      this.keyColumns = keyColumns;
+    }
+  }
   
+  /**
+   * <pre>
+   * Run a query and hand every mapped row to consumer as it is read, without collecting the result.
+   * Memory use does not depend on the size of the result, see {@link #setStreamFetchSize(int)}.
+   * </pre>
+   * 
+   * @param sql
+   * @param clazz
+   *          class each row is mapped to
+   * @param consumer
+   *          receives the mapped rows, called on the current thread while the ResultSet is open
+   * @param params
+   * @return number of rows read
+   */
+  public <E> int stream(String sql, Class<E> clazz, RowConsumer<E> consumer, Object... params) {
+    return stream(sql, getRowMapper(clazz), consumer, params);
+  }
+
+  /**
+   * Same as {@link #stream(String, Class, RowConsumer, Object...)} with each row mapped to a Map.
+   */
+  public int streamWithMap(String sql, RowConsumer<Map<String, Object>> consumer, Object... params) {
+    return stream(sql, getColumnMapRowMapper(), consumer, params);
+  }
+
+  private <E> int stream(String sql, RowMapper<E> rowMapper, RowConsumer<E> consumer, Object... params) {
+
+    convertParams(params);
+    QueryStatementCreator psc = new QueryStatementCreator(sql, params);
+    psc.setFetchSize(streamFetchSize);
+    return query(psc, new StreamingExtractor<E>(rowMapper, consumer));
+  }
+
+  /**
+   * <pre>
+   * Open a cursor over the rows of a query, rows are mapped one at a time while iterating.
+   * The cursor holds a connection until it is exhausted or closed, callers must close it in a finally block.
+   * </pre>
+   * 
+   * @param sql
+   * @param clazz
+   *          class each row is mapped to
+   * @param params
+   * @return an open cursor
+   */
+  public <E> QueryCursor<E> openCursor(String sql, Class<E> clazz, Object... params) {
+    return openCursor(sql, getRowMapper(clazz), params);
+  }
+
+  /**
+   * Same as {@link #openCursor(String, Class, Object...)} with each row mapped to a Map.
+   */
+  public QueryCursor<Map<String, Object>> openCursorWithMap(String sql, Object... params) {
+    return openCursor(sql, getColumnMapRowMapper(), params);
+  }
+
+  private <E> QueryCursor<E> openCursor(String sql, RowMapper<E> rowMapper, Object... params) {
+
+    convertParams(params);
+    QueryStatementCreator psc = new QueryStatementCreator(sql, params);
+    psc.setFetchSize(streamFetchSize);
+
+    SqlExecutionListener listener = sqlExecutionListener;
+    long start = listener != null ? System.nanoTime() : 0;
+    DataSource dataSource = jdbcTemplate.getDataSource();
+    Connection con = null;
+    PreparedStatement ps = null;
+    ResultSet rs = null;
+    try {
+      con = DataSourceUtils.getConnection(dataSource);
+      ps = psc.createPreparedStatement(con);
+      DataSourceUtils.applyTimeout(ps, dataSource, jdbcTemplate.getQueryTimeout());
+      rs = ps.executeQuery();
+      if (listener != null) {
+        fireExecution(listener, SqlExecution.Type.CURSOR, sql, params, start, 0, -1, null);
+      }
+      return new QueryCursor<E>(dataSource, con, ps, rs, rowMapper, jdbcTemplate.getExceptionTranslator(), sql) {
+
+        @Override
+        protected RuntimeException translateException(DataAccessException e) {
+          return SpringSqlUtil.this.translateException(e);
+        }
+      };
+    }
+    catch (SQLException e) {
+      releaseCursor(dataSource, con, ps, rs);
+      if (listener != null) {
+        fireExecution(listener, SqlExecution.Type.CURSOR, sql, params, start, 0, -1, e);
+      }
+      throw translateException(jdbcTemplate.getExceptionTranslator().translate("openCursor", sql, e));
+    }
+    catch (DataAccessException e) {
+      releaseCursor(dataSource, con, ps, rs);
+      if (listener != null) {
+        fireExecution(listener, SqlExecution.Type.CURSOR, sql, params, start, 0, -1, e);
+      }
+      throw translateException(e);
+    }
+    finally {
+      psc.cleanupParameters();
+    }
+  }
+
+  private void releaseCursor(DataSource dataSource, Connection con, PreparedStatement ps, ResultSet rs) {
+
+    JdbcUtils.closeResultSet(rs);
+    JdbcUtils.closeStatement(ps);
+    DataSourceUtils.releaseConnection(con, dataSource);
+  }
+
+  protected <E> RowMapper<E> getRowMapper(Class<E> clazz) {
+    return rowMapperRegistry.getRowMapper(clazz, columnMapper);
+  }
+
   protected RowMapper<Map<String, Object>> getColumnMapRowMapper() {
-    return new ColumnMapRowMapper();
+    return columnMapRowMapper;
   }
   
   private <E> E query(String sql, ResultSetExtractor<E> extractor, Object... params) {
 
-    E obj = null;
+    convertParams(params);
+    return query(new QueryStatementCreator(sql, params), extractor);
+  }
+
+  private <E> E query(QueryStatementCreator psc, ResultSetExtractor<E> extractor) {
+
+    SqlExecutionListener listener = sqlExecutionListener;
+    if (listener == null) {
+      try {
+        return jdbcTemplate.query(psc, extractor);
+      }
+      catch (DataAccessException e) {
+        throw translateException(e);
+      }
+    }
+
+    TimedExtractor<E> timed = new TimedExtractor<E>(extractor);
+    long start = System.nanoTime();
+    E result;
     try {
-      convertParams(params);
-      obj = jdbcTemplate.query(sql, params, extractor);//getQueryRunner().query(getConnection(), sql, rsHandler, params);
+      result = jdbcTemplate.query(psc, timed);
     }
     catch (DataAccessException e) {
+      fireExecution(listener, SqlExecution.Type.QUERY, psc.getSql(), psc.getParams(), start, timed.getExtractNanos(), -1, e);
       throw translateException(e);
     }
-    return obj;
+    fireExecution(listener, SqlExecution.Type.QUERY, psc.getSql(), psc.getParams(), start, timed.getExtractNanos(), countRows(result), null);
+    return result;
+  }
+
+  /**
+   * Tell listener about a statement started at start (System.nanoTime), a failing listener is logged and ignored.
+   */
+  private void fireExecution(SqlExecutionListener listener, SqlExecution.Type type, String sql, Object[] params, long start, long mappingNanos, int rows, Throwable error) {
+
+    long executeNanos = System.nanoTime() - start - mappingNanos;
+    try {
+      listener.executed(new SqlExecution(type, sql, params, executeNanos, mappingNanos, rows, error));
+    }
+    catch (RuntimeException e) {
+      logger.warn("SqlExecutionListener failed", e);
+    }
+  }
+
+  private static int countRows(Object result) {
+
+    if (result instanceof Collection) {
+      return ((Collection<?>) result).size();
+    }
+    if (result instanceof ColumnarResult) {
+      return ((ColumnarResult) result).getRowCount();
+    }
+    if (result instanceof PageContainer) {
+      List<?> rows = ((PageContainer<?>) result).getRows();
+      return rows != null ? rows.size() : 0;
+    }
+    if (result instanceof Number) {
+      return ((Number) result).intValue();
+    }
+    if (result instanceof Boolean) {
+      return ((Boolean) result) ? 1 : 0;
+    }
+    return result != null ? 1 : 0;
   }
 
   protected RuntimeException translateException(Exception e) {
@@ -290,6 +1558,19 @@ public class SpringSqlUtil implements SqlUtil {
     return params;
   }
 
+  /**
+   * Copy of values with every non null value converted by {@link #convert(Object)}, for the rows of batches
+   * so they bind the same values as the row at a time methods.
+   */
+  private Object[] convertValues(Object[] values) {
+
+    Object[] converted = new Object[values.length];
+    for (int i = 0; i < values.length; i++) {
+      converted[i] = values[i] != null ? convert(values[i]) : null;
+    }
+    return converted;
+  }
+
   protected Object convert(Object param) {
 
     return TableEntityUtil.convertToSqlObject(param.getClass(), param);
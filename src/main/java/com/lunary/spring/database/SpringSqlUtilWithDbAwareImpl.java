@@ -1,14 +1,22 @@
 package com.lunary.spring.database;
 
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.sql.DataSource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.lunary.database.BasePageContainer;
 import com.lunary.database.ColumnMapper;
@@ -23,13 +31,25 @@ import com.lunary.database.impl.MSSqlTopSqlTemplate;
 import com.lunary.database.impl.MySqlPaginateSqlTemplate;
 import com.lunary.database.impl.MySqlTopSqlTemplate;
 import com.lunary.database.impl.OracleTopSqlTemplate;
+import com.lunary.spring.database.template.MergeUpsertSqlTemplate;
+import com.lunary.spring.database.template.MySqlUpsertSqlTemplate;
+import com.lunary.spring.database.template.OracleMergeUpsertSqlTemplate;
+import com.lunary.spring.database.template.OraclePaginateSqlTemplate;
+import com.lunary.spring.database.template.UpsertSqlTemplate;
 
 public class SpringSqlUtilWithDbAwareImpl extends SpringSqlUtil {
 
   private final Logger logger = LoggerFactory.getLogger(SpringSqlUtilWithDbAwareImpl.class);
+  private final DatabaseType databaseType;
   private final PaginateSqlTemplate paginateTemplate;
   private final TopSqlTemplate topTemplate;
-  private final Pattern orderByPattern = Pattern.compile(" ORDER BY ", Pattern.CASE_INSENSITIVE);
+  private UpsertSqlTemplate upsertTemplate;
+  private final boolean rowValueComparison;
+  private final boolean rowValueIn;
+  private String idSequenceNamePattern;
+  private ExecutorService countExecutor;
+  private CountCache countCache;
+  private SqlRewriteCache sqlRewriteCache = new SqlRewriteCache();
 
   /**
    * Consturctor
@@ -61,113 +81,349 @@ public class SpringSqlUtilWithDbAwareImpl extends SpringSqlUtil {
    */
   public SpringSqlUtilWithDbAwareImpl(JdbcTemplate jdbcTemplate, DataSource dataSource, DatabaseType databaseType, ColumnMapper columnMapper) throws NullPointerException {
 
-    super(jdbcTemplate, dataSource, columnMapper);
+    this(jdbcTemplate, dataSource, databaseType, null, null, columnMapper);
+  }
 
-    //this.databaseType = databaseType;
+  /**
+   * Constructor with the templates of databaseType replaced, e.g. by OffsetFetchPaginateSqlTemplate on Oracle 12c or SQL Server 2012.
+   * 
+   * @param jdbcTemplate
+   * @param dataSource
+   * @param databaseType
+   * @param paginateTemplate
+   *          null for the default of databaseType
+   * @param topTemplate
+   *          null for the default of databaseType
+   * @param columnMapper
+   * @throws NullPointerException
+   *           if jdbcTemplate or databaseType is null
+   */
+  public SpringSqlUtilWithDbAwareImpl(JdbcTemplate jdbcTemplate, DataSource dataSource, DatabaseType databaseType, PaginateSqlTemplate paginateTemplate, TopSqlTemplate topTemplate, ColumnMapper columnMapper) throws NullPointerException {
 
-    if(databaseType == DatabaseType.MYSQL) {
-      paginateTemplate = new MySqlPaginateSqlTemplate();
-      topTemplate = new MySqlTopSqlTemplate();
-    }
-    else if (databaseType == DatabaseType.DB2) {
-      paginateTemplate = new Db2PaginateSqlTemplate();
-      topTemplate = new Db2TopSqlTemplate();
-    }
-    else if (databaseType == DatabaseType.MSSQL95 || databaseType == DatabaseType.MSSQL2008) {//TODO need better paginateTemplate for MSSQL 2008 due to new paginate sytax
-      paginateTemplate = new MSSqlPaginateSqlTemplate();
-      topTemplate = new MSSqlTopSqlTemplate();
+    super(jdbcTemplate, dataSource, columnMapper);
+
+    if (databaseType == null) {
+      throw new NullPointerException("databaseType cannot be null");
     }
-    else if (databaseType == DatabaseType.ORACLE) {
-      //TODO implement OraclePaginateSqlTemplate
-      paginateTemplate = null;
-      topTemplate = new OracleTopSqlTemplate();
+    this.databaseType = databaseType;
+    rowValueComparison = databaseType == DatabaseType.MYSQL;
+    rowValueIn = databaseType == DatabaseType.MYSQL || databaseType == DatabaseType.ORACLE || databaseType == DatabaseType.DB2;
+    this.paginateTemplate = paginateTemplate != null ? paginateTemplate : createPaginateTemplate(databaseType);
+    this.topTemplate = topTemplate != null ? topTemplate : createTopTemplate(databaseType);
+    this.upsertTemplate = createUpsertTemplate(databaseType);
+
+    if (this.paginateTemplate != null) {
+      logger.info("PaginateSqlTempate: " + this.paginateTemplate.getClass() + " will be used for pagination queries.");
     }
-    else if (databaseType == DatabaseType.SYBASE) {
-      //currently Sybase does not support any good pagination mechanism 
-      paginateTemplate = null;
-      topTemplate = new MSSqlTopSqlTemplate();
+    else if (this.topTemplate != null) {
+      logger.info("No PaginateSqlTempate available for databaseType: " + databaseType + ". Top queries will be used for pagination queries.");
     }
     else {
       logger.warn("No PaginateSqlTempate available for databaseType: " + databaseType + ". Default method will be used for pagination queries.");
-      paginateTemplate = null;
-      topTemplate = null;
     }
-
-    if (paginateTemplate != null) {
-      logger.info("PaginateSqlTempate: " + paginateTemplate.getClass() + " will be used for pagination queries.");
-    }
-    if (topTemplate != null) {
-      logger.info("TopSqlTemplate: " + topTemplate.getClass() + " will be used for top queries.");
+    if (this.topTemplate != null) {
+      logger.info("TopSqlTemplate: " + this.topTemplate.getClass() + " will be used for top queries.");
     }
   }
   
   public SpringSqlUtilWithDbAwareImpl(JdbcTemplate jdbcTemplate, DataSource dataSource, PaginateSqlTemplate paginateTemplate, TopSqlTemplate topTemplate, ColumnMapper columnMapper) throws IllegalArgumentException, NullPointerException {
     
     super(jdbcTemplate, dataSource, columnMapper);
+    this.databaseType = null;
     this.paginateTemplate = paginateTemplate;
     this.topTemplate = topTemplate;
-        
+    this.rowValueComparison = false;
+    this.rowValueIn = false;
+  }
+
+  private static PaginateSqlTemplate createPaginateTemplate(DatabaseType databaseType) {
+
+    if (databaseType == DatabaseType.MYSQL) {
+      return new MySqlPaginateSqlTemplate();
+    }
+    else if (databaseType == DatabaseType.DB2) {
+      return new Db2PaginateSqlTemplate();
+    }
+    else if (databaseType == DatabaseType.MSSQL95 || databaseType == DatabaseType.MSSQL2008) {
+      // OFFSET / FETCH needs SQL Server 2012, pass an OffsetFetchPaginateSqlTemplate explicitly for it
+      return new MSSqlPaginateSqlTemplate();
+    }
+    else if (databaseType == DatabaseType.ORACLE) {
+      return new OraclePaginateSqlTemplate();
+    }
+    //Sybase has no offset syntax, pages are read with top queries
+    return null;
+  }
+
+  private static TopSqlTemplate createTopTemplate(DatabaseType databaseType) {
+
+    if (databaseType == DatabaseType.MYSQL) {
+      return new MySqlTopSqlTemplate();
+    }
+    else if (databaseType == DatabaseType.DB2) {
+      return new Db2TopSqlTemplate();
+    }
+    else if (databaseType == DatabaseType.MSSQL95 || databaseType == DatabaseType.MSSQL2008 || databaseType == DatabaseType.SYBASE) {
+      return new MSSqlTopSqlTemplate();
+    }
+    else if (databaseType == DatabaseType.ORACLE) {
+      return new OracleTopSqlTemplate();
+    }
+    return null;
+  }
+
+  private static UpsertSqlTemplate createUpsertTemplate(DatabaseType databaseType) {
+
+    if (databaseType == DatabaseType.MYSQL) {
+      return new MySqlUpsertSqlTemplate();
+    }
+    else if (databaseType == DatabaseType.DB2) {
+      return new MergeUpsertSqlTemplate();
+    }
+    else if (databaseType == DatabaseType.MSSQL2008) {
+      return new MergeUpsertSqlTemplate(";");
+    }
+    else if (databaseType == DatabaseType.ORACLE) {
+      return new OracleMergeUpsertSqlTemplate();
+    }
+    //MERGE needs SQL Server 2008, Sybase and older SQL Server upsert with an update then an insert
+    return null;
+  }
+
+  @Override
+  protected UpsertSqlTemplate getUpsertSqlTemplate() {
+    return upsertTemplate;
+  }
+
+  /**
+   * Set the template of upsert and upsertBatch, e.g. for a database without a default one.
+   * null upserts with an update then an insert.
+   * 
+   * @param upsertTemplate
+   */
+  public void setUpsertSqlTemplate(UpsertSqlTemplate upsertTemplate) {
+    this.upsertTemplate = upsertTemplate;
+  }
+
+  public SqlRewriteCache getSqlRewriteCache() {
+    return sqlRewriteCache;
+  }
+
+  /**
+   * Set the cache of the ORDER BY splitting and count/top formatting of the SQL, a cache can be shared by several SqlUtils.
+   * 
+   * @param sqlRewriteCache
+   * @throws NullPointerException
+   *           if sqlRewriteCache is null
+   */
+  public void setSqlRewriteCache(SqlRewriteCache sqlRewriteCache) throws NullPointerException {
+
+    if (sqlRewriteCache == null) {
+      throw new NullPointerException("sqlRewriteCache cannot be null");
+    }
+    this.sqlRewriteCache = sqlRewriteCache;
+  }
+
+  /**
+   * <pre>
+   * Set the executor the COUNT of findWithPagination and findWithPaginationMap runs on, concurrently with the page query
+   * and on its own connection. null (the default) runs both one after the other on the calling thread.
+   * Inside a transaction both always run on the calling thread so they see the same data.
+   * </pre>
+   * 
+   * @param countExecutor
+   */
+  public void setCountExecutor(ExecutorService countExecutor) {
+    this.countExecutor = countExecutor;
+  }
+
+  public CountCache getCountCache() {
+    return countCache;
+  }
+
+  /**
+   * Set the cache of the counts of findWithPagination and findWithPaginationMap, null (the default) counts on every call.
+   * 
+   * @param countCache
+   */
+  public void setCountCache(CountCache countCache) {
+    this.countCache = countCache;
   }
 
   @Override
   public <E> PageContainer<E> findWithPagination(String sql, int page, int rowsPerPage, Class<E> clazz, Object... params) {
 
+    if (paginateTemplate == null && topTemplate == null) {
+      return super.findWithPagination(sql, page, rowsPerPage, clazz, params);
+    }
+    return paginateWithTemplate(sql, page, rowsPerPage, getRowMapper(clazz), params);
+  }
+
+  @Override
+  public PageContainer<Map<String, Object>> findWithPaginationMap(String sql, int page, int rowsPerPage, Object... params) {
+
+    if (paginateTemplate == null && topTemplate == null) {
+      return super.findWithPaginationMap(sql, page, rowsPerPage, params);
+    }
+    return paginateWithTemplate(sql, page, rowsPerPage, getColumnMapRowMapper(), params);
+  }
+
+  /**
+   * Count and read one page with the paginateTemplate, or without one (e.g. Sybase) read the rows
+   * up to the end of the page with the topTemplate and skip the ones before the page.
+   */
+  private <E> PageContainer<E> paginateWithTemplate(String sql, int page, int rowsPerPage, RowMapper<E> rowMapper, Object... params) {
+
     if (page <= 0) {
       page = 1;
     }
-    PageContainer<E> pc;
-
+    ParsedSql parsedSql = sqlRewriteCache.get(sql);
+    String cntSql;
+    String pageSql;
+    int pageInSql;
     if (paginateTemplate != null) {
-      String orderByColumns = getOrderByColumns(sql);
-      sql = trimOrderBy(sql);
-      String cntSql = paginateTemplate.formatCountSql(sql);
-      logger.debug("Count Sql: {}", cntSql);
-      
-      int cnt = findCount(cntSql, params);
-      sql = paginateTemplate.formatPaginateSql(sql, orderByColumns, page, rowsPerPage);
-      logger.debug("Paginate Sql: {}", sql);
-      
-      List<E> list = this.find(sql, clazz, params);
-      pc = new BasePageContainer<E>();
-      pc.setRows(list);
-      setupPageContainer(pc, cnt, rowsPerPage);
+      cntSql = parsedSql.getCountSql(paginateTemplate);
+      pageSql = paginateTemplate.formatPaginateSql(parsedSql.getBaseSql(), getOrderByColumns(parsedSql), page, rowsPerPage);
+      pageInSql = 1;
     }
     else {
-      pc = super.findWithPagination(sql, page, rowsPerPage, clazz, params);
+      cntSql = "SELECT COUNT(*) FROM (" + parsedSql.getBaseSql() + ") count_";
+      pageSql = parsedSql.getTopSql(topTemplate, page * rowsPerPage);
+      pageInSql = page;
     }
+    logger.debug("Count Sql: {}", cntSql);
+    logger.debug("Paginate Sql: {}", pageSql);
+
+    // the page query converts params in place, the count and the cache key work on a copy
+    Object[] countParams = params == null ? null : params.clone();
+    Integer cnt = countCache != null ? countCache.get(cntSql, countParams) : null;
+    List<E> list;
+    if (cnt != null) {
+      list = findPageRows(pageSql, pageInSql, rowsPerPage, rowMapper, params);
+    }
+    else {
+      Future<Integer> countFuture = submitCount(cntSql, countParams);
+      if (countFuture == null) {
+        cnt = findCount(cntSql, countParams == null ? null : countParams.clone());
+        list = findPageRows(pageSql, pageInSql, rowsPerPage, rowMapper, params);
+      }
+      else {
+        try {
+          list = findPageRows(pageSql, pageInSql, rowsPerPage, rowMapper, params);
+        }
+        catch (RuntimeException e) {
+          countFuture.cancel(true);
+          throw e;
+        }
+        cnt = awaitCount(countFuture);
+      }
+      if (countCache != null) {
+        countCache.put(cntSql, countParams, cnt);
+      }
+    }
+
+    PageContainer<E> pc = new BasePageContainer<E>();
+    pc.setRows(list);
+    setupPageContainer(pc, cnt, rowsPerPage);
     return pc;
   }
 
+  /**
+   * Submit the count to countExecutor, null if it must run on the calling thread.
+   */
+  private Future<Integer> submitCount(final String cntSql, Object[] countParams) {
+
+    if (countExecutor == null || TransactionSynchronizationManager.isActualTransactionActive()) {
+      return null;
+    }
+    final Object[] params = countParams == null ? null : countParams.clone();
+    try {
+      return countExecutor.submit(new Callable<Integer>() {
+
+        @Override
+        public Integer call() {
+          return findCount(cntSql, params);
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      logger.debug("Count rejected by countExecutor, counting on the calling thread");
+      return null;
+    }
+  }
+
+  private int awaitCount(Future<Integer> countFuture) {
+
+    try {
+      return countFuture.get();
+    }
+    catch (InterruptedException e) {
+      countFuture.cancel(true);
+      Thread.currentThread().interrupt();
+      throw translateException(e);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw translateException(e);
+    }
+  }
+
   @Override
-  public PageContainer<Map<String, Object>> findWithPaginationMap(String sql, int page, int rowsPerPage, Object... params) {
+  public <E> SlicePageContainer<E> findSlice(String sql, int page, int rowsPerPage, Class<E> clazz, Object... params) {
 
+    if (paginateTemplate == null) {
+      return super.findSlice(sql, page, rowsPerPage, clazz, params);
+    }
     if (page <= 0) {
       page = 1;
     }
-    PageContainer<Map<String, Object>> pc;
-
-    if (paginateTemplate != null) {
+    ParsedSql parsedSql = sqlRewriteCache.get(sql);
+    String orderByColumns = getOrderByColumns(parsedSql);
+    sql = parsedSql.getBaseSql();
+    String pageSql = paginateTemplate.formatPaginateSql(sql, orderByColumns, page, rowsPerPage);
+    logger.debug("Paginate Sql: {}", pageSql);
+
+    SlicePageContainer<E> pc = new SlicePageContainer<E>();
+    List<E> list = this.find(pageSql, clazz, params);
+    pc.setRows(list);
+    pc.setHasNext(list.size() >= rowsPerPage && hasRowAfter(sql, orderByColumns, page, rowsPerPage, params));
+    return pc;
+  }
 
-      String orderByColumns = getOrderByColumns(sql);
-      sql = trimOrderBy(sql);
-      String cntSql = paginateTemplate.formatCountSql(sql);
-      logger.debug("Count Sql: {}", cntSql);
+  @Override
+  public SlicePageContainer<Map<String, Object>> findSliceWithMap(String sql, int page, int rowsPerPage, Object... params) {
 
-      int cnt = findCount(cntSql, params);
-      sql = paginateTemplate.formatPaginateSql(sql, orderByColumns, page, rowsPerPage);
-      logger.debug("Paginate Sql: {}", sql);
-      
-      List<Map<String, Object>> list = this.findWithMap(sql, params);
-      pc = new BasePageContainer<Map<String, Object>>();
-      pc.setRows(list);
-      setupPageContainer(pc, cnt, rowsPerPage);
+    if (paginateTemplate == null) {
+      return super.findSliceWithMap(sql, page, rowsPerPage, params);
     }
-    else {
-      pc = super.findWithPaginationMap(sql, page, rowsPerPage, params);
+    if (page <= 0) {
+      page = 1;
     }
+    ParsedSql parsedSql = sqlRewriteCache.get(sql);
+    String orderByColumns = getOrderByColumns(parsedSql);
+    sql = parsedSql.getBaseSql();
+    String pageSql = paginateTemplate.formatPaginateSql(sql, orderByColumns, page, rowsPerPage);
+    logger.debug("Paginate Sql: {}", pageSql);
+
+    SlicePageContainer<Map<String, Object>> pc = new SlicePageContainer<Map<String, Object>>();
+    List<Map<String, Object>> list = this.findWithMap(pageSql, params);
+    pc.setRows(list);
+    pc.setHasNext(list.size() >= rowsPerPage && hasRowAfter(sql, orderByColumns, page, rowsPerPage, params));
     return pc;
   }
 
+  /**
+   * Check for a row after the given page by asking for the single row page right after it.
+   */
+  private boolean hasRowAfter(String sql, String orderByColumns, int page, int rowsPerPage, Object... params) {
+
+    String nextSql = paginateTemplate.formatPaginateSql(sql, orderByColumns, page * rowsPerPage + 1, 1);
+    logger.debug("Next row Sql: {}", nextSql);
+    return !this.findWithMap(nextSql, params).isEmpty();
+  }
+
   private <E> void setupPageContainer(PageContainer<E> pc, int totalRows, int rowsPerPage) {
 
     pc.setTotalRows(totalRows);
@@ -176,55 +432,90 @@ public class SpringSqlUtilWithDbAwareImpl extends SpringSqlUtil {
     pc.setTotalPages(totalPages);
   }
 
-  private String trimOrderBy(String sql) {
+  private String getOrderByColumns(ParsedSql parsedSql) {
 
-    String[] sqlChunk = orderByPattern.split(sql);
-    if (sqlChunk.length > 1) {
+    String orderByColumnName = parsedSql.getOrderBy();
+    return orderByColumnName != null ? orderByColumnName : "1 ";
+  }
 
-      StringBuilder sqlBuilder = new StringBuilder();
-      int i = 0;
-      int l = sqlChunk.length - 1;
-      for (String s : sqlChunk) {
-        if (i < l) {
-          if (i > 0) {
-            sqlBuilder.append(" ORDER BY ");
-          }
-          sqlBuilder.append(s);
-        }
-        ++i;
-      }
-      sql = sqlBuilder.toString();
-    }
-    return sql;
+  /**
+   * <pre>
+   * Set the name pattern of the sequences insertBatch takes ids of IdKeyedTableEntity from on ORACLE and DB2,
+   * formatted with String.format and the table name, e.g. "SEQ_%s".
+   * When not set ids are read through getGeneratedKeys.
+   * </pre>
+   * 
+   * @param idSequenceNamePattern
+   */
+  public void setIdSequenceNamePattern(String idSequenceNamePattern) {
+    this.idSequenceNamePattern = idSequenceNamePattern;
   }
 
-  private String getOrderByColumns(String sql) {
+  @Override
+  protected long[] prefetchIds(String tableName, int count) {
+
+    if (idSequenceNamePattern == null) {
+      return null;
+    }
+    String sequence = String.format(Locale.ENGLISH, idSequenceNamePattern, tableName);
+    String sql;
+    if (databaseType == DatabaseType.ORACLE) {
+      sql = "SELECT " + sequence + ".NEXTVAL FROM DUAL CONNECT BY LEVEL <= ?";
+    }
+    else if (databaseType == DatabaseType.DB2) {
+      sql = "WITH N (I) AS (VALUES 1 UNION ALL SELECT I + 1 FROM N WHERE I < ?) SELECT NEXT VALUE FOR " + sequence + " FROM N";
+    }
+    else {
+      return null;
+    }
+    logger.debug("Id sequence Sql: {}", sql);
 
-    String orderByColumnName = "1 ";
-    String[] sqlChunk = orderByPattern.split(sql);
-    if (sqlChunk.length > 1) {
-      orderByColumnName = sqlChunk[sqlChunk.length - 1];
+    List<Long> list;
+    try {
+      list = getJdbcTemplate().queryForList(sql, Long.class, count);
     }
-    return orderByColumnName;
+    catch (DataAccessException e) {
+      throw translateException(e);
+    }
+    long[] ids = new long[list.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = list.get(i);
+    }
+    return ids;
   }
 
   @Override
-  public <E> List<E> findTop(String sql, int top, Class<E> clazz, Object... params) {
+  protected String formatTopSql(String sql, int top) {
 
     if (topTemplate != null) {
-      sql = topTemplate.formatTopSql(sql, top);
+      sql = sqlRewriteCache.get(sql).getTopSql(topTemplate, top);
     }
     logger.debug("top sql: {}", sql);
-    return super.findTop(sql, top, clazz, params);
+    return sql;
   }
 
   @Override
-  public List<Map<String, Object>> findTopWithMap(String sql, int top, Object... params) {
+  protected boolean isRowValueComparisonSupported() {
+    return rowValueComparison;
+  }
 
-    if (topTemplate != null) {
-      sql = topTemplate.formatTopSql(sql, top);
+  @Override
+  protected boolean isRowValueInSupported() {
+    return rowValueIn;
+  }
+
+  /**
+   * Statement parameter limits: 2100 on SQL Server, 2048 on Sybase ASE, 32767 on DB2 and 65535 on MySQL and ORACLE.
+   */
+  @Override
+  protected int getMaxParameterCount() {
+
+    if (databaseType == DatabaseType.MYSQL || databaseType == DatabaseType.ORACLE) {
+      return 65535;
     }
-    logger.debug("top sql: {}", sql);
-    return super.findTopWithMap(sql, top, params);
+    else if (databaseType == DatabaseType.DB2) {
+      return 32767;
+    }
+    return super.getMaxParameterCount();
   }
 }
@@ -0,0 +1,92 @@
+package com.lunary.spring.database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * Thread safe, bounded LRU cache of ParsedSql keyed by the original SQL.
+ * Applications send the same SQL strings over and over, so each one is parsed once.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.ParsedSql
+ */
+public class SqlRewriteCache {
+
+  public static final int DEFAULT_MAX_SIZE = 512;
+
+  private final Map<String, ParsedSql> parsed;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  public SqlRewriteCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * @param maxSize
+   *          maximum number of SQL kept
+   * @throws IllegalArgumentException
+   *           if maxSize is not positive
+   */
+  public SqlRewriteCache(final int maxSize) throws IllegalArgumentException {
+
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    this.parsed = new LinkedHashMap<String, ParsedSql>(16, 0.75f, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, ParsedSql> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * @param sql
+   * @return sql parsed, from the cache when it was seen before
+   */
+  public ParsedSql get(String sql) {
+
+    ParsedSql parsedSql;
+    synchronized (parsed) {
+      parsedSql = parsed.get(sql);
+    }
+    if (parsedSql != null) {
+      hitCount.incrementAndGet();
+      return parsedSql;
+    }
+    missCount.incrementAndGet();
+    parsedSql = ParsedSql.parse(sql);
+    synchronized (parsed) {
+      parsed.put(sql, parsedSql);
+    }
+    return parsedSql;
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  public int size() {
+
+    synchronized (parsed) {
+      return parsed.size();
+    }
+  }
+
+  public void clear() {
+
+    synchronized (parsed) {
+      parsed.clear();
+    }
+  }
+}
@@ -0,0 +1,359 @@
+package com.lunary.spring.database.async;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lunary.database.PageContainer;
+import com.lunary.database.SqlUtil;
+import com.lunary.model.TableEntity;
+
+/**
+ * <pre>
+ * Runs the SqlUtil methods of a delegate asynchronously, so independent queries can run in parallel:
+ *
+ *   Future&lt;List&lt;Order&gt;&gt; orders = asyncSqlUtil.find("SELECT * FROM ORDERS WHERE CUSTOMER_ID = ?", Order.class, id);
+ *   Future&lt;Customer&gt; customer = asyncSqlUtil.findByKey(new Customer(id));
+ *   render(customer.get(), orders.get());
+ *
+ * At most maxConcurrency tasks use the database at once, the others wait for a permit, so size it to the
+ * connections of the DataSource pool this SqlUtil may take. Any executor can run the tasks, e.g. one creating
+ * a virtual thread per task on JDKs that have them, the permits still bound the connections used.
+ *
+ * Tasks run on other threads, hence outside the transaction of the caller.
+ * Cancelling a Future with mayInterruptIfRunning interrupts the task and, when the delegate runs on a
+ * CancellableJdbcTemplate, cancels its statement with Statement.cancel.
+ * Parameters are copied when the task is submitted, entities are not and must not be changed until it completes.
+ * Futures are used instead of CompletableFuture to keep running on Java 6.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.async.CancellableJdbcTemplate
+ */
+public class AsyncSqlUtil {
+
+  private final SqlUtil sqlUtil;
+  private final ExecutorService executor;
+  private final boolean ownExecutor;
+  private final Semaphore permits;
+
+  /**
+   * Run the tasks on a fixed pool of maxConcurrency daemon threads, shut down by {@link #shutdown()}.
+   * 
+   * @param sqlUtil
+   * @param maxConcurrency
+   *          maximum number of tasks using the database at once
+   * @throws NullPointerException
+   *           if sqlUtil is null
+   * @throws IllegalArgumentException
+   *           if maxConcurrency is not positive
+   */
+  public AsyncSqlUtil(SqlUtil sqlUtil, int maxConcurrency) throws NullPointerException, IllegalArgumentException {
+    this(sqlUtil, maxConcurrency > 0 ? Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory()) : null, maxConcurrency, true);
+  }
+
+  /**
+   * @param sqlUtil
+   * @param executor
+   *          runs the tasks, it is not shut down by {@link #shutdown()}
+   * @param maxConcurrency
+   *          maximum number of tasks using the database at once
+   * @throws NullPointerException
+   *           if sqlUtil or executor is null
+   * @throws IllegalArgumentException
+   *           if maxConcurrency is not positive
+   */
+  public AsyncSqlUtil(SqlUtil sqlUtil, ExecutorService executor, int maxConcurrency) throws NullPointerException, IllegalArgumentException {
+    this(sqlUtil, executor, maxConcurrency, false);
+  }
+
+  private AsyncSqlUtil(SqlUtil sqlUtil, ExecutorService executor, int maxConcurrency, boolean ownExecutor) throws NullPointerException, IllegalArgumentException {
+
+    if (sqlUtil == null) {
+      throw new NullPointerException("sqlUtil cannot be null");
+    }
+    if (maxConcurrency <= 0) {
+      throw new IllegalArgumentException("maxConcurrency must be positive");
+    }
+    if (executor == null) {
+      throw new NullPointerException("executor cannot be null");
+    }
+    this.sqlUtil = sqlUtil;
+    this.executor = executor;
+    this.ownExecutor = ownExecutor;
+    this.permits = new Semaphore(maxConcurrency, true);
+  }
+
+  public SqlUtil getSqlUtil() {
+    return sqlUtil;
+  }
+
+  /**
+   * Run task with a database permit, e.g. to run several SqlUtil calls as one asynchronous unit.
+   * 
+   * @param task
+   * @return the future result of task
+   */
+  public <T> Future<T> submit(final Callable<T> task) {
+
+    final CancellationScope scope = new CancellationScope();
+    SqlFuture<T> future = new SqlFuture<T>(new Callable<T>() {
+
+      @Override
+      public T call() throws Exception {
+
+        permits.acquire();
+        try {
+          scope.enter();
+          try {
+            return task.call();
+          }
+          finally {
+            scope.exit();
+          }
+        }
+        finally {
+          permits.release();
+        }
+      }
+    }, scope);
+    executor.execute(future);
+    return future;
+  }
+
+  /**
+   * @return number of tasks that could start using the database now
+   */
+  public int getAvailablePermits() {
+    return permits.availablePermits();
+  }
+
+  /**
+   * @return estimated number of tasks waiting for a permit
+   */
+  public int getQueueLength() {
+    return permits.getQueueLength();
+  }
+
+  /**
+   * Shut down the executor created by {@link #AsyncSqlUtil(SqlUtil, int)}, submitted tasks still complete.
+   * A given executor is left to its owner.
+   */
+  public void shutdown() {
+
+    if (ownExecutor) {
+      executor.shutdown();
+    }
+  }
+
+  public Future<Integer> update(final String sql, Object... params) {
+
+    final Object[] args = copy(params);
+    return submit(new Callable<Integer>() {
+
+      @Override
+      public Integer call() {
+        return sqlUtil.update(sql, args);
+      }
+    });
+  }
+
+  public Future<Integer> delete(final TableEntity entity) {
+
+    return submit(new Callable<Integer>() {
+
+      @Override
+      public Integer call() {
+        return sqlUtil.delete(entity);
+      }
+    });
+  }
+
+  public Future<Integer> insert(final TableEntity entity) {
+
+    return submit(new Callable<Integer>() {
+
+      @Override
+      public Integer call() {
+        return sqlUtil.insert(entity);
+      }
+    });
+  }
+
+  public Future<Integer> update(final TableEntity entity) {
+
+    return submit(new Callable<Integer>() {
+
+      @Override
+      public Integer call() {
+        return sqlUtil.update(entity);
+      }
+    });
+  }
+
+  public Future<Integer> updateWithNull(final TableEntity entity) {
+
+    return submit(new Callable<Integer>() {
+
+      @Override
+      public Integer call() {
+        return sqlUtil.updateWithNull(entity);
+      }
+    });
+  }
+
+  public <E> Future<List<E>> find(final String sql, final Class<E> clazz, Object... params) {
+
+    final Object[] args = copy(params);
+    return submit(new Callable<List<E>>() {
+
+      @Override
+      public List<E> call() {
+        return sqlUtil.find(sql, clazz, args);
+      }
+    });
+  }
+
+  public Future<Integer> findCount(final String sql, Object... params) {
+
+    final Object[] args = copy(params);
+    return submit(new Callable<Integer>() {
+
+      @Override
+      public Integer call() {
+        return sqlUtil.findCount(sql, args);
+      }
+    });
+  }
+
+  public Future<Boolean> exists(final String fromSql, Object... params) {
+
+    final Object[] args = copy(params);
+    return submit(new Callable<Boolean>() {
+
+      @Override
+      public Boolean call() {
+        return sqlUtil.exists(fromSql, args);
+      }
+    });
+  }
+
+  public <E> Future<E> findOne(final String sql, final Class<E> clazz, Object... params) {
+
+    final Object[] args = copy(params);
+    return submit(new Callable<E>() {
+
+      @Override
+      public E call() {
+        return sqlUtil.findOne(sql, clazz, args);
+      }
+    });
+  }
+
+  public Future<Map<String, Object>> findOneWithMap(final String sql, Object... params) {
+
+    final Object[] args = copy(params);
+    return submit(new Callable<Map<String, Object>>() {
+
+      @Override
+      public Map<String, Object> call() {
+        return sqlUtil.findOneWithMap(sql, args);
+      }
+    });
+  }
+
+  public <E> Future<List<E>> findTop(final String sql, final int top, final Class<E> clazz, Object... params) {
+
+    final Object[] args = copy(params);
+    return submit(new Callable<List<E>>() {
+
+      @Override
+      public List<E> call() {
+        return sqlUtil.findTop(sql, top, clazz, args);
+      }
+    });
+  }
+
+  public Future<List<Map<String, Object>>> findTopWithMap(final String sql, final int top, Object... params) {
+
+    final Object[] args = copy(params);
+    return submit(new Callable<List<Map<String, Object>>>() {
+
+      @Override
+      public List<Map<String, Object>> call() {
+        return sqlUtil.findTopWithMap(sql, top, args);
+      }
+    });
+  }
+
+  public Future<List<Map<String, Object>>> findWithMap(final String sql, Object... params) {
+
+    final Object[] args = copy(params);
+    return submit(new Callable<List<Map<String, Object>>>() {
+
+      @Override
+      public List<Map<String, Object>> call() {
+        return sqlUtil.findWithMap(sql, args);
+      }
+    });
+  }
+
+  public <E> Future<PageContainer<E>> findWithPagination(final String sql, final int page, final int rowsPerPage, final Class<E> clazz, Object... params) {
+
+    final Object[] args = copy(params);
+    return submit(new Callable<PageContainer<E>>() {
+
+      @Override
+      public PageContainer<E> call() {
+        return sqlUtil.findWithPagination(sql, page, rowsPerPage, clazz, args);
+      }
+    });
+  }
+
+  public Future<PageContainer<Map<String, Object>>> findWithPaginationMap(final String sql, final int page, final int rowsPerPage, Object... params) {
+
+    final Object[] args = copy(params);
+    return submit(new Callable<PageContainer<Map<String, Object>>>() {
+
+      @Override
+      public PageContainer<Map<String, Object>> call() {
+        return sqlUtil.findWithPaginationMap(sql, page, rowsPerPage, args);
+      }
+    });
+  }
+
+  public <E extends TableEntity> Future<E> findByKey(final E entity) {
+
+    return submit(new Callable<E>() {
+
+      @Override
+      public E call() {
+        return sqlUtil.findByKey(entity);
+      }
+    });
+  }
+
+  private static Object[] copy(Object[] params) {
+    return params != null ? params.clone() : null;
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+
+    private static final AtomicInteger poolNumber = new AtomicInteger();
+    private final int pool = poolNumber.incrementAndGet();
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+
+      Thread thread = new Thread(r, "AsyncSqlUtil-" + pool + "-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
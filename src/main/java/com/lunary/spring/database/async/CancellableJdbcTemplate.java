@@ -0,0 +1,40 @@
+package com.lunary.spring.database.async;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * <pre>
+ * JdbcTemplate letting AsyncSqlUtil cancel the statement of a task with Statement.cancel.
+ * Build the SpringSqlUtil given to AsyncSqlUtil with it, with a plain JdbcTemplate cancelling a
+ * running task only interrupts its thread.
+ * Statements run outside AsyncSqlUtil are not affected.
+ * </pre>
+ */
+public class CancellableJdbcTemplate extends JdbcTemplate {
+
+  public CancellableJdbcTemplate() {
+  }
+
+  public CancellableJdbcTemplate(DataSource dataSource) {
+    super(dataSource);
+  }
+
+  public CancellableJdbcTemplate(DataSource dataSource, boolean lazyInit) {
+    super(dataSource, lazyInit);
+  }
+
+  @Override
+  protected void applyStatementSettings(Statement stmt) throws SQLException {
+
+    super.applyStatementSettings(stmt);
+    CancellationScope scope = CancellationScope.current();
+    if (scope != null) {
+      scope.register(stmt);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package com.lunary.spring.database.async;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <pre>
+ * The statement currently run by one AsyncSqlUtil task, so that cancelling the task cancels the statement.
+ * Statements are registered by CancellableJdbcTemplate on the thread running the task.
+ * </pre>
+ */
+class CancellationScope {
+
+  private static final Logger logger = LoggerFactory.getLogger(CancellationScope.class);
+  private static final ThreadLocal<CancellationScope> CURRENT = new ThreadLocal<CancellationScope>();
+
+  private Statement statement;
+  private boolean active;
+  private boolean cancelled;
+
+  /**
+   * @return the scope of the task running on the current thread, null if none
+   */
+  static CancellationScope current() {
+    return CURRENT.get();
+  }
+
+  void enter() {
+
+    synchronized (this) {
+      active = true;
+    }
+    CURRENT.set(this);
+  }
+
+  void exit() {
+
+    CURRENT.remove();
+    synchronized (this) {
+      active = false;
+      statement = null;
+    }
+  }
+
+  /**
+   * @param stmt
+   *          the statement about to be executed
+   * @throws SQLException
+   *           if the task was cancelled
+   */
+  synchronized void register(Statement stmt) throws SQLException {
+
+    if (cancelled) {
+      throw new SQLException("Statement cancelled");
+    }
+    statement = stmt;
+  }
+
+  void cancel() {
+
+    Statement stmt;
+    synchronized (this) {
+      cancelled = true;
+      stmt = active ? statement : null;
+    }
+    if (stmt != null) {
+      try {
+        stmt.cancel();
+      }
+      catch (SQLException e) {
+        logger.debug("Could not cancel statement", e);
+      }
+    }
+  }
+}
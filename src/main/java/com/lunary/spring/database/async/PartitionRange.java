@@ -0,0 +1,47 @@
+package com.lunary.spring.database.async;
+
+/**
+ * <pre>
+ * Range of values of a partition column: lower &lt;= column &lt; upper, or column &lt;= upper when upperInclusive.
+ * A null bound leaves that side open.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.async.PartitionedSqlUtil
+ */
+public class PartitionRange {
+
+  private final Object lower;
+  private final Object upper;
+  private final boolean upperInclusive;
+
+  /**
+   * @param lower
+   *          inclusive lower bound, null for none
+   * @param upper
+   *          upper bound, null for none
+   * @param upperInclusive
+   *          whether upper belongs to the range
+   */
+  public PartitionRange(Object lower, Object upper, boolean upperInclusive) {
+    this.lower = lower;
+    this.upper = upper;
+    this.upperInclusive = upperInclusive;
+  }
+
+  public Object getLower() {
+    return lower;
+  }
+
+  public Object getUpper() {
+    return upper;
+  }
+
+  public boolean isUpperInclusive() {
+    return upperInclusive;
+  }
+
+  @Override
+  public String toString() {
+    return "[" + lower + ", " + upper + (upperInclusive ? "]" : ")");
+  }
+}
@@ -0,0 +1,367 @@
+package com.lunary.spring.database.async;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.lunary.database.exception.DatabaseException;
+import com.lunary.spring.database.ParsedSql;
+import com.lunary.spring.database.RowConsumer;
+import com.lunary.spring.database.SpringSqlUtil;
+
+/**
+ * <pre>
+ * Reads a large query as disjoint ranges of a numeric or date partition column, each range on its own
+ * connection and thread, so an extract is not limited to one socket and one core:
+ *
+ *   List&lt;Order&gt; orders = partitionedSqlUtil.findPartitioned("SELECT * FROM ORDERS WHERE STATUS = ?", Order.class, "ORDER_ID", 8, status);
+ *
+ * Each partition runs
+ *   SELECT * FROM (sql without ORDER BY) p WHERE column &gt;= ? AND column &lt; ? [ORDER BY ...]
+ * so the partition column and the ORDER BY columns must be columns of the select list, referred to without table alias.
+ * Queries limiting or locking their rows (LIMIT, OFFSET / FETCH, TOP, ROWNUM, FOR UPDATE...) are rejected,
+ * each partition would apply the limit on its own.
+ * Rows whose partition column is null are in no range and are not read.
+ *
+ * Partitions run outside the transaction of the caller and each sees the database at its own point in time.
+ * At most maxConcurrency partitions run at once, see {@link AsyncSqlUtil}.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.async.PartitionRange
+ */
+public class PartitionedSqlUtil {
+
+  private final SpringSqlUtil sqlUtil;
+  private final AsyncSqlUtil asyncSqlUtil;
+
+  /**
+   * Run the partitions on a fixed pool of maxConcurrency daemon threads, shut down by {@link #shutdown()}.
+   * 
+   * @param sqlUtil
+   * @param maxConcurrency
+   *          maximum number of partitions read at once
+   * @throws NullPointerException
+   *           if sqlUtil is null
+   * @throws IllegalArgumentException
+   *           if maxConcurrency is not positive
+   */
+  public PartitionedSqlUtil(SpringSqlUtil sqlUtil, int maxConcurrency) throws NullPointerException, IllegalArgumentException {
+    this.sqlUtil = sqlUtil;
+    this.asyncSqlUtil = new AsyncSqlUtil(sqlUtil, maxConcurrency);
+  }
+
+  /**
+   * @param sqlUtil
+   * @param executor
+   *          runs the partitions, it is not shut down by {@link #shutdown()}
+   * @param maxConcurrency
+   *          maximum number of partitions read at once
+   * @throws NullPointerException
+   *           if sqlUtil or executor is null
+   * @throws IllegalArgumentException
+   *           if maxConcurrency is not positive
+   */
+  public PartitionedSqlUtil(SpringSqlUtil sqlUtil, ExecutorService executor, int maxConcurrency) throws NullPointerException, IllegalArgumentException {
+    this.sqlUtil = sqlUtil;
+    this.asyncSqlUtil = new AsyncSqlUtil(sqlUtil, executor, maxConcurrency);
+  }
+
+  public SpringSqlUtil getSqlUtil() {
+    return sqlUtil;
+  }
+
+  /**
+   * <pre>
+   * Split the values of partitionColumn in sql into partitionCount ranges of equal width between its minimum
+   * and maximum, found with one query. Integer columns never get more ranges than values,
+   * no range is returned when sql has no row with a partition value.
+   * </pre>
+   * 
+   * @param sql
+   * @param partitionColumn
+   *          numeric or date column of sql
+   * @param partitionCount
+   * @param params
+   * @return the ranges in ascending order
+   * @throws IllegalArgumentException
+   *           if partitionCount is not positive, the column is neither numeric nor a date or sql limits or locks its rows
+   */
+  public List<PartitionRange> split(String sql, String partitionColumn, int partitionCount, Object... params) throws IllegalArgumentException {
+
+    if (partitionCount <= 0) {
+      throw new IllegalArgumentException("partitionCount must be positive");
+    }
+    String baseSql = parse(sql).getBaseSql();
+    Map<String, Object> minMax = sqlUtil.findOneWithMap("SELECT MIN(" + partitionColumn + ") MIN_VALUE, MAX(" + partitionColumn + ") MAX_VALUE FROM (" + baseSql
+        + ") p", params == null ? null : params.clone());
+    Iterator<Object> values = minMax.values().iterator();
+    Object min = values.next();
+    Object max = values.next();
+    List<PartitionRange> ranges = new ArrayList<PartitionRange>(partitionCount);
+    if (min == null || max == null) {
+      return ranges;
+    }
+
+    if (isIntegral(min) && isIntegral(max)) {
+      long low = ((Number) min).longValue();
+      long high = ((Number) max).longValue();
+      long count = Math.min(partitionCount, high - low + 1);
+      long width = (high - low) / count + 1;
+      for (long lower = low; lower <= high; lower += width) {
+        boolean last = high - lower < width;
+        ranges.add(new PartitionRange(lower, last ? high : lower + width, last));
+        if (last) {
+          break;
+        }
+      }
+    }
+    else if (min instanceof Number && max instanceof Number) {
+      double low = ((Number) min).doubleValue();
+      double high = ((Number) max).doubleValue();
+      double width = (high - low) / partitionCount;
+      int count = width > 0 ? partitionCount : 1;
+      for (int i = 0; i < count; i++) {
+        boolean last = i == count - 1;
+        ranges.add(new PartitionRange(i == 0 ? min : low + i * width, last ? max : low + (i + 1) * width, last));
+      }
+    }
+    else if (min instanceof Date && max instanceof Date) {
+      long low = ((Date) min).getTime();
+      long high = ((Date) max).getTime();
+      long count = Math.min(partitionCount, high - low + 1);
+      long width = (high - low) / count + 1;
+      for (long lower = low; lower <= high; lower += width) {
+        boolean last = high - lower < width;
+        ranges.add(new PartitionRange(lower == low ? min : toDate(min, lower), last ? max : toDate(min, lower + width), last));
+        if (last) {
+          break;
+        }
+      }
+    }
+    else {
+      throw new IllegalArgumentException("Partition column " + partitionColumn + " must be numeric or a date, not " + min.getClass().getName());
+    }
+    return ranges;
+  }
+
+  private static boolean isIntegral(Object value) {
+    return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte || value instanceof BigInteger
+        || (value instanceof BigDecimal && ((BigDecimal) value).scale() <= 0);
+  }
+
+  private static Date toDate(Object type, long time) {
+
+    if (type instanceof java.sql.Date) {
+      return new java.sql.Date(time);
+    }
+    return new Timestamp(time);
+  }
+
+  /**
+   * Same as {@link #findPartitioned(String, Class, String, List, Object...)} with the ranges of
+   * {@link #split(String, String, int, Object...)}.
+   */
+  public <E> List<E> findPartitioned(String sql, Class<E> clazz, String partitionColumn, int partitionCount, Object... params) {
+    return findPartitioned(sql, clazz, partitionColumn, split(sql, partitionColumn, partitionCount, params), params);
+  }
+
+  /**
+   * <pre>
+   * Read every range concurrently and concatenate the rows in the order of ranges, the result is then in the order
+   * of the query when its ORDER BY starts with the partition column in ascending order.
+   * </pre>
+   * 
+   * @param sql
+   * @param clazz
+   *          class each row is mapped to
+   * @param partitionColumn
+   * @param ranges
+   *          disjoint ranges covering the rows to read
+   * @param params
+   * @return the rows of all ranges
+   * @throws IllegalArgumentException
+   *           if sql limits or locks its rows
+   */
+  public <E> List<E> findPartitioned(String sql, final Class<E> clazz, String partitionColumn, List<PartitionRange> ranges, Object... params)
+      throws IllegalArgumentException {
+
+    ParsedSql parsedSql = parse(sql);
+    List<Future<List<E>>> futures = new ArrayList<Future<List<E>>>(ranges.size());
+    for (PartitionRange range : ranges) {
+      final String partitionSql = formatPartitionSql(parsedSql, partitionColumn, range);
+      final Object[] partitionParams = partitionParams(params, range);
+      futures.add(asyncSqlUtil.submit(new Callable<List<E>>() {
+
+        @Override
+        public List<E> call() {
+          return sqlUtil.find(partitionSql, clazz, partitionParams);
+        }
+      }));
+    }
+
+    List<List<E>> partitions = awaitAll(futures);
+    int size = 0;
+    for (List<E> partition : partitions) {
+      size += partition.size();
+    }
+    List<E> result = new ArrayList<E>(size);
+    for (List<E> partition : partitions) {
+      result.addAll(partition);
+    }
+    return result;
+  }
+
+  /**
+   * Same as {@link #streamPartitioned(String, Class, String, List, RowConsumer, Object...)} with the ranges of
+   * {@link #split(String, String, int, Object...)}.
+   */
+  public <E> int streamPartitioned(String sql, Class<E> clazz, String partitionColumn, int partitionCount, RowConsumer<E> consumer, Object... params) {
+    return streamPartitioned(sql, clazz, partitionColumn, split(sql, partitionColumn, partitionCount, params), consumer, params);
+  }
+
+  /**
+   * <pre>
+   * Stream every range concurrently, without keeping the rows. Rows reach consumer in no particular order,
+   * one at a time: calls to consumer are serialized, so it need not be thread safe, but a slow consumer slows every partition.
+   * </pre>
+   * 
+   * @param sql
+   * @param clazz
+   *          class each row is mapped to
+   * @param partitionColumn
+   * @param ranges
+   *          disjoint ranges covering the rows to read
+   * @param consumer
+   *          receives the mapped rows, called on the partition threads
+   * @param params
+   * @return number of rows read
+   * @throws IllegalArgumentException
+   *           if sql limits or locks its rows
+   */
+  public <E> int streamPartitioned(String sql, final Class<E> clazz, String partitionColumn, List<PartitionRange> ranges, final RowConsumer<E> consumer,
+      Object... params) throws IllegalArgumentException {
+
+    final RowConsumer<E> serialized = new RowConsumer<E>() {
+
+      @Override
+      public synchronized void accept(E row) {
+        consumer.accept(row);
+      }
+    };
+    ParsedSql parsedSql = parse(sql);
+    List<Future<Integer>> futures = new ArrayList<Future<Integer>>(ranges.size());
+    for (PartitionRange range : ranges) {
+      final String partitionSql = formatPartitionSql(parsedSql, partitionColumn, range);
+      final Object[] partitionParams = partitionParams(params, range);
+      futures.add(asyncSqlUtil.submit(new Callable<Integer>() {
+
+        @Override
+        public Integer call() {
+          return sqlUtil.stream(partitionSql, clazz, serialized, partitionParams);
+        }
+      }));
+    }
+
+    int rows = 0;
+    for (Integer count : awaitAll(futures)) {
+      rows += count;
+    }
+    return rows;
+  }
+
+  /**
+   * Shut down the executor created by {@link #PartitionedSqlUtil(SpringSqlUtil, int)}.
+   */
+  public void shutdown() {
+    asyncSqlUtil.shutdown();
+  }
+
+  /**
+   * @throws IllegalArgumentException
+   *           if sql limits or locks its rows
+   */
+  private static ParsedSql parse(String sql) throws IllegalArgumentException {
+
+    ParsedSql parsedSql = ParsedSql.parse(sql);
+    if (parsedSql.isRowLimitedOrLocked()) {
+      throw new IllegalArgumentException("Cannot partition a query limiting or locking its rows: " + sql);
+    }
+    return parsedSql;
+  }
+
+  private static String formatPartitionSql(ParsedSql parsedSql, String partitionColumn, PartitionRange range) {
+
+    StringBuilder sb = new StringBuilder(parsedSql.getBaseSql().length() + 64);
+    sb.append("SELECT * FROM (").append(parsedSql.getBaseSql()).append(") p");
+    String and = " WHERE ";
+    if (range.getLower() != null) {
+      sb.append(and).append(partitionColumn).append(" >= ?");
+      and = " AND ";
+    }
+    if (range.getUpper() != null) {
+      sb.append(and).append(partitionColumn).append(range.isUpperInclusive() ? " <= ?" : " < ?");
+    }
+    if (parsedSql.getOrderBy() != null) {
+      sb.append(" ORDER BY ").append(parsedSql.getOrderBy());
+    }
+    return sb.toString();
+  }
+
+  private static Object[] partitionParams(Object[] params, PartitionRange range) {
+
+    int length = params == null ? 0 : params.length;
+    List<Object> list = new ArrayList<Object>(length + 2);
+    for (int i = 0; i < length; i++) {
+      list.add(params[i]);
+    }
+    if (range.getLower() != null) {
+      list.add(range.getLower());
+    }
+    if (range.getUpper() != null) {
+      list.add(range.getUpper());
+    }
+    return list.toArray();
+  }
+
+  /**
+   * Wait for every partition, cancelling the others as soon as one fails.
+   */
+  private static <T> List<T> awaitAll(List<Future<T>> futures) {
+
+    List<T> results = new ArrayList<T>(futures.size());
+    try {
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    }
+    catch (InterruptedException e) {
+      cancelAll(futures);
+      Thread.currentThread().interrupt();
+      throw new DatabaseException(e);
+    }
+    catch (ExecutionException e) {
+      cancelAll(futures);
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new DatabaseException(e);
+    }
+  }
+
+  private static void cancelAll(List<? extends Future<?>> futures) {
+
+    for (Future<?> future : futures) {
+      future.cancel(true);
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package com.lunary.spring.database.async;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Future of an AsyncSqlUtil task, cancelling it with mayInterruptIfRunning also cancels its running statement.
+ */
+class SqlFuture<T> extends FutureTask<T> {
+
+  private final CancellationScope scope;
+
+  SqlFuture(Callable<T> callable, CancellationScope scope) {
+    super(callable);
+    this.scope = scope;
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+
+    boolean cancelled = super.cancel(mayInterruptIfRunning);
+    if (cancelled && mayInterruptIfRunning) {
+      scope.cancel();
+    }
+    return cancelled;
+  }
+}
@@ -0,0 +1,32 @@
+package com.lunary.spring.database.async;
+
+import java.util.List;
+
+import com.lunary.model.TableEntity;
+import com.lunary.spring.database.BatchResult;
+
+/**
+ * <pre>
+ * Callback told about every batch written by a WriteBehindQueue, called on the thread flushing the queue.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.async.WriteBehindQueue#setListener(WriteBehindListener)
+ */
+public interface WriteBehindListener {
+
+  /**
+   * @param entities
+   *          the entities inserted or updated by the batch
+   * @param result
+   *          rows affected per chunk
+   */
+  void flushed(List<TableEntity> entities, BatchResult result);
+
+  /**
+   * @param entities
+   *          the entities of the batch, they are not retried
+   * @param error
+   *          the error of the batch, chunks written before it are not rolled back
+   */
+  void failed(List<TableEntity> entities, RuntimeException error);
+}
@@ -0,0 +1,428 @@
+package com.lunary.spring.database.async;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lunary.database.util.StatementUtil;
+import com.lunary.model.TableEntity;
+import com.lunary.spring.database.BatchResult;
+import com.lunary.spring.database.ParsedSql;
+import com.lunary.spring.database.SpringSqlUtil;
+
+/**
+ * <pre>
+ * Buffers inserts and updates and writes them with SpringSqlUtil.insertBatch, updateBatch and updateWithNullBatch
+ * from a background thread, trading a little latency for far fewer round trips:
+ *
+ *   WriteBehindQueue queue = new WriteBehindQueue(sqlUtil, 10000);
+ *   queue.setListener(listener);
+ *   ...
+ *   queue.insert(event);
+ *   ...
+ *   queue.close();
+ *
+ * The queue is written when it holds flushSize entities or when its oldest entity waited flushInterval.
+ * Each flush inserts before it updates, batches are grouped by table by SpringSqlUtil.
+ * Updates of the same key (table and key values) are coalesced into the latest one when it is the same instance
+ * or an updateWithNull, another partial update of a pending key first flushes the queue so both apply in order.
+ *
+ * insert and update block while capacity entities are waiting, so producers slow down to the pace of the database.
+ * Writes happen outside the transaction of the callers and failures are reported to the WriteBehindListener
+ * (logged without one), failed entities are not retried.
+ * Entities must not be changed once queued, unless queued again.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.async.WriteBehindListener
+ */
+public class WriteBehindQueue {
+
+  public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+
+  private final Logger logger = LoggerFactory.getLogger(WriteBehindQueue.class);
+  private final SpringSqlUtil sqlUtil;
+  private final int capacity;
+  private volatile int flushSize;
+  private volatile long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FLUSH_INTERVAL_MILLIS);
+  private volatile WriteBehindListener listener;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+  private final Condition flushNeeded = lock.newCondition();
+  private List<TableEntity> inserts = new ArrayList<TableEntity>();
+  private Map<List<Object>, PendingUpdate> updates = new LinkedHashMap<List<Object>, PendingUpdate>();
+  private int pending;
+  private long firstPendingNanos;
+  private boolean closed;
+
+  private final Object flushLock = new Object();
+  private final Thread flusher;
+
+  /**
+   * Start a queue written by its own daemon thread, flushSize defaults to the batch size of sqlUtil.
+   * 
+   * @param sqlUtil
+   * @param capacity
+   *          maximum number of entities waiting, insert and update block beyond it
+   * @throws NullPointerException
+   *           if sqlUtil is null
+   * @throws IllegalArgumentException
+   *           if capacity is not positive
+   */
+  public WriteBehindQueue(SpringSqlUtil sqlUtil, int capacity) throws NullPointerException, IllegalArgumentException {
+
+    if (sqlUtil == null) {
+      throw new NullPointerException("sqlUtil cannot be null");
+    }
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    this.sqlUtil = sqlUtil;
+    this.capacity = capacity;
+    this.flushSize = Math.min(capacity, sqlUtil.getBatchSize());
+    this.flusher = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        flushLoop();
+      }
+    }, "WriteBehindQueue-flusher");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getFlushSize() {
+    return flushSize;
+  }
+
+  /**
+   * @param flushSize
+   *          number of waiting entities triggering a flush
+   * @throws IllegalArgumentException
+   *           if flushSize is not positive
+   */
+  public void setFlushSize(int flushSize) throws IllegalArgumentException {
+
+    if (flushSize <= 0) {
+      throw new IllegalArgumentException("flushSize must be positive");
+    }
+    this.flushSize = flushSize;
+  }
+
+  /**
+   * @param interval
+   *          longest time an entity waits before a flush, default is {@value #DEFAULT_FLUSH_INTERVAL_MILLIS} ms
+   * @param unit
+   */
+  public void setFlushInterval(long interval, TimeUnit unit) {
+    this.flushIntervalNanos = unit.toNanos(interval);
+  }
+
+  public void setListener(WriteBehindListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * @return number of entities waiting to be written
+   */
+  public int getPendingCount() {
+
+    lock.lock();
+    try {
+      return pending;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Queue the insert of entity, waiting while the queue is full.
+   * 
+   * @param entity
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   * @throws IllegalStateException
+   *           if the queue is closed
+   */
+  public void insert(TableEntity entity) throws InterruptedException, IllegalStateException {
+
+    lock.lockInterruptibly();
+    try {
+      awaitNotFull();
+      inserts.add(entity);
+      added();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Queue the update of entity, null properties are not updated (see {@link SpringSqlUtil#update(TableEntity)}).
+   * 
+   * @param entity
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   * @throws IllegalStateException
+   *           if the queue is closed
+   */
+  public void update(TableEntity entity) throws InterruptedException, IllegalStateException {
+    update(entity, false);
+  }
+
+  /**
+   * Queue the update of entity, null properties are updated to NULL (see {@link SpringSqlUtil#updateWithNull(TableEntity)}).
+   * 
+   * @param entity
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   * @throws IllegalStateException
+   *           if the queue is closed
+   */
+  public void updateWithNull(TableEntity entity) throws InterruptedException, IllegalStateException {
+    update(entity, true);
+  }
+
+  private void update(TableEntity entity, boolean withNull) throws InterruptedException {
+
+    List<Object> key = new ArrayList<Object>();
+    String keyStatement = StatementUtil.assembleKeyStatement(entity, key);
+    key.add(ParsedSql.normalizeTableName(entity.getTableName()));
+    key.add(keyStatement);
+    while (true) {
+      lock.lockInterruptibly();
+      try {
+        if (closed) {
+          throw new IllegalStateException("WriteBehindQueue is closed");
+        }
+        PendingUpdate previous = updates.get(key);
+        if (previous == null) {
+          awaitNotFull();
+          if (updates.get(key) != null) {
+            // queued by another thread while waiting for room
+            continue;
+          }
+          updates.put(key, new PendingUpdate(entity, withNull));
+          added();
+          return;
+        }
+        else if (withNull || previous.entity == entity) {
+          updates.put(key, new PendingUpdate(entity, withNull || previous.withNull));
+          return;
+        }
+      }
+      finally {
+        lock.unlock();
+      }
+      flush();
+    }
+  }
+
+  /**
+   * Called holding lock.
+   */
+  private void awaitNotFull() throws InterruptedException {
+
+    while (!closed && pending >= capacity) {
+      notFull.await();
+    }
+    if (closed) {
+      throw new IllegalStateException("WriteBehindQueue is closed");
+    }
+  }
+
+  /**
+   * Called holding lock.
+   */
+  private void added() {
+
+    if (pending++ == 0) {
+      // the flusher starts timing flushInterval
+      firstPendingNanos = System.nanoTime();
+      flushNeeded.signal();
+    }
+    else if (pending >= flushSize) {
+      flushNeeded.signal();
+    }
+  }
+
+  /**
+   * Write every entity queued so far on the calling thread, failures go to the listener.
+   */
+  public void flush() {
+
+    synchronized (flushLock) {
+      List<TableEntity> insertBatch;
+      List<PendingUpdate> pendingUpdates;
+      lock.lock();
+      try {
+        if (pending == 0) {
+          return;
+        }
+        insertBatch = inserts;
+        pendingUpdates = new ArrayList<PendingUpdate>(updates.values());
+        inserts = new ArrayList<TableEntity>();
+        updates = new LinkedHashMap<List<Object>, PendingUpdate>();
+        pending = 0;
+        notFull.signalAll();
+      }
+      finally {
+        lock.unlock();
+      }
+
+      List<TableEntity> updateBatch = new ArrayList<TableEntity>(pendingUpdates.size());
+      List<TableEntity> updateWithNullBatch = new ArrayList<TableEntity>();
+      for (PendingUpdate update : pendingUpdates) {
+        (update.withNull ? updateWithNullBatch : updateBatch).add(update.entity);
+      }
+      write(insertBatch, BatchKind.INSERT);
+      write(updateBatch, BatchKind.UPDATE);
+      write(updateWithNullBatch, BatchKind.UPDATE_WITH_NULL);
+    }
+  }
+
+  private void write(List<TableEntity> entities, BatchKind kind) {
+
+    if (entities.isEmpty()) {
+      return;
+    }
+    BatchResult result;
+    try {
+      switch (kind) {
+      case INSERT:
+        result = sqlUtil.insertBatch(entities);
+        break;
+      case UPDATE:
+        result = sqlUtil.updateBatch(entities);
+        break;
+      default:
+        result = sqlUtil.updateWithNullBatch(entities);
+        break;
+      }
+    }
+    catch (RuntimeException e) {
+      WriteBehindListener listener = this.listener;
+      if (listener == null) {
+        logger.error("Write behind " + kind + " of " + entities.size() + " entities failed", e);
+        return;
+      }
+      try {
+        listener.failed(entities, e);
+      }
+      catch (RuntimeException le) {
+        logger.warn("WriteBehindListener failed", le);
+      }
+      return;
+    }
+    WriteBehindListener listener = this.listener;
+    if (listener != null) {
+      try {
+        listener.flushed(entities, result);
+      }
+      catch (RuntimeException le) {
+        logger.warn("WriteBehindListener failed", le);
+      }
+    }
+  }
+
+  private void flushLoop() {
+
+    while (true) {
+      boolean closing;
+      lock.lock();
+      try {
+        while (!closed && !isFlushDue()) {
+          if (pending == 0) {
+            flushNeeded.await();
+          }
+          else {
+            flushNeeded.awaitNanos(flushIntervalNanos - (System.nanoTime() - firstPendingNanos));
+          }
+        }
+        closing = closed;
+      }
+      catch (InterruptedException e) {
+        return;
+      }
+      finally {
+        lock.unlock();
+      }
+      try {
+        flush();
+      }
+      catch (RuntimeException e) {
+        logger.error("Write behind flush failed", e);
+      }
+      if (closing) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Called holding lock.
+   */
+  private boolean isFlushDue() {
+    return pending > 0 && (pending >= flushSize || System.nanoTime() - firstPendingNanos >= flushIntervalNanos);
+  }
+
+  /**
+   * Stop accepting entities, wait for the background thread and write what is left.
+   * Producers waiting for room get an IllegalStateException.
+   * Called from a WriteBehindListener it returns at once, the background thread writes what is left
+   * once the current flush is done.
+   */
+  public void close() {
+
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      flushNeeded.signalAll();
+      notFull.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+    if (Thread.holdsLock(flushLock)) {
+      // called by a listener during a flush, possibly on the flusher: it writes what is left once the flush is done
+      return;
+    }
+    try {
+      flusher.join();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+  }
+
+  private enum BatchKind {
+    INSERT, UPDATE, UPDATE_WITH_NULL
+  }
+
+  private static class PendingUpdate {
+
+    private final TableEntity entity;
+    private final boolean withNull;
+
+    private PendingUpdate(TableEntity entity, boolean withNull) {
+      this.entity = entity;
+      this.withNull = withNull;
+    }
+  }
+}
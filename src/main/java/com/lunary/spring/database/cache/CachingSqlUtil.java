@@ -0,0 +1,517 @@
+package com.lunary.spring.database.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import com.lunary.database.PageContainer;
+import com.lunary.database.SqlUtil;
+import com.lunary.database.util.StatementUtil;
+import com.lunary.model.TableEntity;
+import com.lunary.spring.database.ParsedSql;
+import com.lunary.spring.database.SqlRewriteCache;
+
+/**
+ * <pre>
+ * SqlUtil decorator caching query results in memory, keyed by (method, SQL, parameters, result class).
+ *
+ * Only queries whose tables all have a time to live are cached, see {@link #setTableTtl(String, long, TimeUnit)}
+ * and {@link #setDefaultTtl(long, TimeUnit)}; a result lives as long as the shortest TTL of its tables.
+ * The cache is bounded and evicts the least recently used results.
+ *
+ * insert, update, updateWithNull and delete of a TableEntity invalidate the results of its table,
+ * update(sql) invalidates the tables written by the SQL. Inside a transaction the tables are invalidated
+ * again after completion, so results read before the commit are not kept. Writes bypassing this SqlUtil
+ * are only seen when the TTL expires, {@link #invalidate(String)} can be called for them.
+ * Queries run inside a transaction neither read nor fill the cache, so uncommitted data is never shared
+ * with other threads.
+ *
+ * find, findTop and findWithMap results are returned as new lists and row maps are copied,
+ * but beans are shared between callers and must be treated as read only.
+ * Paginated queries are not cached.
+ * </pre>
+ */
+public class CachingSqlUtil implements SqlUtil {
+
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  private static final Object NULL_RESULT = new Object();
+
+  private final SqlUtil sqlUtil;
+  private final Map<CacheKey, CacheEntry> results;
+  private final ConcurrentMap<String, Long> tableTtls = new ConcurrentHashMap<String, Long>();
+  private final ConcurrentMap<String, AtomicLong> tableVersions = new ConcurrentHashMap<String, AtomicLong>();
+  private final AtomicLong globalVersion = new AtomicLong();
+  private final SqlRewriteCache sqlRewriteCache = new SqlRewriteCache();
+  private volatile long defaultTtlNanos = 0;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  public CachingSqlUtil(SqlUtil sqlUtil) throws NullPointerException {
+    this(sqlUtil, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * @param sqlUtil
+   *          the SqlUtil running the queries
+   * @param maxSize
+   *          maximum number of results kept
+   * @throws NullPointerException
+   *           if sqlUtil is null
+   * @throws IllegalArgumentException
+   *           if maxSize is not positive
+   */
+  public CachingSqlUtil(SqlUtil sqlUtil, final int maxSize) throws NullPointerException, IllegalArgumentException {
+
+    if (sqlUtil == null) {
+      throw new NullPointerException("sqlUtil cannot be null");
+    }
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    this.sqlUtil = sqlUtil;
+    this.results = new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+
+        if (size() > maxSize) {
+          evictionCount.incrementAndGet();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Cache the results of the queries on tableName for ttl, 0 stops caching them.
+   *
+   * @param tableName
+   * @param ttl
+   * @param unit
+   */
+  public void setTableTtl(String tableName, long ttl, TimeUnit unit) {
+    tableTtls.put(ParsedSql.normalizeTableName(tableName), unit.toNanos(ttl));
+  }
+
+  /**
+   * Set the time to live of the results of tables without their own TTL, default is 0: they are not cached.
+   *
+   * @param ttl
+   * @param unit
+   */
+  public void setDefaultTtl(long ttl, TimeUnit unit) {
+    this.defaultTtlNanos = unit.toNanos(ttl);
+  }
+
+  /**
+   * Drop the cached results reading tableName.
+   *
+   * @param tableName
+   */
+  public void invalidate(String tableName) {
+    getTableVersion(ParsedSql.normalizeTableName(tableName)).incrementAndGet();
+  }
+
+  public void invalidateAll() {
+
+    globalVersion.incrementAndGet();
+    synchronized (results) {
+      results.clear();
+    }
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * @return number of results removed to keep the cache within its maximum size
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  public int size() {
+
+    synchronized (results) {
+      return results.size();
+    }
+  }
+
+  @Override
+  public int update(String sql, Object... params) {
+
+    try {
+      return sqlUtil.update(sql, params);
+    }
+    finally {
+      String[] tables = sqlRewriteCache.get(sql).getTableNames();
+      if (tables.length == 0) {
+        invalidateAll();
+      }
+      for (String table : tables) {
+        invalidateOnWrite(table);
+      }
+    }
+  }
+
+  @Override
+  public int delete(TableEntity entity) {
+
+    try {
+      return sqlUtil.delete(entity);
+    }
+    finally {
+      invalidateOnWrite(ParsedSql.normalizeTableName(entity.getTableName()));
+    }
+  }
+
+  @Override
+  public int insert(TableEntity entity) {
+
+    try {
+      return sqlUtil.insert(entity);
+    }
+    finally {
+      invalidateOnWrite(ParsedSql.normalizeTableName(entity.getTableName()));
+    }
+  }
+
+  @Override
+  public int update(TableEntity entity) {
+
+    try {
+      return sqlUtil.update(entity);
+    }
+    finally {
+      invalidateOnWrite(ParsedSql.normalizeTableName(entity.getTableName()));
+    }
+  }
+
+  @Override
+  public int updateWithNull(TableEntity entity) {
+
+    try {
+      return sqlUtil.updateWithNull(entity);
+    }
+    finally {
+      invalidateOnWrite(ParsedSql.normalizeTableName(entity.getTableName()));
+    }
+  }
+
+  @Override
+  public <E> List<E> find(final String sql, final Class<E> clazz, final Object... params) {
+
+    return cached(new CacheKey("find", sql, clazz, 0, params), sqlRewriteCache.get(sql).getTableNames(), new Query<List<E>>() {
+
+      @Override
+      public List<E> run() {
+        return sqlUtil.find(sql, clazz, params);
+      }
+    });
+  }
+
+  @Override
+  public int findCount(final String sql, final Object... params) {
+
+    return cached(new CacheKey("findCount", sql, null, 0, params), sqlRewriteCache.get(sql).getTableNames(), new Query<Integer>() {
+
+      @Override
+      public Integer run() {
+        return sqlUtil.findCount(sql, params);
+      }
+    });
+  }
+
+  @Override
+  public boolean exists(final String fromSql, final Object... params) {
+
+    return cached(new CacheKey("exists", fromSql, null, 0, params), sqlRewriteCache.get(fromSql).getTableNames(), new Query<Boolean>() {
+
+      @Override
+      public Boolean run() {
+        return sqlUtil.exists(fromSql, params);
+      }
+    });
+  }
+
+  @Override
+  public <E> E findOne(final String sql, final Class<E> clazz, final Object... params) {
+
+    return cached(new CacheKey("findOne", sql, clazz, 0, params), sqlRewriteCache.get(sql).getTableNames(), new Query<E>() {
+
+      @Override
+      public E run() {
+        return sqlUtil.findOne(sql, clazz, params);
+      }
+    });
+  }
+
+  @Override
+  public Map<String, Object> findOneWithMap(final String sql, final Object... params) {
+
+    return cached(new CacheKey("findOneWithMap", sql, null, 0, params), sqlRewriteCache.get(sql).getTableNames(), new Query<Map<String, Object>>() {
+
+      @Override
+      public Map<String, Object> run() {
+        return sqlUtil.findOneWithMap(sql, params);
+      }
+    });
+  }
+
+  @Override
+  public <E> List<E> findTop(final String sql, final int top, final Class<E> clazz, final Object... params) {
+
+    return cached(new CacheKey("findTop", sql, clazz, top, params), sqlRewriteCache.get(sql).getTableNames(), new Query<List<E>>() {
+
+      @Override
+      public List<E> run() {
+        return sqlUtil.findTop(sql, top, clazz, params);
+      }
+    });
+  }
+
+  @Override
+  public List<Map<String, Object>> findTopWithMap(final String sql, final int top, final Object... params) {
+
+    return cached(new CacheKey("findTopWithMap", sql, null, top, params), sqlRewriteCache.get(sql).getTableNames(), new Query<List<Map<String, Object>>>() {
+
+      @Override
+      public List<Map<String, Object>> run() {
+        return sqlUtil.findTopWithMap(sql, top, params);
+      }
+    });
+  }
+
+  @Override
+  public List<Map<String, Object>> findWithMap(final String sql, final Object... params) {
+
+    return cached(new CacheKey("findWithMap", sql, null, 0, params), sqlRewriteCache.get(sql).getTableNames(), new Query<List<Map<String, Object>>>() {
+
+      @Override
+      public List<Map<String, Object>> run() {
+        return sqlUtil.findWithMap(sql, params);
+      }
+    });
+  }
+
+  @Override
+  public <E> PageContainer<E> findWithPagination(String sql, int page, int rowsPerPage, Class<E> clazz, Object... params) {
+    return sqlUtil.findWithPagination(sql, page, rowsPerPage, clazz, params);
+  }
+
+  @Override
+  public PageContainer<Map<String, Object>> findWithPaginationMap(String sql, int page, int rowsPerPage, Object... params) {
+    return sqlUtil.findWithPaginationMap(sql, page, rowsPerPage, params);
+  }
+
+  @Override
+  public <E extends TableEntity> E findByKey(final E entity) {
+
+    List<Object> keyValues = new ArrayList<Object>();
+    String keyStatement = StatementUtil.assembleKeyStatement(entity, keyValues);
+    String[] tables = new String[] { ParsedSql.normalizeTableName(entity.getTableName()) };
+    return cached(new CacheKey("findByKey", tables[0] + " " + keyStatement, entity.getClass(), 0, keyValues.toArray()), tables, new Query<E>() {
+
+      @Override
+      public E run() {
+        return sqlUtil.findByKey(entity);
+      }
+    });
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T cached(CacheKey key, String[] tables, Query<T> query) {
+
+    long ttl = getTtl(tables);
+    // results read in a transaction may include its uncommitted writes
+    if (ttl <= 0 || TransactionSynchronizationManager.isActualTransactionActive()) {
+      return query.run();
+    }
+
+    CacheEntry entry;
+    synchronized (results) {
+      entry = results.get(key);
+    }
+    if (entry != null && entry.isValid(this)) {
+      hitCount.incrementAndGet();
+      return (T) copy(entry.value == NULL_RESULT ? null : entry.value);
+    }
+    missCount.incrementAndGet();
+
+    // versions are read before the query so a write running concurrently invalidates the result
+    long global = globalVersion.get();
+    long[] versions = new long[tables.length];
+    for (int i = 0; i < tables.length; i++) {
+      versions[i] = getTableVersion(tables[i]).get();
+    }
+    T value = query.run();
+    entry = new CacheEntry(value == null ? NULL_RESULT : value, tables, global, versions, System.nanoTime() + ttl);
+    synchronized (results) {
+      results.put(key, entry);
+    }
+    return (T) copy(value);
+  }
+
+  /**
+   * @return the shortest TTL of tables, 0 if one of them is not cached
+   */
+  private long getTtl(String[] tables) {
+
+    if (tables.length == 0) {
+      return 0;
+    }
+    long ttl = Long.MAX_VALUE;
+    for (String table : tables) {
+      Long tableTtl = tableTtls.get(table);
+      ttl = Math.min(ttl, tableTtl != null ? tableTtl : defaultTtlNanos);
+    }
+    return ttl;
+  }
+
+  private AtomicLong getTableVersion(String table) {
+
+    AtomicLong version = tableVersions.get(table);
+    if (version == null) {
+      version = new AtomicLong();
+      AtomicLong existing = tableVersions.putIfAbsent(table, version);
+      if (existing != null) {
+        version = existing;
+      }
+    }
+    return version;
+  }
+
+  private void invalidateOnWrite(final String table) {
+
+    getTableVersion(table).incrementAndGet();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+        @Override
+        public void afterCompletion(int status) {
+          getTableVersion(table).incrementAndGet();
+        }
+      });
+    }
+  }
+
+  /**
+   * Copy lists and row maps so callers cannot change the cached result.
+   */
+  @SuppressWarnings("unchecked")
+  private static Object copy(Object value) {
+
+    if (value instanceof List) {
+      List<Object> list = (List<Object>) value;
+      List<Object> copy = new ArrayList<Object>(list.size());
+      for (Object row : list) {
+        copy.add(copy(row));
+      }
+      return copy;
+    }
+    if (value instanceof Map) {
+      Map<String, Object> copy = new LinkedCaseInsensitiveMap<Object>();
+      copy.putAll((Map<String, Object>) value);
+      return copy;
+    }
+    return value;
+  }
+
+  private interface Query<T> {
+
+    T run();
+  }
+
+  private static class CacheEntry {
+
+    private final Object value;
+    private final String[] tables;
+    private final long globalVersion;
+    private final long[] versions;
+    private final long expiresAt;
+
+    private CacheEntry(Object value, String[] tables, long globalVersion, long[] versions, long expiresAt) {
+      this.value = value;
+      this.tables = tables;
+      this.globalVersion = globalVersion;
+      this.versions = versions;
+      this.expiresAt = expiresAt;
+    }
+
+    private boolean isValid(CachingSqlUtil cache) {
+
+      if (expiresAt - System.nanoTime() <= 0 || cache.globalVersion.get() != globalVersion) {
+        return false;
+      }
+      for (int i = 0; i < tables.length; i++) {
+        if (cache.getTableVersion(tables[i]).get() != versions[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static class CacheKey {
+
+    private final String method;
+    private final String sql;
+    private final Class<?> resultClass;
+    private final int top;
+    private final Object[] params;
+    private final int hash;
+
+    private CacheKey(String method, String sql, Class<?> resultClass, int top, Object[] params) {
+
+      this.method = method;
+      this.sql = sql;
+      this.resultClass = resultClass;
+      this.top = top;
+      this.params = params == null ? new Object[0] : params.clone();
+      int h = method.hashCode();
+      h = 31 * h + sql.hashCode();
+      h = 31 * h + (resultClass == null ? 0 : resultClass.hashCode());
+      h = 31 * h + top;
+      this.hash = 31 * h + Arrays.deepHashCode(this.params);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey other = (CacheKey) obj;
+      return hash == other.hash && top == other.top && resultClass == other.resultClass && method.equals(other.method) && sql.equals(other.sql)
+          && Arrays.deepEquals(params, other.params);
+    }
+  }
+}
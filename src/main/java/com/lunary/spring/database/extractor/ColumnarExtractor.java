@@ -0,0 +1,184 @@
+package com.lunary.spring.database.extractor;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import com.lunary.spring.database.extractor.ColumnarResult.ColumnType;
+
+/**
+ * <pre>
+ * ResultSetExtractor reading every column into a growable primitive array chosen from the column SQL type,
+ * character columns into dictionary codes, and returning them as a ColumnarResult.
+ * Numbers are not boxed and no object is created per row, values repeated in a character column share one String.
+ *
+ * DECIMAL and NUMERIC columns with a scale are read as double, with the precision loss of double.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.extractor.ColumnarResult
+ */
+public class ColumnarExtractor implements ResultSetExtractor<ColumnarResult> {
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  @Override
+  public ColumnarResult extractData(ResultSet rs) throws SQLException {
+
+    ResultSetMetaData metaData = rs.getMetaData();
+    int columnCount = metaData.getColumnCount();
+    String[] names = new String[columnCount];
+    ColumnType[] types = new ColumnType[columnCount];
+    Object[] data = new Object[columnCount];
+    BitSet[] nulls = new BitSet[columnCount];
+    @SuppressWarnings("unchecked")
+    Map<String, Integer>[] codes = new Map[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      names[i] = JdbcUtils.lookupColumnName(metaData, i + 1);
+      types[i] = columnType(metaData, i + 1);
+      data[i] = newArray(types[i], INITIAL_CAPACITY);
+      nulls[i] = new BitSet();
+      if (types[i] == ColumnType.STRING) {
+        codes[i] = new HashMap<String, Integer>();
+      }
+    }
+
+    int capacity = INITIAL_CAPACITY;
+    int row = 0;
+    while (rs.next()) {
+      if (row == capacity) {
+        capacity = capacity + (capacity >> 1);
+        for (int i = 0; i < columnCount; i++) {
+          data[i] = copyOf(types[i], data[i], capacity);
+        }
+      }
+      for (int i = 0; i < columnCount; i++) {
+        int index = i + 1;
+        switch (types[i]) {
+        case INT:
+          ((int[]) data[i])[row] = rs.getInt(index);
+          break;
+        case LONG:
+          ((long[]) data[i])[row] = rs.getLong(index);
+          break;
+        case DOUBLE:
+          ((double[]) data[i])[row] = rs.getDouble(index);
+          break;
+        case TIMESTAMP:
+          Timestamp timestamp = rs.getTimestamp(index);
+          ((long[]) data[i])[row] = timestamp != null ? timestamp.getTime() : 0;
+          break;
+        case STRING:
+          ((int[]) data[i])[row] = code(codes[i], rs.getString(index));
+          break;
+        default:
+          ((Object[]) data[i])[row] = JdbcUtils.getResultSetValue(rs, index);
+          break;
+        }
+        if (rs.wasNull()) {
+          nulls[i].set(row);
+        }
+      }
+      ++row;
+    }
+
+    String[][] dictionaries = new String[columnCount][];
+    for (int i = 0; i < columnCount; i++) {
+      if (capacity != row) {
+        data[i] = copyOf(types[i], data[i], row);
+      }
+      if (codes[i] != null) {
+        dictionaries[i] = new String[codes[i].size()];
+        for (Map.Entry<String, Integer> entry : codes[i].entrySet()) {
+          dictionaries[i][entry.getValue()] = entry.getKey();
+        }
+      }
+    }
+    return new ColumnarResult(names, types, data, dictionaries, nulls, row);
+  }
+
+  private static int code(Map<String, Integer> codes, String value) {
+
+    if (value == null) {
+      return -1;
+    }
+    Integer code = codes.get(value);
+    if (code == null) {
+      code = codes.size();
+      codes.put(value, code);
+    }
+    return code;
+  }
+
+  private static ColumnType columnType(ResultSetMetaData metaData, int index) throws SQLException {
+
+    switch (metaData.getColumnType(index)) {
+    case Types.INTEGER:
+    case Types.SMALLINT:
+    case Types.TINYINT:
+      return ColumnType.INT;
+    case Types.BIGINT:
+      return ColumnType.LONG;
+    case Types.DOUBLE:
+    case Types.FLOAT:
+    case Types.REAL:
+      return ColumnType.DOUBLE;
+    case Types.DECIMAL:
+    case Types.NUMERIC:
+      int precision = metaData.getPrecision(index);
+      return metaData.getScale(index) == 0 && precision > 0 && precision <= 18 ? ColumnType.LONG : ColumnType.DOUBLE;
+    case Types.DATE:
+    case Types.TIMESTAMP:
+      return ColumnType.TIMESTAMP;
+    case Types.CHAR:
+    case Types.VARCHAR:
+    case Types.LONGVARCHAR:
+    case Types.NCHAR:
+    case Types.NVARCHAR:
+    case Types.LONGNVARCHAR:
+      return ColumnType.STRING;
+    default:
+      return ColumnType.OBJECT;
+    }
+  }
+
+  private static Object newArray(ColumnType type, int length) {
+
+    switch (type) {
+    case INT:
+    case STRING:
+      return new int[length];
+    case LONG:
+    case TIMESTAMP:
+      return new long[length];
+    case DOUBLE:
+      return new double[length];
+    default:
+      return new Object[length];
+    }
+  }
+
+  private static Object copyOf(ColumnType type, Object array, int length) {
+
+    switch (type) {
+    case INT:
+    case STRING:
+      return Arrays.copyOf((int[]) array, length);
+    case LONG:
+    case TIMESTAMP:
+      return Arrays.copyOf((long[]) array, length);
+    case DOUBLE:
+      return Arrays.copyOf((double[]) array, length);
+    default:
+      return Arrays.copyOf((Object[]) array, length);
+    }
+  }
+}
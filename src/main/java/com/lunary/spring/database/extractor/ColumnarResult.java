@@ -0,0 +1,280 @@
+package com.lunary.spring.database.extractor;
+
+import java.sql.Timestamp;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <pre>
+ * Rows of a query stored by column in primitive arrays, without an object per row or per value:
+ *
+ *   ColumnarResult result = sqlUtil.findColumnar("SELECT ID, AMOUNT, CREATED FROM PAYMENT WHERE ...");
+ *   long[] ids = result.getLongs("ID");
+ *   double[] amounts = result.getDoubles("AMOUNT");
+ *   for (int row = 0; row &lt; result.getRowCount(); row++) {
+ *     total += amounts[row];
+ *   }
+ *
+ * Rows and columns are indexed from 0. Columns are found by name ignoring case.
+ * Null values read as 0 from primitive columns, see {@link #isNull(int, int)}.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.extractor.ColumnarExtractor
+ */
+public class ColumnarResult {
+
+  public enum ColumnType {
+    /** int[], from INTEGER, SMALLINT and TINYINT columns */
+    INT,
+    /** long[], from BIGINT and integer DECIMAL columns */
+    LONG,
+    /** double[], from DOUBLE, FLOAT, REAL and DECIMAL columns with a scale */
+    DOUBLE,
+    /** long[] of epoch milliseconds, from DATE and TIMESTAMP columns */
+    TIMESTAMP,
+    /** int[] of codes into a dictionary of the distinct values, from character columns */
+    STRING,
+    /** Object[] of the JDBC values, from any other column */
+    OBJECT
+  }
+
+  private final String[] names;
+  private final ColumnType[] types;
+  private final Object[] data;
+  private final String[][] dictionaries;
+  private final BitSet[] nulls;
+  private final int rowCount;
+  private final Map<String, Integer> index;
+
+  ColumnarResult(String[] names, ColumnType[] types, Object[] data, String[][] dictionaries, BitSet[] nulls, int rowCount) {
+
+    this.names = names;
+    this.types = types;
+    this.data = data;
+    this.dictionaries = dictionaries;
+    this.nulls = nulls;
+    this.rowCount = rowCount;
+    this.index = new HashMap<String, Integer>(names.length * 2);
+    for (int i = names.length - 1; i >= 0; i--) {
+      index.put(names[i].toUpperCase(Locale.ENGLISH), i);
+    }
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public int getColumnCount() {
+    return names.length;
+  }
+
+  public String getColumnName(int column) {
+    return names[column];
+  }
+
+  public ColumnType getColumnType(int column) {
+    return types[column];
+  }
+
+  /**
+   * @param name
+   * @return index of the first column named name ignoring case
+   * @throws IllegalArgumentException
+   *           if there is no such column
+   */
+  public int getColumnIndex(String name) throws IllegalArgumentException {
+
+    Integer column = index.get(name.toUpperCase(Locale.ENGLISH));
+    if (column == null) {
+      throw new IllegalArgumentException("No column " + name);
+    }
+    return column;
+  }
+
+  public boolean isNull(int row, int column) {
+
+    checkRow(row);
+    return nulls[column].get(row);
+  }
+
+  public boolean isNull(int row, String column) {
+    return isNull(row, getColumnIndex(column));
+  }
+
+  /**
+   * @return the values of an INT column, the array must not be changed
+   */
+  public int[] getInts(int column) {
+    return (int[]) data(column, ColumnType.INT);
+  }
+
+  public int[] getInts(String column) {
+    return getInts(getColumnIndex(column));
+  }
+
+  /**
+   * @return the values of a LONG or TIMESTAMP column, the array must not be changed
+   */
+  public long[] getLongs(int column) {
+
+    if (types[column] == ColumnType.TIMESTAMP) {
+      return (long[]) data[column];
+    }
+    return (long[]) data(column, ColumnType.LONG);
+  }
+
+  public long[] getLongs(String column) {
+    return getLongs(getColumnIndex(column));
+  }
+
+  /**
+   * @return the values of a DOUBLE column, the array must not be changed
+   */
+  public double[] getDoubles(int column) {
+    return (double[]) data(column, ColumnType.DOUBLE);
+  }
+
+  public double[] getDoubles(String column) {
+    return getDoubles(getColumnIndex(column));
+  }
+
+  /**
+   * @return the dictionary codes of a STRING column, -1 for null, the array must not be changed
+   * @see #getDictionary(int)
+   */
+  public int[] getCodes(int column) {
+    return (int[]) data(column, ColumnType.STRING);
+  }
+
+  /**
+   * @return the distinct values of a STRING column indexed by code, the array must not be changed
+   */
+  public String[] getDictionary(int column) {
+
+    data(column, ColumnType.STRING);
+    return dictionaries[column];
+  }
+
+  public int getInt(int row, int column) {
+
+    checkRow(row);
+    switch (types[column]) {
+    case INT:
+      return ((int[]) data[column])[row];
+    case LONG:
+    case TIMESTAMP:
+      return (int) ((long[]) data[column])[row];
+    case DOUBLE:
+      return (int) ((double[]) data[column])[row];
+    default:
+      throw wrongType(column, "int");
+    }
+  }
+
+  public int getInt(int row, String column) {
+    return getInt(row, getColumnIndex(column));
+  }
+
+  public long getLong(int row, int column) {
+
+    checkRow(row);
+    switch (types[column]) {
+    case INT:
+      return ((int[]) data[column])[row];
+    case LONG:
+    case TIMESTAMP:
+      return ((long[]) data[column])[row];
+    case DOUBLE:
+      return (long) ((double[]) data[column])[row];
+    default:
+      throw wrongType(column, "long");
+    }
+  }
+
+  public long getLong(int row, String column) {
+    return getLong(row, getColumnIndex(column));
+  }
+
+  public double getDouble(int row, int column) {
+
+    checkRow(row);
+    switch (types[column]) {
+    case INT:
+      return ((int[]) data[column])[row];
+    case LONG:
+    case TIMESTAMP:
+      return ((long[]) data[column])[row];
+    case DOUBLE:
+      return ((double[]) data[column])[row];
+    default:
+      throw wrongType(column, "double");
+    }
+  }
+
+  public double getDouble(int row, String column) {
+    return getDouble(row, getColumnIndex(column));
+  }
+
+  /**
+   * @return the value as a String, null for null
+   */
+  public String getString(int row, int column) {
+
+    Object value = getObject(row, column);
+    return value != null ? value.toString() : null;
+  }
+
+  public String getString(int row, String column) {
+    return getString(row, getColumnIndex(column));
+  }
+
+  /**
+   * @return the value boxed: Integer, Long, Double, Timestamp (to the millisecond), String or the JDBC value, null for null
+   */
+  public Object getObject(int row, int column) {
+
+    checkRow(row);
+    if (nulls[column].get(row)) {
+      return null;
+    }
+    switch (types[column]) {
+    case INT:
+      return ((int[]) data[column])[row];
+    case LONG:
+      return ((long[]) data[column])[row];
+    case DOUBLE:
+      return ((double[]) data[column])[row];
+    case TIMESTAMP:
+      return new Timestamp(((long[]) data[column])[row]);
+    case STRING:
+      return dictionaries[column][((int[]) data[column])[row]];
+    default:
+      return ((Object[]) data[column])[row];
+    }
+  }
+
+  public Object getObject(int row, String column) {
+    return getObject(row, getColumnIndex(column));
+  }
+
+  private Object data(int column, ColumnType type) {
+
+    if (types[column] != type) {
+      throw wrongType(column, type.name());
+    }
+    return data[column];
+  }
+
+  private void checkRow(int row) {
+
+    if (row < 0 || row >= rowCount) {
+      throw new IndexOutOfBoundsException("Row " + row + " not in [0, " + rowCount + ")");
+    }
+  }
+
+  private IllegalStateException wrongType(int column, String type) {
+    return new IllegalStateException("Column " + names[column] + " is " + types[column] + ", not " + type);
+  }
+}
@@ -0,0 +1,20 @@
+package com.lunary.spring.database.extractor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+/**
+ * <pre>
+ * Tells whether a ResultSet has at least one row, without reading any column.
+ * </pre>
+ */
+public class ExistsExtractor implements ResultSetExtractor<Boolean> {
+
+  @Override
+  public Boolean extractData(ResultSet rs) throws SQLException, DataAccessException {
+    return rs.next();
+  }
+}
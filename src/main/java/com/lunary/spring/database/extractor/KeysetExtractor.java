@@ -0,0 +1,66 @@
+package com.lunary.spring.database.extractor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import com.lunary.spring.database.KeysetPageContainer;
+import com.lunary.spring.database.KeysetToken;
+
+/**
+ * Extracts one keyset page, the continuation token is built from the key columns of the last row
+ * when the ResultSet has a row after the page.
+ */
+public class KeysetExtractor<T> implements ResultSetExtractor<KeysetPageContainer<T>> {
+
+  private final RowMapper<T> rowMapper;
+  private final String[] keyColumns;
+  private final int rowsPerPage;
+
+  /**
+   * @param rowMapper the RowMapper which creates an object for each row
+   * @param keyColumns labels of the key columns in the ResultSet
+   * @param rowsPerPage the number of rows in a page
+   */
+  public KeysetExtractor(RowMapper<T> rowMapper, String[] keyColumns, int rowsPerPage) {
+    this.rowMapper = rowMapper;
+    this.keyColumns = keyColumns;
+    this.rowsPerPage = rowsPerPage;
+  }
+
+  @Override
+  public KeysetPageContainer<T> extractData(ResultSet rs) throws SQLException, DataAccessException {
+
+    List<T> rows = new ArrayList<T>(rowsPerPage);
+    int[] keyIndexes = null;
+    Object[] lastKeys = new Object[keyColumns.length];
+    boolean more = true;
+    while (rows.size() < rowsPerPage && (more = rs.next())) {
+      if (keyIndexes == null) {
+        keyIndexes = new int[keyColumns.length];
+        for (int i = 0; i < keyColumns.length; i++) {
+          keyIndexes[i] = rs.findColumn(keyColumns[i]);
+        }
+      }
+      rows.add(rowMapper.mapRow(rs, rows.size()));
+      for (int i = 0; i < keyIndexes.length; i++) {
+        lastKeys[i] = JdbcUtils.getResultSetValue(rs, keyIndexes[i]);
+      }
+    }
+
+    KeysetPageContainer<T> container = new KeysetPageContainer<T>();
+    container.setRows(rows);
+    boolean hasNext = more && rs.next();
+    container.setHasNext(hasNext);
+    if (hasNext) {
+      container.setContinuationToken(KeysetToken.encode(lastKeys));
+    }
+    return container;
+  }
+}
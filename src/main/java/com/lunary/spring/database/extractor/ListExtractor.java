@@ -40,7 +40,7 @@ public class ListExtractor<T> implements ResultSetExtractor<List<T>> {
   public List<T> extractData(ResultSet rs) throws SQLException {
     List<T> results = (this.topRows > 0 ? new ArrayList<T>(this.topRows) : new ArrayList<T>());
     int rowNum = 0;
-    while (rs.next() && (topRows <= 0 || topRows > rowNum)) {
+    while ((topRows <= 0 || rowNum < topRows) && rs.next()) {
       results.add(this.rowMapper.mapRow(rs, rowNum++));
     }
     return results;
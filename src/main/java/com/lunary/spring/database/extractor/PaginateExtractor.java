@@ -1,4 +1,3 @@
-
 package com.lunary.spring.database.extractor;
 
 import java.sql.ResultSet;
@@ -12,33 +11,82 @@ import org.springframework.jdbc.core.RowMapper;
 
 import com.lunary.database.BasePageContainer;
 import com.lunary.database.PageContainer;
+import com.lunary.spring.database.SlicePageContainer;
 
+/**
+ * <pre>
+ * Extracts one page from a ResultSet holding the whole query.
+ * Scrollable ResultSets are positioned with absolute() and counted with last(),
+ * forward only ResultSets skip the rows before the page without mapping them.
+ * When countTotal is false the rows after the page are not read, only whether there is a next row,
+ * and a SlicePageContainer is returned.
+ * </pre>
+ */
 public class PaginateExtractor<T> implements ResultSetExtractor<PageContainer<T>> {
 
   private final RowMapper<T> rowMapper;
   private final int rowsPerPage;
   private final int startingRow;
   private final int endingRow;
+  private final boolean countTotal;
   
   public PaginateExtractor(RowMapper<T> rowMapper, int page, int rowsPerPage) {
+    this(rowMapper, page, rowsPerPage, true);
+  }
+
+  /**
+   * @param rowMapper the RowMapper which creates an object for each row
+   * @param page the page to extract, starting from 1
+   * @param rowsPerPage the number of rows in a page
+   * @param countTotal false to skip counting the total rows and return a SlicePageContainer
+   */
+  public PaginateExtractor(RowMapper<T> rowMapper, int page, int rowsPerPage, boolean countTotal) {
     this.rowMapper = rowMapper;
     this.rowsPerPage = rowsPerPage;
     this.startingRow = ((page - 1) * rowsPerPage) + 1;
-    this.endingRow = this.startingRow + rowsPerPage;
+    this.endingRow = this.startingRow + rowsPerPage - 1;
+    this.countTotal = countTotal;
   }
   
   @Override
   public PageContainer<T> extractData(ResultSet rs) throws SQLException, DataAccessException {
     
-    PageContainer<T> container = new BasePageContainer<T>();
     List<T> rows = new ArrayList<T>(rowsPerPage);
+    boolean more = true;
     int cnt = 0;
-    while (rs.next()) {
+    if (rs.getType() != ResultSet.TYPE_FORWARD_ONLY) {
+      if (startingRow > 1) {
+        rs.absolute(startingRow - 1);
+      }
+      cnt = startingRow - 1;
+    }
+    else {
+      while (cnt < startingRow - 1 && (more = rs.next())) {
+        cnt += 1;
+      }
+    }
+
+    while (more && cnt < endingRow && (more = rs.next())) {
+      rows.add(rowMapper.mapRow(rs, cnt));
+      cnt += 1;
+    }
+
+    if (!countTotal) {
+      SlicePageContainer<T> slice = new SlicePageContainer<T>();
+      slice.setRows(rows);
+      slice.setHasNext(more && rs.next());
+      return slice;
+    }
+
+    if (rs.getType() != ResultSet.TYPE_FORWARD_ONLY) {
+      cnt = rs.last() ? rs.getRow() : 0;
+    }
+    else {
+      while (more && (more = rs.next())) {
         cnt += 1;
-        if (cnt >= startingRow && cnt <= endingRow) {
-            rows.add(rowMapper.mapRow(rs, cnt));
-        }
+      }
     }
+    PageContainer<T> container = new BasePageContainer<T>();
     container.setRows(rows);
     container.setTotalRows(cnt);
     int totalPages = cnt / rowsPerPage;
@@ -0,0 +1,41 @@
+package com.lunary.spring.database.extractor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.util.Assert;
+
+import com.lunary.spring.database.RowConsumer;
+
+/**
+ * ResultSetExtractor handing every mapped row to a RowConsumer instead of collecting them,
+ * returns the number of rows read.
+ */
+public class StreamingExtractor<T> implements ResultSetExtractor<Integer> {
+
+  private final RowMapper<T> rowMapper;
+
+  private final RowConsumer<T> consumer;
+
+  /**
+   * @param rowMapper the RowMapper which creates an object for each row
+   * @param consumer the RowConsumer receiving each object
+   */
+  public StreamingExtractor(RowMapper<T> rowMapper, RowConsumer<T> consumer) {
+    Assert.notNull(rowMapper, "RowMapper is required");
+    Assert.notNull(consumer, "RowConsumer is required");
+    this.rowMapper = rowMapper;
+    this.consumer = consumer;
+  }
+
+  @Override
+  public Integer extractData(ResultSet rs) throws SQLException {
+    int rowNum = 0;
+    while (rs.next()) {
+      consumer.accept(this.rowMapper.mapRow(rs, rowNum++));
+    }
+    return rowNum;
+  }
+}
@@ -0,0 +1,39 @@
+package com.lunary.spring.database.extractor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+/**
+ * <pre>
+ * Measures the time spent in another ResultSetExtractor, i.e. reading and mapping the rows.
+ * Instances are used for a single query.
+ * </pre>
+ */
+public class TimedExtractor<T> implements ResultSetExtractor<T> {
+
+  private final ResultSetExtractor<T> extractor;
+  private long extractNanos;
+
+  public TimedExtractor(ResultSetExtractor<T> extractor) {
+    this.extractor = extractor;
+  }
+
+  @Override
+  public T extractData(ResultSet rs) throws SQLException, DataAccessException {
+
+    long start = System.nanoTime();
+    try {
+      return extractor.extractData(rs);
+    }
+    finally {
+      extractNanos = System.nanoTime() - start;
+    }
+  }
+
+  public long getExtractNanos() {
+    return extractNanos;
+  }
+}
@@ -0,0 +1,42 @@
+package com.lunary.spring.database.monitor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SqlExecutionListener forwarding every execution to several listeners, a failing listener does not stop the others.
+ */
+public class CompositeSqlExecutionListener implements SqlExecutionListener {
+
+  private final Logger logger = LoggerFactory.getLogger(CompositeSqlExecutionListener.class);
+  private final List<SqlExecutionListener> listeners = new CopyOnWriteArrayList<SqlExecutionListener>();
+
+  public CompositeSqlExecutionListener(SqlExecutionListener... listeners) {
+    this.listeners.addAll(Arrays.asList(listeners));
+  }
+
+  public void addListener(SqlExecutionListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(SqlExecutionListener listener) {
+    listeners.remove(listener);
+  }
+
+  @Override
+  public void executed(SqlExecution execution) {
+
+    for (SqlExecutionListener listener : listeners) {
+      try {
+        listener.executed(execution);
+      }
+      catch (RuntimeException e) {
+        logger.warn("SqlExecutionListener " + listener + " failed", e);
+      }
+    }
+  }
+}
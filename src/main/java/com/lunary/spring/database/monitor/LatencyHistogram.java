@@ -0,0 +1,92 @@
+package com.lunary.spring.database.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <pre>
+ * Lock free histogram of durations in power of two nanosecond buckets: bucket i counts durations
+ * in [2^i, 2^(i+1)) ns. Percentiles are reported as the upper bound of their bucket, so within a factor of 2.
+ * </pre>
+ */
+public class LatencyHistogram {
+
+  private static final int BUCKETS = 64;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  public void record(long nanos) {
+
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    buckets.incrementAndGet(nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos));
+    count.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+    long max = maxNanos.get();
+    while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+      max = maxNanos.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos.get();
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  public long getMeanNanos() {
+
+    long n = count.get();
+    return n == 0 ? 0 : totalNanos.get() / n;
+  }
+
+  /**
+   * @param percentile
+   *          between 0 and 100
+   * @return the upper bound of the bucket holding the percentile, 0 if nothing was recorded
+   */
+  public long getPercentileNanos(double percentile) {
+
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(n * percentile / 100d);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank && seen > 0) {
+        return i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+      }
+    }
+    return maxNanos.get();
+  }
+
+  /**
+   * @return count per bucket, index i for durations in [2^i, 2^(i+1)) ns
+   */
+  public long[] getBucketCounts() {
+
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return counts;
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount() + ", mean=" + getMeanNanos() / 1000 + "us, p50<=" + getPercentileNanos(50) / 1000 + "us, p99<=" + getPercentileNanos(99) / 1000 + "us, max="
+        + getMaxNanos() / 1000 + "us";
+  }
+}
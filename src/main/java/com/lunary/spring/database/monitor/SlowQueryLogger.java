@@ -0,0 +1,33 @@
+package com.lunary.spring.database.monitor;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <pre>
+ * SqlExecutionListener logging at WARN the statements taking at least the threshold,
+ * with the types of their parameters (not the values, which may be sensitive).
+ * </pre>
+ */
+public class SlowQueryLogger implements SqlExecutionListener {
+
+  private final Logger logger = LoggerFactory.getLogger(SlowQueryLogger.class);
+  private final long thresholdNanos;
+
+  public SlowQueryLogger(long threshold, TimeUnit unit) {
+    this.thresholdNanos = unit.toNanos(threshold);
+  }
+
+  @Override
+  public void executed(SqlExecution execution) {
+
+    if (execution.getTotalNanos() >= thresholdNanos && logger.isWarnEnabled()) {
+      logger.warn("Slow {} took {} ms (execute {} ms, mapping {} ms, {} rows) param types {}: {}",
+          new Object[] { execution.getType(), TimeUnit.NANOSECONDS.toMillis(execution.getTotalNanos()), TimeUnit.NANOSECONDS.toMillis(execution.getExecuteNanos()),
+              TimeUnit.NANOSECONDS.toMillis(execution.getMappingNanos()), execution.getRows(), Arrays.toString(execution.getParamTypes()), execution.getSql() });
+    }
+  }
+}
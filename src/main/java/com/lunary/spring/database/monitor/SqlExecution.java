@@ -0,0 +1,90 @@
+package com.lunary.spring.database.monitor;
+
+/**
+ * <pre>
+ * One statement run by SpringSqlUtil.
+ * executeNanos covers preparing, binding and executing the statement,
+ * mappingNanos the time spent in the ResultSetExtractor: fetching and mapping the rows, or the consumer of a stream.
+ * With a driver fetching rows lazily mappingNanos includes the round trips of the later fetches.
+ * </pre>
+ */
+public class SqlExecution {
+
+  public enum Type {
+    QUERY, UPDATE, INSERT, BATCH, CURSOR
+  }
+
+  private final Type type;
+  private final String sql;
+  private final Object[] params;
+  private final long executeNanos;
+  private final long mappingNanos;
+  private final int rows;
+  private final Throwable error;
+
+  public SqlExecution(Type type, String sql, Object[] params, long executeNanos, long mappingNanos, int rows, Throwable error) {
+    this.type = type;
+    this.sql = sql;
+    this.params = params;
+    this.executeNanos = executeNanos;
+    this.mappingNanos = mappingNanos;
+    this.rows = rows;
+    this.error = error;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String getSql() {
+    return sql;
+  }
+
+  /**
+   * @return the bound parameters, null for batches
+   */
+  public Object[] getParams() {
+    return params;
+  }
+
+  /**
+   * @return the simple class names of the bound parameters, "null" for null values
+   */
+  public String[] getParamTypes() {
+
+    if (params == null) {
+      return new String[0];
+    }
+    String[] types = new String[params.length];
+    for (int i = 0; i < params.length; i++) {
+      types[i] = params[i] == null ? "null" : params[i].getClass().getSimpleName();
+    }
+    return types;
+  }
+
+  public long getExecuteNanos() {
+    return executeNanos;
+  }
+
+  public long getMappingNanos() {
+    return mappingNanos;
+  }
+
+  public long getTotalNanos() {
+    return executeNanos + mappingNanos;
+  }
+
+  /**
+   * @return rows returned by a query or affected by an update, -1 if unknown
+   */
+  public int getRows() {
+    return rows;
+  }
+
+  /**
+   * @return the exception the statement failed with, null if it succeeded
+   */
+  public Throwable getError() {
+    return error;
+  }
+}
@@ -0,0 +1,15 @@
+package com.lunary.spring.database.monitor;
+
+/**
+ * <pre>
+ * Receives one SqlExecution per statement run by SpringSqlUtil, on the thread that ran it.
+ * Implementations must be thread safe and fast, exceptions they throw are logged and ignored.
+ * No listener is set by default, SpringSqlUtil then does no timing at all.
+ * </pre>
+ *
+ * @see com.lunary.spring.database.SpringSqlUtil#setSqlExecutionListener(SqlExecutionListener)
+ */
+public interface SqlExecutionListener {
+
+  void executed(SqlExecution execution);
+}
@@ -0,0 +1,75 @@
+package com.lunary.spring.database.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of one SQL shape (one SQL text), see SqlMetricsCollector.
+ */
+public class SqlMetrics {
+
+  private final String sql;
+  private final AtomicLong executions = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong rows = new AtomicLong();
+  private final LatencyHistogram executeTime = new LatencyHistogram();
+  private final LatencyHistogram mappingTime = new LatencyHistogram();
+
+  public SqlMetrics(String sql) {
+    this.sql = sql;
+  }
+
+  void record(SqlExecution execution) {
+
+    executions.incrementAndGet();
+    if (execution.getError() != null) {
+      errors.incrementAndGet();
+    }
+    if (execution.getRows() > 0) {
+      rows.addAndGet(execution.getRows());
+    }
+    executeTime.record(execution.getExecuteNanos());
+    mappingTime.record(execution.getMappingNanos());
+  }
+
+  public String getSql() {
+    return sql;
+  }
+
+  public long getExecutions() {
+    return executions.get();
+  }
+
+  public long getErrors() {
+    return errors.get();
+  }
+
+  /**
+   * @return rows returned or affected by all executions
+   */
+  public long getRows() {
+    return rows.get();
+  }
+
+  public LatencyHistogram getExecuteTime() {
+    return executeTime;
+  }
+
+  public LatencyHistogram getMappingTime() {
+    return mappingTime;
+  }
+
+  /**
+   * @return rows divided by the time spent mapping them, 0 when nothing was mapped
+   */
+  public double getRowsMappedPerSecond() {
+
+    long nanos = mappingTime.getTotalNanos();
+    return nanos == 0 ? 0 : rows.get() * 1e9d / nanos;
+  }
+
+  @Override
+  public String toString() {
+    return "SqlMetrics [executions=" + getExecutions() + ", errors=" + getErrors() + ", rows=" + getRows() + ", execute: " + executeTime + ", mapping: " + mappingTime + ", sql="
+        + sql + "]";
+  }
+}
@@ -0,0 +1,82 @@
+package com.lunary.spring.database.monitor;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.lunary.spring.database.ParsedSql;
+import com.lunary.spring.database.SqlRewriteCache;
+
+/**
+ * <pre>
+ * SqlExecutionListener keeping SqlMetrics per SQL shape: executions, errors, rows,
+ * and histograms of the execute and mapping times.
+ * The shape is the SQL without its top level ORDER BY clause ({@link ParsedSql#getBaseSql()}), so the pages
+ * of a query paginated with ORDER BY ... OFFSET / LIMIT are recorded together. Other inlined values,
+ * like the ROWNUM bounds of OraclePaginateSqlTemplate, still make one shape per value.
+ * Once maxShapes SQL are tracked the others are recorded under {@link #OTHER_SQL}.
+ * </pre>
+ */
+public class SqlMetricsCollector implements SqlExecutionListener {
+
+  public static final int DEFAULT_MAX_SHAPES = 1000;
+  public static final String OTHER_SQL = "<other>";
+
+  private final ConcurrentMap<String, SqlMetrics> metrics = new ConcurrentHashMap<String, SqlMetrics>();
+  private final int maxShapes;
+  private final SqlRewriteCache sqlRewriteCache = new SqlRewriteCache();
+
+  public SqlMetricsCollector() {
+    this(DEFAULT_MAX_SHAPES);
+  }
+
+  /**
+   * @param maxShapes
+   *          maximum number of SQL tracked separately
+   */
+  public SqlMetricsCollector(int maxShapes) {
+    this.maxShapes = maxShapes;
+  }
+
+  @Override
+  public void executed(SqlExecution execution) {
+
+    String sql = execution.getSql() != null ? getShape(execution.getSql()) : OTHER_SQL;
+    SqlMetrics sqlMetrics = metrics.get(sql);
+    if (sqlMetrics == null) {
+      if (metrics.size() >= maxShapes) {
+        sql = OTHER_SQL;
+      }
+      sqlMetrics = new SqlMetrics(sql);
+      SqlMetrics existing = metrics.putIfAbsent(sql, sqlMetrics);
+      if (existing != null) {
+        sqlMetrics = existing;
+      }
+    }
+    sqlMetrics.record(execution);
+  }
+
+  /**
+   * @param sql
+   * @return the metrics of the shape of sql, null if it was not run
+   */
+  public SqlMetrics getMetrics(String sql) {
+    return metrics.get(getShape(sql));
+  }
+
+  /**
+   * @return the metrics of every SQL, by SQL shape
+   */
+  public Map<String, SqlMetrics> getAllMetrics() {
+    return Collections.unmodifiableMap(metrics);
+  }
+
+  public void reset() {
+    metrics.clear();
+  }
+
+  private String getShape(String sql) {
+    return sqlRewriteCache.get(sql).getBaseSql();
+  }
+}
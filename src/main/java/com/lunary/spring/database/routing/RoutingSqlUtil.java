@@ -0,0 +1,508 @@
+package com.lunary.spring.database.routing;
+
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLNonTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.lunary.database.PageContainer;
+import com.lunary.database.SqlUtil;
+import com.lunary.model.TableEntity;
+import com.lunary.spring.database.SpringSqlUtil;
+
+/**
+ * <pre>
+ * SqlUtil sending writes (insert, update, updateWithNull, delete) to a writer and balancing reads across readers,
+ * typically a primary database and its replicas.
+ *
+ * Reads go to the writer as well:
+ * - inside a transaction, which is bound to the writer's connection,
+ * - during the read-your-writes window following a write of the same thread, see {@link #setReadYourWritesWindow(long, TimeUnit)},
+ * - when no reader is healthy.
+ *
+ * A reader failing with a connection or resource failure is ejected and the read is retried on another reader,
+ * then on the writer. Ejected readers come back only when {@link #checkReaders()} finds them healthy again,
+ * so it must be called, or run periodically with {@link #startHealthChecks(long, TimeUnit)};
+ * without health checks an ejected reader gets no more queries.
+ * Other errors (bad SQL, constraint violations...) are thrown as they are.
+ * </pre>
+ */
+public class RoutingSqlUtil implements SqlUtil {
+
+  public enum Balancing {
+    ROUND_ROBIN, LEAST_IN_FLIGHT
+  }
+
+  public static final String DEFAULT_VALIDATION_QUERY = "SELECT 1";
+
+  private final Logger logger = LoggerFactory.getLogger(RoutingSqlUtil.class);
+  private final SqlUtil writer;
+  private final List<Reader> readers;
+  private final AtomicInteger next = new AtomicInteger();
+  private final ThreadLocal<Long> lastWrite = new ThreadLocal<Long>();
+  private volatile Balancing balancing = Balancing.ROUND_ROBIN;
+  private volatile long readYourWritesNanos = 0;
+  private volatile String validationQuery = DEFAULT_VALIDATION_QUERY;
+  private ScheduledExecutorService healthCheckExecutor;
+
+  /**
+   * @param writer
+   * @param readers
+   *          may be empty, all queries then go to the writer
+   * @throws NullPointerException
+   *           if writer or readers is null
+   */
+  public RoutingSqlUtil(SqlUtil writer, List<? extends SqlUtil> readers) throws NullPointerException {
+
+    if (writer == null) {
+      throw new NullPointerException("writer cannot be null");
+    }
+    this.writer = writer;
+    List<Reader> list = new ArrayList<Reader>(readers.size());
+    for (SqlUtil reader : readers) {
+      list.add(new Reader(reader));
+    }
+    this.readers = Collections.unmodifiableList(list);
+  }
+
+  /**
+   * Route between SpringSqlUtils built on the given JdbcTemplates.
+   * 
+   * @param writer
+   * @param readers
+   * @return the RoutingSqlUtil
+   */
+  public static RoutingSqlUtil create(JdbcTemplate writer, List<JdbcTemplate> readers) {
+
+    List<SqlUtil> readerSqlUtils = new ArrayList<SqlUtil>(readers.size());
+    for (JdbcTemplate reader : readers) {
+      readerSqlUtils.add(new SpringSqlUtil(reader, reader.getDataSource()));
+    }
+    return new RoutingSqlUtil(new SpringSqlUtil(writer, writer.getDataSource()), readerSqlUtils);
+  }
+
+  public SqlUtil getWriter() {
+    return writer;
+  }
+
+  public Balancing getBalancing() {
+    return balancing;
+  }
+
+  /**
+   * @param balancing
+   *          how readers are chosen, default is ROUND_ROBIN
+   */
+  public void setBalancing(Balancing balancing) {
+    this.balancing = balancing;
+  }
+
+  /**
+   * Set how long reads of a thread go to the writer after it writes, so it sees its writes
+   * despite the replication lag of the readers. Default is 0, reads always go to the readers.
+   * 
+   * @param window
+   * @param unit
+   */
+  public void setReadYourWritesWindow(long window, TimeUnit unit) {
+    this.readYourWritesNanos = unit.toNanos(window);
+  }
+
+  /**
+   * @param validationQuery
+   *          query run by {@link #checkReaders()}, default is {@value #DEFAULT_VALIDATION_QUERY}
+   *          ("SELECT 1 FROM DUAL" on Oracle, "SELECT 1 FROM SYSIBM.SYSDUMMY1" on DB2)
+   */
+  public void setValidationQuery(String validationQuery) {
+    this.validationQuery = validationQuery;
+  }
+
+  /**
+   * @return number of readers currently receiving queries
+   */
+  public int getHealthyReaderCount() {
+
+    int cnt = 0;
+    for (Reader reader : readers) {
+      if (reader.healthy) {
+        ++cnt;
+      }
+    }
+    return cnt;
+  }
+
+  /**
+   * Run the validation query on every reader, ejecting the failing ones and restoring the others.
+   */
+  public void checkReaders() {
+
+    for (Reader reader : readers) {
+      try {
+        reader.sqlUtil.findCount(validationQuery);
+        if (!reader.healthy) {
+          logger.info("Reader " + reader.sqlUtil + " is healthy again");
+          reader.healthy = true;
+        }
+      }
+      catch (RuntimeException e) {
+        eject(reader, e);
+      }
+    }
+  }
+
+  /**
+   * Run {@link #checkReaders()} every interval on a daemon thread, until {@link #shutdown()}.
+   * 
+   * @param interval
+   * @param unit
+   */
+  public synchronized void startHealthChecks(long interval, TimeUnit unit) {
+
+    if (healthCheckExecutor != null) {
+      healthCheckExecutor.shutdown();
+    }
+    healthCheckExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable r) {
+
+        Thread thread = new Thread(r, "RoutingSqlUtil-health-check");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    healthCheckExecutor.scheduleWithFixedDelay(new Runnable() {
+
+      @Override
+      public void run() {
+
+        try {
+          checkReaders();
+        }
+        catch (RuntimeException e) {
+          logger.warn("Reader health check failed", e);
+        }
+      }
+    }, interval, interval, unit);
+  }
+
+  /**
+   * Stop the health checks.
+   */
+  public synchronized void shutdown() {
+
+    if (healthCheckExecutor != null) {
+      healthCheckExecutor.shutdown();
+      healthCheckExecutor = null;
+    }
+  }
+
+  private void eject(Reader reader, RuntimeException e) {
+
+    if (reader.healthy) {
+      logger.warn("Reader " + reader.sqlUtil + " ejected", e);
+      reader.healthy = false;
+    }
+  }
+
+  /**
+   * @return the reader to use or null to read from the writer
+   */
+  private Reader chooseReader(List<Reader> excluded) {
+
+    if (readers.isEmpty() || TransactionSynchronizationManager.isActualTransactionActive()) {
+      return null;
+    }
+    Long writeTime = lastWrite.get();
+    if (writeTime != null) {
+      if (System.nanoTime() - writeTime < readYourWritesNanos) {
+        return null;
+      }
+      lastWrite.remove();
+    }
+
+    int size = readers.size();
+    int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+    Reader chosen = null;
+    for (int i = 0; i < size; i++) {
+      Reader reader = readers.get((start + i) % size);
+      if (!reader.healthy || (excluded != null && excluded.contains(reader))) {
+        continue;
+      }
+      if (balancing == Balancing.ROUND_ROBIN) {
+        return reader;
+      }
+      if (chosen == null || reader.inFlight.get() < chosen.inFlight.get()) {
+        chosen = reader;
+      }
+    }
+    return chosen;
+  }
+
+  private <T> T read(Read<T> read) {
+
+    List<Reader> failed = null;
+    Reader reader;
+    while ((reader = chooseReader(failed)) != null) {
+      reader.inFlight.incrementAndGet();
+      try {
+        return read.run(reader.sqlUtil);
+      }
+      catch (RuntimeException e) {
+        if (!isResourceFailure(e)) {
+          throw e;
+        }
+        eject(reader, e);
+        if (failed == null) {
+          failed = new ArrayList<Reader>(readers.size());
+        }
+        failed.add(reader);
+      }
+      finally {
+        reader.inFlight.decrementAndGet();
+      }
+    }
+    return read.run(writer);
+  }
+
+  /**
+   * Whether e means the database cannot be reached rather than a problem of the statement.
+   */
+  protected boolean isResourceFailure(Throwable e) {
+
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof DataAccessResourceFailureException || cause instanceof TransientDataAccessResourceException
+          || cause instanceof SQLTransientConnectionException || cause instanceof SQLNonTransientConnectionException) {
+        return true;
+      }
+      if (cause.getCause() == cause) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  private void written() {
+
+    if (readYourWritesNanos > 0) {
+      lastWrite.set(System.nanoTime());
+    }
+  }
+
+  @Override
+  public int update(String sql, Object... params) {
+
+    try {
+      return writer.update(sql, params);
+    }
+    finally {
+      written();
+    }
+  }
+
+  @Override
+  public int delete(TableEntity entity) {
+
+    try {
+      return writer.delete(entity);
+    }
+    finally {
+      written();
+    }
+  }
+
+  @Override
+  public int insert(TableEntity entity) {
+
+    try {
+      return writer.insert(entity);
+    }
+    finally {
+      written();
+    }
+  }
+
+  @Override
+  public int update(TableEntity entity) {
+
+    try {
+      return writer.update(entity);
+    }
+    finally {
+      written();
+    }
+  }
+
+  @Override
+  public int updateWithNull(TableEntity entity) {
+
+    try {
+      return writer.updateWithNull(entity);
+    }
+    finally {
+      written();
+    }
+  }
+
+  @Override
+  public <E> List<E> find(final String sql, final Class<E> clazz, final Object... params) {
+
+    return read(new Read<List<E>>() {
+
+      @Override
+      public List<E> run(SqlUtil sqlUtil) {
+        return sqlUtil.find(sql, clazz, params);
+      }
+    });
+  }
+
+  @Override
+  public int findCount(final String sql, final Object... params) {
+
+    return read(new Read<Integer>() {
+
+      @Override
+      public Integer run(SqlUtil sqlUtil) {
+        return sqlUtil.findCount(sql, params);
+      }
+    });
+  }
+
+  @Override
+  public boolean exists(final String fromSql, final Object... params) {
+
+    return read(new Read<Boolean>() {
+
+      @Override
+      public Boolean run(SqlUtil sqlUtil) {
+        return sqlUtil.exists(fromSql, params);
+      }
+    });
+  }
+
+  @Override
+  public <E> E findOne(final String sql, final Class<E> clazz, final Object... params) {
+
+    return read(new Read<E>() {
+
+      @Override
+      public E run(SqlUtil sqlUtil) {
+        return sqlUtil.findOne(sql, clazz, params);
+      }
+    });
+  }
+
+  @Override
+  public Map<String, Object> findOneWithMap(final String sql, final Object... params) {
+
+    return read(new Read<Map<String, Object>>() {
+
+      @Override
+      public Map<String, Object> run(SqlUtil sqlUtil) {
+        return sqlUtil.findOneWithMap(sql, params);
+      }
+    });
+  }
+
+  @Override
+  public <E> List<E> findTop(final String sql, final int top, final Class<E> clazz, final Object... params) {
+
+    return read(new Read<List<E>>() {
+
+      @Override
+      public List<E> run(SqlUtil sqlUtil) {
+        return sqlUtil.findTop(sql, top, clazz, params);
+      }
+    });
+  }
+
+  @Override
+  public List<Map<String, Object>> findTopWithMap(final String sql, final int top, final Object... params) {
+
+    return read(new Read<List<Map<String, Object>>>() {
+
+      @Override
+      public List<Map<String, Object>> run(SqlUtil sqlUtil) {
+        return sqlUtil.findTopWithMap(sql, top, params);
+      }
+    });
+  }
+
+  @Override
+  public List<Map<String, Object>> findWithMap(final String sql, final Object... params) {
+
+    return read(new Read<List<Map<String, Object>>>() {
+
+      @Override
+      public List<Map<String, Object>> run(SqlUtil sqlUtil) {
+        return sqlUtil.findWithMap(sql, params);
+      }
+    });
+  }
+
+  @Override
+  public <E> PageContainer<E> findWithPagination(final String sql, final int page, final int rowsPerPage, final Class<E> clazz, final Object... params) {
+
+    return read(new Read<PageContainer<E>>() {
+
+      @Override
+      public PageContainer<E> run(SqlUtil sqlUtil) {
+        return sqlUtil.findWithPagination(sql, page, rowsPerPage, clazz, params);
+      }
+    });
+  }
+
+  @Override
+  public PageContainer<Map<String, Object>> findWithPaginationMap(final String sql, final int page, final int rowsPerPage, final Object... params) {
+
+    return read(new Read<PageContainer<Map<String, Object>>>() {
+
+      @Override
+      public PageContainer<Map<String, Object>> run(SqlUtil sqlUtil) {
+        return sqlUtil.findWithPaginationMap(sql, page, rowsPerPage, params);
+      }
+    });
+  }
+
+  @Override
+  public <E extends TableEntity> E findByKey(final E entity) {
+
+    return read(new Read<E>() {
+
+      @Override
+      public E run(SqlUtil sqlUtil) {
+        return sqlUtil.findByKey(entity);
+      }
+    });
+  }
+
+  private interface Read<T> {
+
+    T run(SqlUtil sqlUtil);
+  }
+
+  private static class Reader {
+
+    private final SqlUtil sqlUtil;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean healthy = true;
+
+    private Reader(SqlUtil sqlUtil) {
+      this.sqlUtil = sqlUtil;
+    }
+  }
+}
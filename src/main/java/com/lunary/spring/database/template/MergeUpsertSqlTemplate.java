@@ -0,0 +1,86 @@
+package com.lunary.spring.database.template;
+
+/**
+ * <pre>
+ * UpsertSqlTemplate using the SQL:2003 MERGE statement with a VALUES source, for DB2 and SQL Server 2008 and later.
+ * 
+ * MERGE INTO table t_ USING (VALUES (?, ?)) s_ (k, c) ON (t_.k = s_.k)
+ * WHEN MATCHED THEN UPDATE SET t_.c = s_.c
+ * WHEN NOT MATCHED THEN INSERT (k, c) VALUES (s_.k, s_.c)
+ * 
+ * SQL Server requires MERGE to be terminated by a semicolon, see {@link #MergeUpsertSqlTemplate(String)}.
+ * </pre>
+ */
+public class MergeUpsertSqlTemplate implements UpsertSqlTemplate {
+
+  private final String terminator;
+
+  public MergeUpsertSqlTemplate() {
+    this("");
+  }
+
+  /**
+   * @param terminator
+   *          appended to the statement, ";" for SQL Server
+   */
+  public MergeUpsertSqlTemplate(String terminator) {
+    this.terminator = terminator;
+  }
+
+  @Override
+  public String formatUpsertSql(String tableName, String[] columns, String[] keyColumns) {
+
+    StringBuilder sql = new StringBuilder("MERGE INTO ").append(tableName).append(" t_ USING ");
+    appendSource(sql, columns);
+    sql.append(" ON (");
+    for (int i = 0; i < keyColumns.length; i++) {
+      sql.append(i > 0 ? " AND " : "").append("t_.").append(keyColumns[i]).append(" = s_.").append(keyColumns[i]);
+    }
+    sql.append(')');
+    StringBuilder update = new StringBuilder();
+    for (String column : columns) {
+      if (!isKey(column, keyColumns)) {
+        update.append(update.length() > 0 ? ", " : "").append("t_.").append(column).append(" = s_.").append(column);
+      }
+    }
+    if (update.length() > 0) {
+      sql.append(" WHEN MATCHED THEN UPDATE SET ").append(update);
+    }
+    sql.append(" WHEN NOT MATCHED THEN INSERT (");
+    for (int i = 0; i < columns.length; i++) {
+      sql.append(i > 0 ? ", " : "").append(columns[i]);
+    }
+    sql.append(") VALUES (");
+    for (int i = 0; i < columns.length; i++) {
+      sql.append(i > 0 ? ", " : "").append("s_.").append(columns[i]);
+    }
+    sql.append(')').append(terminator);
+    return sql.toString();
+  }
+
+  /**
+   * Append the source row aliased s_, binding one parameter per column.
+   */
+  protected void appendSource(StringBuilder sql, String[] columns) {
+
+    sql.append("(VALUES (");
+    for (int i = 0; i < columns.length; i++) {
+      sql.append(i > 0 ? ", ?" : "?");
+    }
+    sql.append(")) s_ (");
+    for (int i = 0; i < columns.length; i++) {
+      sql.append(i > 0 ? ", " : "").append(columns[i]);
+    }
+    sql.append(')');
+  }
+
+  static boolean isKey(String column, String[] keyColumns) {
+
+    for (String key : keyColumns) {
+      if (key.equalsIgnoreCase(column)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
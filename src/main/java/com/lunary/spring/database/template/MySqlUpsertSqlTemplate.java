@@ -0,0 +1,39 @@
+package com.lunary.spring.database.template;
+
+/**
+ * <pre>
+ * UpsertSqlTemplate of MySQL, relying on the primary key or a unique index of the key columns.
+ * 
+ * INSERT INTO table (k, c) VALUES (?, ?) ON DUPLICATE KEY UPDATE c = VALUES(c)
+ * 
+ * MySQL reports 1 affected row for an insert and 2 for an update.
+ * </pre>
+ */
+public class MySqlUpsertSqlTemplate implements UpsertSqlTemplate {
+
+  @Override
+  public String formatUpsertSql(String tableName, String[] columns, String[] keyColumns) {
+
+    StringBuilder sql = new StringBuilder("INSERT INTO ").append(tableName).append(" (");
+    StringBuilder update = new StringBuilder();
+    for (int i = 0; i < columns.length; i++) {
+      sql.append(i > 0 ? ", " : "").append(columns[i]);
+      if (!MergeUpsertSqlTemplate.isKey(columns[i], keyColumns)) {
+        update.append(update.length() > 0 ? ", " : "").append(columns[i]).append(" = VALUES(").append(columns[i]).append(')');
+      }
+    }
+    sql.append(") VALUES (");
+    for (int i = 0; i < columns.length; i++) {
+      sql.append(i > 0 ? ", ?" : "?");
+    }
+    sql.append(") ON DUPLICATE KEY UPDATE ");
+    if (update.length() == 0) {
+      // only key columns, nothing to update
+      sql.append(keyColumns[0]).append(" = ").append(keyColumns[0]);
+    }
+    else {
+      sql.append(update);
+    }
+    return sql.toString();
+  }
+}
@@ -0,0 +1,31 @@
+package com.lunary.spring.database.template;
+
+import com.lunary.database.PaginateSqlTemplate;
+
+/**
+ * <pre>
+ * PaginateSqlTemplate using the SQL:2008 OFFSET / FETCH clause, for Oracle 12c and later and SQL Server 2012 and later.
+ * Older versions (including MSSQL2008) do not support the syntax, DatabaseType alone cannot tell the version
+ * so this template is only used when passed explicitly to SpringSqlUtilWithDbAwareImpl.
+ * 
+ * sql ORDER BY orderBy OFFSET start ROWS FETCH NEXT rowsPerPage ROWS ONLY
+ * </pre>
+ */
+public class OffsetFetchPaginateSqlTemplate implements PaginateSqlTemplate {
+
+  @Override
+  public String formatCountSql(String sql) {
+    return "SELECT COUNT(*) FROM (" + sql + ") count_";
+  }
+
+  @Override
+  public String formatPaginateSql(String sql, String orderByColumns, int page, int rowsPerPage) {
+
+    StringBuilder paginateSql = new StringBuilder(sql.length() + orderByColumns.length() + 64);
+    paginateSql.append(sql);
+    paginateSql.append(" ORDER BY ").append(orderByColumns.trim());
+    paginateSql.append(" OFFSET ").append((page - 1) * rowsPerPage).append(" ROWS");
+    paginateSql.append(" FETCH NEXT ").append(rowsPerPage).append(" ROWS ONLY");
+    return paginateSql.toString();
+  }
+}
@@ -0,0 +1,21 @@
+package com.lunary.spring.database.template;
+
+/**
+ * <pre>
+ * MergeUpsertSqlTemplate of Oracle, which has no VALUES source: the row is selected from DUAL.
+ * 
+ * MERGE INTO table t_ USING (SELECT ? k, ? c FROM DUAL) s_ ON (t_.k = s_.k) ...
+ * </pre>
+ */
+public class OracleMergeUpsertSqlTemplate extends MergeUpsertSqlTemplate {
+
+  @Override
+  protected void appendSource(StringBuilder sql, String[] columns) {
+
+    sql.append("(SELECT ");
+    for (int i = 0; i < columns.length; i++) {
+      sql.append(i > 0 ? ", ? " : "? ").append(columns[i]);
+    }
+    sql.append(" FROM DUAL) s_");
+  }
+}
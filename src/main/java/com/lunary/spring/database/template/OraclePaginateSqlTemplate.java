@@ -0,0 +1,34 @@
+package com.lunary.spring.database.template;
+
+import com.lunary.database.PaginateSqlTemplate;
+
+/**
+ * <pre>
+ * PaginateSqlTemplate for Oracle using ROWNUM, works on every Oracle version.
+ * The inner ROWNUM bound lets Oracle stop the sorted scan at the end of the page (top-N optimization).
+ * Rows carry an extra ROWNUM_ column.
+ * 
+ * SELECT * FROM (SELECT row_.*, ROWNUM rownum_ FROM (sql ORDER BY orderBy) row_ WHERE ROWNUM <= end) WHERE rownum_ > start
+ * </pre>
+ * 
+ * @see com.lunary.spring.database.template.OffsetFetchPaginateSqlTemplate for Oracle 12c and later
+ */
+public class OraclePaginateSqlTemplate implements PaginateSqlTemplate {
+
+  @Override
+  public String formatCountSql(String sql) {
+    return "SELECT COUNT(*) FROM (" + sql + ") count_";
+  }
+
+  @Override
+  public String formatPaginateSql(String sql, String orderByColumns, int page, int rowsPerPage) {
+
+    int endingRow = page * rowsPerPage;
+    StringBuilder paginateSql = new StringBuilder(sql.length() + orderByColumns.length() + 128);
+    paginateSql.append("SELECT * FROM (SELECT row_.*, ROWNUM rownum_ FROM (").append(sql);
+    paginateSql.append(" ORDER BY ").append(orderByColumns.trim());
+    paginateSql.append(") row_ WHERE ROWNUM <= ").append(endingRow);
+    paginateSql.append(") WHERE rownum_ > ").append(endingRow - rowsPerPage);
+    return paginateSql.toString();
+  }
+}
@@ -0,0 +1,20 @@
+package com.lunary.spring.database.template;
+
+/**
+ * <pre>
+ * Formats the single statement inserting a row or updating it when a row with the same key exists.
+ * The statement binds one parameter per column, in the order of columns.
+ * </pre>
+ */
+public interface UpsertSqlTemplate {
+
+  /**
+   * @param tableName
+   * @param columns
+   *          all columns of the row, the key columns included
+   * @param keyColumns
+   *          the columns identifying the row
+   * @return the upsert SQL
+   */
+  String formatUpsertSql(String tableName, String[] columns, String[] keyColumns);
+}
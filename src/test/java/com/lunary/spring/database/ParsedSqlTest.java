@@ -0,0 +1,201 @@
+package com.lunary.spring.database;
+
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * ORDER BY splitting and table name scanning of ParsedSql.
+ */
+public class ParsedSqlTest extends TestCase {
+
+  public ParsedSqlTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(ParsedSqlTest.class);
+  }
+
+  public void testTrailingOrderBy() {
+
+    ParsedSql parsed = ParsedSql.parse("SELECT ID, NAME FROM CUSTOMER WHERE STATUS = ? ORDER BY NAME DESC, ID");
+    assertEquals("SELECT ID, NAME FROM CUSTOMER WHERE STATUS = ?", parsed.getBaseSql());
+    assertEquals("NAME DESC, ID", parsed.getOrderBy());
+  }
+
+  public void testLowerCaseOrderByOnSeveralLines() {
+
+    ParsedSql parsed = ParsedSql.parse("select id from customer\norder\n  by id");
+    assertEquals("select id from customer", parsed.getBaseSql());
+    assertEquals("id", parsed.getOrderBy());
+  }
+
+  public void testNoOrderBy() {
+
+    String sql = "SELECT ID FROM CUSTOMER WHERE STATUS = ?";
+    ParsedSql parsed = ParsedSql.parse(sql);
+    assertEquals(sql, parsed.getBaseSql());
+    assertNull(parsed.getOrderBy());
+    assertEquals(sql, parsed.getSql());
+  }
+
+  public void testOrderByWithoutColumns() {
+
+    ParsedSql parsed = ParsedSql.parse("SELECT ID FROM CUSTOMER ORDER BY ");
+    assertEquals("SELECT ID FROM CUSTOMER", parsed.getBaseSql());
+    assertNull(parsed.getOrderBy());
+  }
+
+  public void testOrderByInSubqueryIsIgnored() {
+
+    String sql = "SELECT * FROM (SELECT ID FROM CUSTOMER ORDER BY ID) c WHERE ID > ?";
+    ParsedSql parsed = ParsedSql.parse(sql);
+    assertEquals(sql, parsed.getBaseSql());
+    assertNull(parsed.getOrderBy());
+  }
+
+  public void testOrderByAfterSubquery() {
+
+    ParsedSql parsed = ParsedSql.parse("SELECT * FROM (SELECT ID FROM CUSTOMER ORDER BY ID) c ORDER BY c.ID DESC");
+    assertEquals("SELECT * FROM (SELECT ID FROM CUSTOMER ORDER BY ID) c", parsed.getBaseSql());
+    assertEquals("c.ID DESC", parsed.getOrderBy());
+  }
+
+  public void testOrderByInOverClauseIsIgnored() {
+
+    String sql = "SELECT ID, ROW_NUMBER() OVER (PARTITION BY STATUS ORDER BY ID) RN FROM CUSTOMER";
+    ParsedSql parsed = ParsedSql.parse(sql);
+    assertEquals(sql, parsed.getBaseSql());
+    assertNull(parsed.getOrderBy());
+
+    parsed = ParsedSql.parse(sql + " ORDER BY RN");
+    assertEquals(sql, parsed.getBaseSql());
+    assertEquals("RN", parsed.getOrderBy());
+  }
+
+  public void testOrderByInLiteralIsIgnored() {
+
+    String sql = "SELECT ID FROM CUSTOMER WHERE NOTE = 'it''s ORDER BY name'";
+    ParsedSql parsed = ParsedSql.parse(sql);
+    assertEquals(sql, parsed.getBaseSql());
+    assertNull(parsed.getOrderBy());
+  }
+
+  public void testOrderByInQuotedIdentifierIsIgnored() {
+
+    String sql = "SELECT \"ORDER BY\" FROM CUSTOMER";
+    assertNull(ParsedSql.parse(sql).getOrderBy());
+    assertNull(ParsedSql.parse("SELECT [ORDER BY] FROM CUSTOMER").getOrderBy());
+  }
+
+  public void testOrderByInCommentIsIgnored() {
+
+    assertNull(ParsedSql.parse("SELECT ID FROM CUSTOMER -- ORDER BY ID").getOrderBy());
+    assertNull(ParsedSql.parse("SELECT ID FROM CUSTOMER /* ORDER BY ID */ WHERE ID > 0").getOrderBy());
+
+    ParsedSql parsed = ParsedSql.parse("SELECT ID FROM CUSTOMER /* ORDER BY NAME */ ORDER BY ID");
+    assertEquals("SELECT ID FROM CUSTOMER /* ORDER BY NAME */", parsed.getBaseSql());
+    assertEquals("ID", parsed.getOrderBy());
+  }
+
+  public void testUnionOrderByAppliesToWholeQuery() {
+
+    ParsedSql parsed = ParsedSql.parse("SELECT ID FROM CUSTOMER UNION SELECT ID FROM SUPPLIER ORDER BY ID");
+    assertEquals("SELECT ID FROM CUSTOMER UNION SELECT ID FROM SUPPLIER", parsed.getBaseSql());
+    assertEquals("ID", parsed.getOrderBy());
+  }
+
+  public void testUnionOfOrderedSubqueries() {
+
+    String sql = "(SELECT ID FROM CUSTOMER ORDER BY ID) UNION ALL (SELECT ID FROM SUPPLIER ORDER BY ID)";
+    ParsedSql parsed = ParsedSql.parse(sql);
+    assertEquals(sql, parsed.getBaseSql());
+    assertNull(parsed.getOrderBy());
+  }
+
+  public void testUnionTables() {
+    assertTables("SELECT ID FROM CUSTOMER UNION SELECT ID FROM SUPPLIER", "CUSTOMER", "SUPPLIER");
+  }
+
+  public void testSingleTable() {
+    assertTables("SELECT * FROM customer WHERE ID = ?", "CUSTOMER");
+  }
+
+  public void testQualifiedAndQuotedTables() {
+
+    assertTables("SELECT * FROM sales.customer", "CUSTOMER");
+    assertTables("SELECT * FROM \"Sales\".\"Customer\" c", "CUSTOMER");
+    assertTables("SELECT * FROM [dbo].[Order Line]", "ORDER LINE");
+    assertTables("SELECT * FROM `shop`.`order`", "ORDER");
+  }
+
+  public void testJoinedTables() {
+
+    assertTables("SELECT * FROM CUSTOMER c JOIN ORDERS o ON o.CUSTOMER_ID = c.ID LEFT OUTER JOIN ORDER_LINE l ON l.ORDER_ID = o.ID",
+        "CUSTOMER", "ORDERS", "ORDER_LINE");
+  }
+
+  public void testCommaSeparatedFromList() {
+
+    assertTables("SELECT * FROM CUSTOMER c, ORDERS o, ORDER_LINE l WHERE o.CUSTOMER_ID = c.ID AND l.ORDER_ID = o.ID",
+        "CUSTOMER", "ORDERS", "ORDER_LINE");
+  }
+
+  public void testCommasAfterFromListAreNotTables() {
+
+    assertTables("SELECT * FROM CUSTOMER c WHERE c.ID IN (1, 2) GROUP BY c.ID, c.NAME ORDER BY c.NAME, c.ID", "CUSTOMER");
+    assertTables("SELECT A, B FROM CUSTOMER", "CUSTOMER");
+  }
+
+  public void testSubqueryTables() {
+
+    assertTables("SELECT * FROM (SELECT ID FROM CUSTOMER) c, ORDERS o WHERE o.CUSTOMER_ID IN (SELECT ID FROM VIP)",
+        "CUSTOMER", "ORDERS", "VIP");
+  }
+
+  public void testWriteStatementTables() {
+
+    assertTables("UPDATE CUSTOMER SET NAME = ? WHERE ID = ?", "CUSTOMER");
+    assertTables("INSERT INTO ORDERS (ID) SELECT ID FROM CART", "ORDERS", "CART");
+    assertTables("DELETE FROM ORDER_LINE WHERE ORDER_ID = ?", "ORDER_LINE");
+    assertTables("MERGE INTO CUSTOMER t USING STAGING s ON (t.ID = s.ID)", "CUSTOMER", "STAGING");
+  }
+
+  public void testTablesInLiteralsAndCommentsAreIgnored() {
+
+    assertTables("SELECT 'FROM X' FROM CUSTOMER -- JOIN Y\n WHERE NOTE <> '/* FROM Z */'", "CUSTOMER");
+    assertTables("SELECT ID /* FROM X */ FROM CUSTOMER", "CUSTOMER");
+  }
+
+  public void testNormalizeTableName() {
+
+    assertEquals("CUSTOMER", ParsedSql.normalizeTableName(" sales.customer "));
+    assertEquals("Customer".toUpperCase(), ParsedSql.normalizeTableName("\"Customer\""));
+  }
+
+  private static void assertTables(String sql, String... expected) {
+    assertEquals(Arrays.asList(expected), Arrays.asList(ParsedSql.parse(sql).getTableNames()));
+  }
+
+  public void testRowLimitedOrLocked() {
+
+    assertTrue(ParsedSql.parse("SELECT * FROM T ORDER BY ID LIMIT 100").isRowLimitedOrLocked());
+    assertTrue(ParsedSql.parse("SELECT * FROM T ORDER BY ID OFFSET 10 ROWS FETCH NEXT 10 ROWS ONLY").isRowLimitedOrLocked());
+    assertTrue(ParsedSql.parse("SELECT TOP 10 * FROM T").isRowLimitedOrLocked());
+    assertTrue(ParsedSql.parse("SELECT * FROM T WHERE ROWNUM <= 10").isRowLimitedOrLocked());
+    assertTrue(ParsedSql.parse("SELECT * FROM T WHERE ID = ? FOR UPDATE").isRowLimitedOrLocked());
+    assertTrue(ParsedSql.parse("select * from t for  share").isRowLimitedOrLocked());
+    assertTrue(ParsedSql.parse("SELECT * FROM T LOCK IN SHARE MODE").isRowLimitedOrLocked());
+  }
+
+  public void testNotRowLimitedOrLocked() {
+
+    assertFalse(ParsedSql.parse("SELECT * FROM T ORDER BY ID").isRowLimitedOrLocked());
+    assertFalse(ParsedSql.parse("SELECT * FROM T WHERE ID IN (SELECT ID FROM U ORDER BY ID LIMIT 10)").isRowLimitedOrLocked());
+    assertFalse(ParsedSql.parse("SELECT 'LIMIT 1', \"TOP\" FROM T -- FOR UPDATE").isRowLimitedOrLocked());
+    assertFalse(ParsedSql.parse("SELECT * FROM T FOR READ ONLY").isRowLimitedOrLocked());
+  }
+}
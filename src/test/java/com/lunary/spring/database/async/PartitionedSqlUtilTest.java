@@ -0,0 +1,115 @@
+package com.lunary.spring.database.async;
+
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.lunary.spring.database.SpringSqlUtil;
+
+/**
+ * Partitioned reads of PartitionedSqlUtil on an embedded H2 database.
+ */
+public class PartitionedSqlUtilTest extends TestCase {
+
+  private JdbcTemplate jdbcTemplate;
+  private PartitionedSqlUtil partitionedSqlUtil;
+
+  public PartitionedSqlUtilTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(PartitionedSqlUtilTest.class);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+
+    jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:" + getName() + ";DB_CLOSE_DELAY=-1"));
+    jdbcTemplate.execute("CREATE TABLE ITEM (ID BIGINT AUTO_INCREMENT PRIMARY KEY, NAME VARCHAR(20))");
+    for (int i = 1; i <= 25; i++) {
+      jdbcTemplate.update("INSERT INTO ITEM (NAME) VALUES (?)", "item" + i);
+    }
+    partitionedSqlUtil = new PartitionedSqlUtil(new SpringSqlUtil(jdbcTemplate, jdbcTemplate.getDataSource()), 3);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+
+    partitionedSqlUtil.shutdown();
+    jdbcTemplate.execute("SHUTDOWN");
+  }
+
+  public void testSplit() {
+
+    List<PartitionRange> ranges = partitionedSqlUtil.split("SELECT * FROM ITEM WHERE ID > ?", "ID", 4, 5);
+    assertEquals(4, ranges.size());
+    assertEquals(6L, ranges.get(0).getLower());
+    assertEquals(25L, ranges.get(3).getUpper());
+    assertTrue(ranges.get(3).isUpperInclusive());
+  }
+
+  public void testFindPartitionedInOrder() {
+
+    List<Item> items = partitionedSqlUtil.findPartitioned("SELECT * FROM ITEM WHERE ID > ? ORDER BY ID", Item.class, "ID", 4, 5);
+    assertEquals(20, items.size());
+    for (int i = 0; i < items.size(); i++) {
+      assertEquals(Long.valueOf(i + 6), items.get(i).getId());
+    }
+  }
+
+  public void testLimitRejected() {
+
+    try {
+      partitionedSqlUtil.findPartitioned("SELECT * FROM ITEM ORDER BY ID LIMIT 10", Item.class, "ID", 4);
+      fail("each partition would return up to 10 rows");
+    }
+    catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testOffsetFetchRejected() {
+
+    try {
+      partitionedSqlUtil.split("SELECT * FROM ITEM ORDER BY ID OFFSET 5 ROWS FETCH NEXT 10 ROWS ONLY", "ID", 4);
+      fail("the range must not be computed on the unlimited query");
+    }
+    catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testLimitInSubqueryAccepted() {
+
+    List<Item> items = partitionedSqlUtil.findPartitioned("SELECT * FROM ITEM WHERE ID IN (SELECT ID FROM ITEM ORDER BY ID LIMIT 10)", Item.class, "ID", 3);
+    assertEquals(10, items.size());
+  }
+
+  public static class Item {
+
+    private Long id;
+    private String name;
+
+    public Long getId() {
+      return id;
+    }
+
+    public void setId(Long id) {
+      this.id = id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+  }
+}
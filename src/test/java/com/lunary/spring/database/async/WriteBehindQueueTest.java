@@ -0,0 +1,368 @@
+package com.lunary.spring.database.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.lunary.model.IdKeyedTableEntity;
+import com.lunary.model.TableEntity;
+import com.lunary.spring.database.BatchResult;
+import com.lunary.spring.database.SpringSqlUtil;
+
+/**
+ * Coalescing, flush order, backpressure and close of WriteBehindQueue on an embedded H2 database.
+ */
+public class WriteBehindQueueTest extends TestCase {
+
+  private static final long TIMEOUT_MILLIS = 10000;
+
+  private JdbcTemplate jdbcTemplate;
+  private WriteBehindQueue queue;
+  private RecordingListener listener;
+  private ExecutorService executor;
+
+  public WriteBehindQueueTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(WriteBehindQueueTest.class);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+
+    jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:" + getName() + ";DB_CLOSE_DELAY=-1"));
+    jdbcTemplate.execute("CREATE TABLE ITEM (ID BIGINT AUTO_INCREMENT PRIMARY KEY, NAME VARCHAR(20))");
+    jdbcTemplate.update("INSERT INTO ITEM (NAME) VALUES ('one')");
+    jdbcTemplate.update("INSERT INTO ITEM (NAME) VALUES ('two')");
+    listener = new RecordingListener();
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+
+    if (queue != null) {
+      queue.close();
+    }
+    executor.shutdownNow();
+    jdbcTemplate.execute("SHUTDOWN");
+  }
+
+  /**
+   * Queue only flushed by flush() and close() unless flushSize is reached.
+   */
+  private WriteBehindQueue createQueue(int capacity, int flushSize) {
+
+    queue = new WriteBehindQueue(new SpringSqlUtil(jdbcTemplate, jdbcTemplate.getDataSource()), capacity);
+    queue.setFlushSize(flushSize);
+    queue.setFlushInterval(1, TimeUnit.HOURS);
+    queue.setListener(listener);
+    return queue;
+  }
+
+  private String getName(long id) {
+    return jdbcTemplate.queryForObject("SELECT NAME FROM ITEM WHERE ID = ?", String.class, id);
+  }
+
+  private int count() {
+    return jdbcTemplate.queryForInt("SELECT COUNT(*) FROM ITEM");
+  }
+
+  private void awaitCount(int expected) throws InterruptedException {
+
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (count() != expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(expected, count());
+  }
+
+  private Future<Void> insertLater(final Item item) {
+
+    return executor.submit(new Callable<Void>() {
+
+      @Override
+      public Void call() throws Exception {
+
+        queue.insert(item);
+        return null;
+      }
+    });
+  }
+
+  public void testFlushSizeTriggersWrite() throws Exception {
+
+    createQueue(10, 2);
+    queue.insert(new Item("a"));
+    queue.insert(new Item("b"));
+    awaitCount(4);
+    assertEquals(0, queue.getPendingCount());
+  }
+
+  public void testFlushIntervalTriggersWrite() throws Exception {
+
+    createQueue(10, 10);
+    queue.setFlushInterval(20, TimeUnit.MILLISECONDS);
+    queue.insert(new Item("a"));
+    awaitCount(3);
+  }
+
+  public void testUpdatesOfSameInstanceCoalesced() throws Exception {
+
+    createQueue(10, 10);
+    Item item = new Item(1L, "a");
+    queue.update(item);
+    item.setName("b");
+    queue.update(item);
+    item.setName("c");
+    queue.update(item);
+    assertEquals(1, queue.getPendingCount());
+
+    queue.flush();
+    assertEquals("c", getName(1L));
+    assertEquals(1, listener.batches.size());
+    assertEquals(Arrays.asList(item), listener.batches.get(0));
+  }
+
+  public void testUpdateWithNullReplacesPendingUpdate() throws Exception {
+
+    createQueue(10, 10);
+    queue.update(new Item(1L, "a"));
+    queue.updateWithNull(new Item(1L, null));
+    assertEquals(1, queue.getPendingCount());
+
+    queue.flush();
+    assertNull(getName(1L));
+    assertEquals(1, listener.batches.size());
+  }
+
+  public void testPartialUpdateOfPendingKeyFlushesFirst() throws Exception {
+
+    createQueue(10, 10);
+    Item first = new Item(2L, "first");
+    Item second = new Item(2L, "second");
+    queue.update(first);
+    queue.update(second);
+    assertEquals("first", getName(2L));
+    assertEquals(1, queue.getPendingCount());
+
+    queue.flush();
+    assertEquals("second", getName(2L));
+    assertEquals(Arrays.asList(Arrays.asList(first), Arrays.asList(second)), listener.batches);
+  }
+
+  public void testFlushInsertsThenUpdatesThenUpdatesWithNull() throws Exception {
+
+    createQueue(10, 10);
+    Item withNull = new Item(2L, null);
+    Item update = new Item(1L, "updated");
+    Item insert = new Item("inserted");
+    queue.updateWithNull(withNull);
+    queue.update(update);
+    queue.insert(insert);
+
+    queue.flush();
+    assertEquals(Arrays.asList(Arrays.asList(insert), Arrays.asList(update), Arrays.asList(withNull)), listener.batches);
+    assertEquals(3, count());
+    assertEquals("updated", getName(1L));
+    assertNull(getName(2L));
+  }
+
+  public void testFailedBatchReported() throws Exception {
+
+    createQueue(10, 10);
+    Item missing = new Item("missing") {
+
+      @Override
+      public String getTableName() {
+        return "MISSING";
+      }
+    };
+    queue.insert(missing);
+    queue.flush();
+    assertEquals(Arrays.asList(missing), listener.failed);
+    assertTrue(listener.batches.isEmpty());
+  }
+
+  public void testFullQueueBlocksProducers() throws Exception {
+
+    createQueue(2, 10);
+    queue.insert(new Item("a"));
+    queue.insert(new Item("b"));
+    Future<Void> blocked = insertLater(new Item("c"));
+    Thread.sleep(100);
+    assertFalse(blocked.isDone());
+    assertEquals(2, queue.getPendingCount());
+
+    queue.flush();
+    blocked.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    assertEquals(1, queue.getPendingCount());
+    assertEquals(4, count());
+  }
+
+  public void testCloseReleasesWaitingProducers() throws Exception {
+
+    createQueue(2, 10);
+    queue.insert(new Item("a"));
+    queue.insert(new Item("b"));
+    Future<Void> blocked = insertLater(new Item("c"));
+    Thread.sleep(100);
+
+    queue.close();
+    try {
+      blocked.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      fail("a producer waiting for room must fail on close");
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    assertEquals(4, count());
+    assertEquals(0, queue.getPendingCount());
+  }
+
+  public void testClosedQueueRejectsEntities() throws Exception {
+
+    createQueue(10, 10);
+    Item item = new Item(1L, "a");
+    queue.update(item);
+    queue.close();
+    assertEquals("a", getName(1L));
+    try {
+      queue.insert(new Item("b"));
+      fail("insert after close");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      queue.update(item);
+      fail("update of a pending key after close");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  public void testCloseFromListenerOnFlusher() throws Exception {
+
+    final CountDownLatch closed = new CountDownLatch(1);
+    createQueue(10, 1);
+    queue.setListener(new RecordingListener() {
+
+      @Override
+      public void flushed(List<TableEntity> entities, BatchResult result) {
+
+        super.flushed(entities, result);
+        queue.close();
+        closed.countDown();
+      }
+    });
+    queue.insert(new Item("a"));
+    assertTrue("close from the flusher must not wait for itself", closed.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    awaitCount(3);
+    try {
+      queue.insert(new Item("b"));
+      fail("insert after close");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  public void testCloseFromListenerOnCaller() throws Exception {
+
+    createQueue(10, 10);
+    queue.setListener(new RecordingListener() {
+
+      @Override
+      public void flushed(List<TableEntity> entities, BatchResult result) {
+
+        super.flushed(entities, result);
+        queue.close();
+      }
+    });
+    queue.insert(new Item("a"));
+    Future<?> flush = executor.submit(new Runnable() {
+
+      @Override
+      public void run() {
+        queue.flush();
+      }
+    });
+    flush.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    assertEquals(3, count());
+  }
+
+  private static class RecordingListener implements WriteBehindListener {
+
+    private final List<List<TableEntity>> batches = Collections.synchronizedList(new ArrayList<List<TableEntity>>());
+    private final List<TableEntity> failed = Collections.synchronizedList(new ArrayList<TableEntity>());
+
+    @Override
+    public void flushed(List<TableEntity> entities, BatchResult result) {
+      batches.add(new ArrayList<TableEntity>(entities));
+    }
+
+    @Override
+    public void failed(List<TableEntity> entities, RuntimeException error) {
+      failed.addAll(entities);
+    }
+  }
+
+  public static class Item implements IdKeyedTableEntity {
+
+    private Long id;
+    private String name;
+
+    public Item() {
+    }
+
+    public Item(String name) {
+      this.name = name;
+    }
+
+    public Item(Long id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+
+    @Override
+    public String getTableName() {
+      return "ITEM";
+    }
+
+    public Long getId() {
+      return id;
+    }
+
+    @Override
+    public void setId(long id) {
+      this.id = id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package com.lunary.spring.database.routing;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Routing of RoutingSqlUtil between a writer and a reader, two embedded H2 databases
+ * told apart by the number of rows of their table T.
+ */
+public class RoutingSqlUtilTest extends TestCase {
+
+  private static final String COUNT_SQL = "SELECT COUNT(*) FROM T";
+
+  private JdbcTemplate writer;
+  private JdbcTemplate reader;
+  private SwitchableDataSource readerDataSource;
+  private RoutingSqlUtil sqlUtil;
+
+  public RoutingSqlUtilTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(RoutingSqlUtilTest.class);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+
+    writer = createDatabase("writer", 3);
+    readerDataSource = new SwitchableDataSource(createDatabase("reader", 1).getDataSource());
+    reader = new JdbcTemplate(readerDataSource);
+    sqlUtil = RoutingSqlUtil.create(writer, Arrays.asList(reader));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+
+    sqlUtil.shutdown();
+    writer.execute("SHUTDOWN");
+    readerDataSource.setDown(false);
+    reader.execute("SHUTDOWN");
+  }
+
+  private JdbcTemplate createDatabase(String name, int rows) {
+
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:" + getName() + "_" + name + ";DB_CLOSE_DELAY=-1"));
+    jdbcTemplate.execute("CREATE TABLE T (ID INT AUTO_INCREMENT PRIMARY KEY, NAME VARCHAR(20))");
+    for (int i = 0; i < rows; i++) {
+      jdbcTemplate.update("INSERT INTO T (NAME) VALUES (?)", name);
+    }
+    return jdbcTemplate;
+  }
+
+  public void testReadsGoToReaderWritesToWriter() {
+
+    assertEquals(1, sqlUtil.findCount(COUNT_SQL));
+    assertEquals(1, sqlUtil.update("INSERT INTO T (NAME) VALUES (?)", "new"));
+    assertEquals(4, writer.queryForInt(COUNT_SQL));
+    assertEquals(1, reader.queryForInt(COUNT_SQL));
+    assertEquals(1, sqlUtil.findCount(COUNT_SQL));
+  }
+
+  public void testNoReaders() {
+
+    RoutingSqlUtil writerOnly = RoutingSqlUtil.create(writer, Arrays.<JdbcTemplate> asList());
+    assertEquals(3, writerOnly.findCount(COUNT_SQL));
+    assertEquals(0, writerOnly.getHealthyReaderCount());
+  }
+
+  public void testReadYourWrites() throws Exception {
+
+    sqlUtil.setReadYourWritesWindow(1, TimeUnit.MINUTES);
+    assertEquals(1, sqlUtil.findCount(COUNT_SQL));
+    sqlUtil.update("INSERT INTO T (NAME) VALUES (?)", "new");
+    assertEquals(4, sqlUtil.findCount(COUNT_SQL));
+
+    // the window is per thread
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      int otherThreadCount = executor.submit(new Callable<Integer>() {
+
+        @Override
+        public Integer call() {
+          return sqlUtil.findCount(COUNT_SQL);
+        }
+      }).get(10, TimeUnit.SECONDS);
+      assertEquals(1, otherThreadCount);
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testReadYourWritesWindowExpires() throws Exception {
+
+    sqlUtil.setReadYourWritesWindow(50, TimeUnit.MILLISECONDS);
+    sqlUtil.update("INSERT INTO T (NAME) VALUES (?)", "new");
+    assertEquals(4, sqlUtil.findCount(COUNT_SQL));
+    Thread.sleep(100);
+    assertEquals(1, sqlUtil.findCount(COUNT_SQL));
+  }
+
+  public void testFailingReaderEjectedAndReadRetriedOnWriter() {
+
+    readerDataSource.setDown(true);
+    assertEquals(3, sqlUtil.findCount(COUNT_SQL));
+    assertEquals(0, sqlUtil.getHealthyReaderCount());
+
+    // the reader is not tried again until it is checked
+    readerDataSource.setDown(false);
+    assertEquals(3, sqlUtil.findCount(COUNT_SQL));
+    assertEquals(0, sqlUtil.getHealthyReaderCount());
+  }
+
+  public void testStatementErrorNotRetried() {
+
+    try {
+      sqlUtil.findCount("SELECT COUNT(*) FROM MISSING");
+      fail("bad SQL must be thrown");
+    }
+    catch (RuntimeException e) {
+      assertFalse(sqlUtil.isResourceFailure(e));
+    }
+    assertEquals(1, sqlUtil.getHealthyReaderCount());
+  }
+
+  public void testCheckReadersRestoresReader() {
+
+    readerDataSource.setDown(true);
+    sqlUtil.findCount(COUNT_SQL);
+    sqlUtil.checkReaders();
+    assertEquals(0, sqlUtil.getHealthyReaderCount());
+
+    readerDataSource.setDown(false);
+    sqlUtil.checkReaders();
+    assertEquals(1, sqlUtil.getHealthyReaderCount());
+    assertEquals(1, sqlUtil.findCount(COUNT_SQL));
+  }
+
+  public void testHealthChecksRestoreReader() throws Exception {
+
+    readerDataSource.setDown(true);
+    sqlUtil.findCount(COUNT_SQL);
+    readerDataSource.setDown(false);
+    sqlUtil.startHealthChecks(10, TimeUnit.MILLISECONDS);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (sqlUtil.getHealthyReaderCount() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, sqlUtil.getHealthyReaderCount());
+    assertEquals(1, sqlUtil.findCount(COUNT_SQL));
+  }
+
+  /**
+   * DataSource refusing connections while it is down.
+   */
+  private static class SwitchableDataSource extends DelegatingDataSource {
+
+    private volatile boolean down;
+
+    private SwitchableDataSource(DataSource dataSource) {
+      super(dataSource);
+    }
+
+    private void setDown(boolean down) {
+      this.down = down;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+
+      if (down) {
+        throw new SQLNonTransientConnectionException("Database is down");
+      }
+      return super.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+
+      if (down) {
+        throw new SQLNonTransientConnectionException("Database is down");
+      }
+      return super.getConnection(username, password);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.lunary.spring.database.template;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.lunary.database.PaginateSqlTemplate;
+
+/**
+ * Golden SQL of the PaginateSqlTemplates.
+ */
+public class PaginateSqlTemplateTest extends TestCase {
+
+  private static final String SQL = "SELECT ID, NAME FROM CUSTOMER WHERE STATUS = ?";
+
+  public PaginateSqlTemplateTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(PaginateSqlTemplateTest.class);
+  }
+
+  public void testOracleCount() {
+
+    PaginateSqlTemplate template = new OraclePaginateSqlTemplate();
+    assertEquals("SELECT COUNT(*) FROM (SELECT ID, NAME FROM CUSTOMER WHERE STATUS = ?) count_", template.formatCountSql(SQL));
+  }
+
+  public void testOracleFirstPage() {
+
+    PaginateSqlTemplate template = new OraclePaginateSqlTemplate();
+    assertEquals("SELECT * FROM (SELECT row_.*, ROWNUM rownum_ FROM (SELECT ID, NAME FROM CUSTOMER WHERE STATUS = ? ORDER BY ID) row_ WHERE ROWNUM <= 20) WHERE rownum_ > 0",
+        template.formatPaginateSql(SQL, "ID", 1, 20));
+  }
+
+  public void testOracleThirdPage() {
+
+    PaginateSqlTemplate template = new OraclePaginateSqlTemplate();
+    assertEquals("SELECT * FROM (SELECT row_.*, ROWNUM rownum_ FROM (SELECT ID, NAME FROM CUSTOMER WHERE STATUS = ? ORDER BY NAME DESC, ID) row_ WHERE ROWNUM <= 75) WHERE rownum_ > 50",
+        template.formatPaginateSql(SQL, "NAME DESC, ID ", 3, 25));
+  }
+
+  public void testOffsetFetchCount() {
+
+    PaginateSqlTemplate template = new OffsetFetchPaginateSqlTemplate();
+    assertEquals("SELECT COUNT(*) FROM (SELECT ID, NAME FROM CUSTOMER WHERE STATUS = ?) count_", template.formatCountSql(SQL));
+  }
+
+  public void testOffsetFetchFirstPage() {
+
+    PaginateSqlTemplate template = new OffsetFetchPaginateSqlTemplate();
+    assertEquals("SELECT ID, NAME FROM CUSTOMER WHERE STATUS = ? ORDER BY ID OFFSET 0 ROWS FETCH NEXT 20 ROWS ONLY",
+        template.formatPaginateSql(SQL, "ID", 1, 20));
+  }
+
+  public void testOffsetFetchDefaultOrder() {
+
+    PaginateSqlTemplate template = new OffsetFetchPaginateSqlTemplate();
+    assertEquals("SELECT ID, NAME FROM CUSTOMER WHERE STATUS = ? ORDER BY 1 OFFSET 50 ROWS FETCH NEXT 25 ROWS ONLY",
+        template.formatPaginateSql(SQL, "1 ", 3, 25));
+  }
+}
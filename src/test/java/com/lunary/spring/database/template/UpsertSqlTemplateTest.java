@@ -0,0 +1,58 @@
+package com.lunary.spring.database.template;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Golden SQL of the UpsertSqlTemplates.
+ */
+public class UpsertSqlTemplateTest extends TestCase {
+
+  private static final String[] COLUMNS = { "A", "B", "VAL" };
+  private static final String[] KEYS = { "A", "B" };
+
+  public UpsertSqlTemplateTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(UpsertSqlTemplateTest.class);
+  }
+
+  public void testMySql() {
+
+    UpsertSqlTemplate template = new MySqlUpsertSqlTemplate();
+    assertEquals("INSERT INTO P (A, B, VAL) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE VAL = VALUES(VAL)", template.formatUpsertSql("P", COLUMNS, KEYS));
+  }
+
+  public void testMySqlKeysOnly() {
+
+    UpsertSqlTemplate template = new MySqlUpsertSqlTemplate();
+    assertEquals("INSERT INTO P (A, B) VALUES (?, ?) ON DUPLICATE KEY UPDATE A = A", template.formatUpsertSql("P", KEYS, KEYS));
+  }
+
+  public void testMerge() {
+
+    UpsertSqlTemplate template = new MergeUpsertSqlTemplate();
+    assertEquals("MERGE INTO P t_ USING (VALUES (?, ?, ?)) s_ (A, B, VAL) ON (t_.A = s_.A AND t_.B = s_.B)"
+        + " WHEN MATCHED THEN UPDATE SET t_.VAL = s_.VAL WHEN NOT MATCHED THEN INSERT (A, B, VAL) VALUES (s_.A, s_.B, s_.VAL)",
+        template.formatUpsertSql("P", COLUMNS, KEYS));
+  }
+
+  public void testMergeSqlServerKeysOnly() {
+
+    UpsertSqlTemplate template = new MergeUpsertSqlTemplate(";");
+    assertEquals("MERGE INTO P t_ USING (VALUES (?, ?)) s_ (A, B) ON (t_.A = s_.A AND t_.B = s_.B)"
+        + " WHEN NOT MATCHED THEN INSERT (A, B) VALUES (s_.A, s_.B);",
+        template.formatUpsertSql("P", KEYS, KEYS));
+  }
+
+  public void testOracleMerge() {
+
+    UpsertSqlTemplate template = new OracleMergeUpsertSqlTemplate();
+    assertEquals("MERGE INTO P t_ USING (SELECT ? A, ? B, ? VAL FROM DUAL) s_ ON (t_.A = s_.A AND t_.B = s_.B)"
+        + " WHEN MATCHED THEN UPDATE SET t_.VAL = s_.VAL WHEN NOT MATCHED THEN INSERT (A, B, VAL) VALUES (s_.A, s_.B, s_.VAL)",
+        template.formatUpsertSql("P", COLUMNS, KEYS));
+  }
+}